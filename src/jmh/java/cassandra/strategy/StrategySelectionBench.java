@@ -0,0 +1,78 @@
+package cassandra.strategy;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.compaction.StubColumnFamilyStore;
+import org.apache.cassandra.db.compaction.SyntheticSSTables;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full background selection of both strategies, hourly windows. The expired
+ * check runs once the expiry schedule has an sstable due, and then on every
+ * call while due sstables are left, the check frequency being 0.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StrategySelectionBench {
+
+    @Param({ "1000", "10000", "100000" })
+    int sstables;
+
+    AgeingCompactionStrategy ageing;
+    EasyTimeWindowCompactionStrategy easy;
+    int gcBefore;
+
+    @Setup
+    public void setup() {
+        long nowMillis = System.currentTimeMillis();
+        List<SSTableReader> tables = SyntheticSSTables
+                .generate(sstables, TimeUnit.MILLISECONDS.toMicros(nowMillis), 42);
+        ColumnFamilyStore cfs = StubColumnFamilyStore.create("bench", "events", tables);
+
+        Map<String, String> props = new HashMap<>();
+        props.put("compaction_window_unit", "HOURS");
+        props.put("compaction_window_size", "1");
+        props.put("expired_sstable_check_frequency_seconds", "0");
+        props.put(AgeingCompactionStrategyOptions.AGE_MINUTES,
+                Long.toString(TimeUnit.DAYS.toMinutes(60)));
+        props.put(AgeingCompactionStrategyOptions.DRY_RUN, "false");
+        props.put(AgeingCompactionStrategyOptions.MAX_FILE_SILE_MB, "10240");
+
+        ageing = new AgeingCompactionStrategy(cfs, props);
+        easy = new EasyTimeWindowCompactionStrategy(cfs, props);
+        for (SSTableReader table : tables) {
+            ageing.addSSTable(table);
+            easy.addSSTable(table);
+        }
+        gcBefore = (int) TimeUnit.MILLISECONDS.toSeconds(nowMillis);
+    }
+
+    @Benchmark
+    public List<SSTableReader> ageingNextBackgroundSSTables() {
+        return ageing.getNextBackgroundSSTables(gcBefore);
+    }
+
+    @Benchmark
+    public List<SSTableReader> easyNextBackgroundSSTables() {
+        return easy.getNextBackgroundSSTables(gcBefore);
+    }
+}
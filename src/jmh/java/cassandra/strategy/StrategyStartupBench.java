@@ -0,0 +1,77 @@
+package cassandra.strategy;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.compaction.StubColumnFamilyStore;
+import org.apache.cassandra.db.compaction.SyntheticSSTables;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Strategy startup: the compaction strategy manager adds the sstables of a
+ * table one at a time, then the first background selection reads every
+ * index. Should grow with n log n, not n squared.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StrategyStartupBench {
+
+    @Param({ "10000", "50000" })
+    int sstables;
+
+    List<SSTableReader> tables;
+    ColumnFamilyStore cfs;
+    Map<String, String> props;
+    int gcBefore;
+
+    @Setup
+    public void setup() {
+        long nowMillis = System.currentTimeMillis();
+        tables = SyntheticSSTables.generate(sstables,
+                TimeUnit.MILLISECONDS.toMicros(nowMillis), 42);
+        cfs = StubColumnFamilyStore.create("bench", "events", tables);
+
+        props = new HashMap<>();
+        props.put("compaction_window_unit", "HOURS");
+        props.put("compaction_window_size", "1");
+        props.put(AgeingCompactionStrategyOptions.AGE_MINUTES,
+                Long.toString(TimeUnit.DAYS.toMinutes(60)));
+        props.put(AgeingCompactionStrategyOptions.DRY_RUN, "false");
+        gcBefore = (int) TimeUnit.MILLISECONDS.toSeconds(nowMillis);
+    }
+
+    @Benchmark
+    public List<SSTableReader> ageingStartup() {
+        AgeingCompactionStrategy ageing = new AgeingCompactionStrategy(cfs, props);
+        for (SSTableReader table : tables)
+            ageing.addSSTable(table);
+        return ageing.getNextBackgroundSSTables(gcBefore);
+    }
+
+    @Benchmark
+    public List<SSTableReader> easyStartup() {
+        EasyTimeWindowCompactionStrategy easy = new EasyTimeWindowCompactionStrategy(cfs,
+                props);
+        for (SSTableReader table : tables)
+            easy.addSSTable(table);
+        return easy.getNextBackgroundSSTables(gcBefore);
+    }
+}
@@ -0,0 +1,317 @@
+package org.apache.cassandra.db.compaction;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+
+import cassandra.strategy.AgeingCompactionStrategy;
+import cassandra.strategy.EasyTimeWindowCompactionStrategy;
+
+/**
+ * Replays a stream of sstable creations through one of the strategies on a
+ * simulated clock and reports write amplification, the most sstables a window
+ * held, the disk high-water mark and the bytes reclaimed.
+ *
+ * Compactions complete instantly: inputs past gcBefore are dropped, the rest
+ * merge into sstables carrying their combined metadata, split at the
+ * strategy's max sstable size. Compaction bandwidth is unbounded, after every
+ * flush getNextBackgroundTask is polled until it has nothing left to do, the
+ * tasks it returns are replayed instead of run.
+ *
+ * The stream is a csv of created_millis,min_timestamp,max_timestamp,
+ * max_local_deletion_time,min_ttl,max_ttl,bytes with timestamps in micros and
+ * the deletion time in seconds. Without sim.input a steady ingest of
+ * sim.flush_mb every sim.flush_minutes for sim.days is generated, with a TTL of
+ * sim.ttl_days. Every other key=value is passed to the strategy.
+ *
+ * <pre>
+ * mvn -Pjmh package
+ * java -cp target/benchmarks.jar org.apache.cassandra.db.compaction.CompactionSimulator \
+ *     ageing compaction_window_unit=HOURS compaction_window_size=6 age_minutes=20160
+ * </pre>
+ */
+public final class CompactionSimulator {
+    private static final long MB = 1024L * 1024L;
+    private static final String SIM_PREFIX = "sim.";
+
+    private final StubColumnFamilyStore cfs;
+    private final TimeWindowCompactionStrategyHelper strategy;
+    private final int gcGraceSeconds;
+    private final int maxCompactionsPerFlush;
+    private int nextId;
+    private long nowMillis;
+
+    private long liveBytes;
+    private long flushedBytes;
+    private long compactedBytes;
+    private long expiredBytes;
+    private long agedBytes;
+    private long compactions;
+    private long peakDiskBytes;
+    private int peakSSTables;
+    private int peakWindowSSTables;
+
+    private CompactionSimulator(String strategyName, Map<String, String> options,
+            Map<String, String> sim, int firstId) {
+        this.cfs = StubColumnFamilyStore.create("sim", "events",
+                Collections.<SSTableReader>emptyList());
+        this.gcGraceSeconds = Integer
+                .parseInt(sim.getOrDefault("gc_grace_seconds", "864000"));
+        // the strategies schedule expiry with the table's gc grace
+        cfs.metadata.gcGraceSeconds(gcGraceSeconds);
+        this.strategy = createStrategy(strategyName, options);
+        this.maxCompactionsPerFlush = Integer
+                .parseInt(sim.getOrDefault("max_compactions_per_flush", "64"));
+        this.nextId = firstId;
+    }
+
+    private TimeWindowCompactionStrategyHelper createStrategy(String name,
+            Map<String, String> options) {
+        switch (name) {
+        case "ageing":
+            return new AgeingCompactionStrategy(cfs, options) {
+                @Override
+                protected long currentTimeMillis() {
+                    return nowMillis;
+                }
+
+                @Override
+                protected void requestParallelSlots() {
+                    // every flush polls until nothing is left
+                }
+            };
+        case "easy":
+            return new EasyTimeWindowCompactionStrategy(cfs, options) {
+                @Override
+                protected long currentTimeMillis() {
+                    return nowMillis;
+                }
+
+                @Override
+                protected void requestParallelSlots() {
+                    // every flush polls until nothing is left
+                }
+            };
+        case "twcs":
+            return new TimeWindowCompactionStrategyHelper(cfs, options) {
+                @Override
+                protected long currentTimeMillis() {
+                    return nowMillis;
+                }
+
+                @Override
+                protected void requestParallelSlots() {
+                    // every flush polls until nothing is left
+                }
+            };
+        default:
+            throw new IllegalArgumentException("unknown strategy " + name
+                    + ", expected ageing, easy or twcs");
+        }
+    }
+
+    private void flush(long createdMillis, SSTableReader sstable) {
+        nowMillis = createdMillis;
+        cfs.replace(Collections.<SSTableReader>emptySet(),
+                Collections.singleton(sstable));
+        strategy.addSSTable(sstable);
+        flushedBytes += sstable.onDiskLength();
+        liveBytes += sstable.onDiskLength();
+        peakDiskBytes = Math.max(peakDiskBytes, liveBytes);
+
+        int gcBefore = (int) TimeUnit.MILLISECONDS.toSeconds(nowMillis) - gcGraceSeconds;
+        for (int i = 0; i < maxCompactionsPerFlush; i++) {
+            AbstractCompactionTask task = strategy.getNextBackgroundTask(gcBefore);
+            if (task == null)
+                break;
+            // the task is not run, its inputs are released and replayed here
+            List<SSTableReader> inputs = new ArrayList<>(task.transaction.originals());
+            task.transaction.abort();
+            if (task instanceof DropSSTablesTask)
+                agedBytes += drop(inputs);
+            else
+                compact(inputs, gcBefore);
+        }
+
+        TimeWindowIndex index = strategy.windowIndex.get();
+        peakSSTables = Math.max(peakSSTables, index.size());
+        for (int i = 0; i < index.windowCount(); i++)
+            peakWindowSSTables = Math.max(peakWindowSSTables,
+                    index.bucketAt(i).size());
+    }
+
+    private long drop(List<SSTableReader> sstables) {
+        long bytes = 0;
+        for (SSTableReader sstable : sstables)
+            bytes += sstable.onDiskLength();
+        cfs.replace(sstables, Collections.<SSTableReader>emptySet());
+        strategy.replaceSSTables(sstables, Collections.<SSTableReader>emptySet());
+        liveBytes -= bytes;
+        return bytes;
+    }
+
+    private void compact(List<SSTableReader> inputs, int gcBefore) {
+        long bytes = 0;
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        int maxLocalDeletionTime = Integer.MIN_VALUE;
+        int minTTL = Integer.MAX_VALUE;
+        int maxTTL = 0;
+        for (SSTableReader input : inputs) {
+            StatsMetadata stats = input.getSSTableMetadata();
+            if (stats.maxLocalDeletionTime < gcBefore) {
+                expiredBytes += input.onDiskLength();
+                continue;
+            }
+            bytes += input.onDiskLength();
+            minTimestamp = Math.min(minTimestamp, stats.minTimestamp);
+            maxTimestamp = Math.max(maxTimestamp, stats.maxTimestamp);
+            maxLocalDeletionTime = Math.max(maxLocalDeletionTime,
+                    stats.maxLocalDeletionTime);
+            minTTL = Math.min(minTTL, stats.minTTL);
+            maxTTL = Math.max(maxTTL, stats.maxTTL);
+        }
+
+        List<SSTableReader> outputs = new ArrayList<>();
+        if (bytes > 0) {
+            StatsMetadata stats = SyntheticSSTables.metadata(minTimestamp, maxTimestamp,
+                    maxLocalDeletionTime, minTTL, maxTTL);
+            long max = strategy.getMaxSSTableBytes();
+            long parts = max == Long.MAX_VALUE ? 1 : (bytes + max - 1) / max;
+            for (long part = 0; part < parts; part++)
+                outputs.add(StubSSTableReader.create(nextId++, stats,
+                        bytes / parts + (part < bytes % parts ? 1 : 0)));
+        }
+
+        // inputs stay on disk until the compaction finishes
+        peakDiskBytes = Math.max(peakDiskBytes, liveBytes + bytes);
+        compactedBytes += bytes;
+        compactions++;
+        cfs.replace(inputs, outputs);
+        strategy.replaceSSTables(inputs, outputs);
+        for (SSTableReader input : inputs)
+            liveBytes -= input.onDiskLength();
+        liveBytes += bytes;
+    }
+
+    private void report(String strategyName, long durationMillis) {
+        System.out.printf("strategy                 %s%n", strategyName);
+        System.out.printf("simulated                %.1f days%n",
+                durationMillis / (double) TimeUnit.DAYS.toMillis(1));
+        System.out.printf("flushed                  %,d MB%n", flushedBytes / MB);
+        System.out.printf("compacted                %,d MB in %,d compactions%n",
+                compactedBytes / MB, compactions);
+        System.out.printf("write amplification      %.2f%n", flushedBytes == 0 ? 0
+                : (flushedBytes + compactedBytes) / (double) flushedBytes);
+        System.out.printf("peak sstables            %,d%n", peakSSTables);
+        System.out.printf("peak sstables per window %,d%n", peakWindowSSTables);
+        System.out.printf("disk high-water mark     %,d MB%n", peakDiskBytes / MB);
+        System.out.printf("reclaimed expired        %,d MB%n", expiredBytes / MB);
+        System.out.printf("reclaimed aged           %,d MB%n", agedBytes / MB);
+        TimeWindowIndex index = strategy.windowIndex.get();
+        System.out.printf("live at end              %,d MB in %,d sstables, %,d windows%n",
+                liveBytes / MB, index.size(), index.windowCount());
+        System.out.printf("window layout            %s%n", index.layout());
+        System.out.printf("pending at end           %,d MB to rewrite, %,d MB to drop%n",
+                strategy.getEstimatedPendingBytes() / MB,
+                strategy.getEstimatedDroppableBytes() / MB);
+        System.out.printf("decisions recorded       %,d%n", strategy.journal.recorded());
+    }
+
+    private static final class Flush {
+        final long createdMillis;
+        final SSTableReader sstable;
+
+        Flush(long createdMillis, SSTableReader sstable) {
+            this.createdMillis = createdMillis;
+            this.sstable = sstable;
+        }
+    }
+
+    private static List<Flush> read(String path) throws IOException {
+        List<Flush> flushes = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] f = line.split(",");
+            if (f.length != 7)
+                throw new IllegalArgumentException("expected 7 fields: " + line);
+            StatsMetadata stats = SyntheticSSTables.metadata(Long.parseLong(f[1].trim()),
+                    Long.parseLong(f[2].trim()), Integer.parseInt(f[3].trim()),
+                    Integer.parseInt(f[4].trim()), Integer.parseInt(f[5].trim()));
+            flushes.add(new Flush(Long.parseLong(f[0].trim()), StubSSTableReader
+                    .create(flushes.size(), stats, Long.parseLong(f[6].trim()))));
+        }
+        Collections.sort(flushes, Comparator.comparingLong(flush -> flush.createdMillis));
+        return flushes;
+    }
+
+    private static List<Flush> generate(Map<String, String> sim) {
+        int days = Integer.parseInt(sim.getOrDefault("days", "14"));
+        long interval = TimeUnit.MINUTES
+                .toMillis(Long.parseLong(sim.getOrDefault("flush_minutes", "10")));
+        long bytes = Long.parseLong(sim.getOrDefault("flush_mb", "64")) * MB;
+        int ttl = (int) TimeUnit.DAYS
+                .toSeconds(Long.parseLong(sim.getOrDefault("ttl_days", "7")));
+
+        List<Flush> flushes = new ArrayList<>();
+        long end = System.currentTimeMillis();
+        for (long t = end - TimeUnit.DAYS.toMillis(days); t <= end; t += interval) {
+            long maxTimestamp = TimeUnit.MILLISECONDS.toMicros(t);
+            long minTimestamp = TimeUnit.MILLISECONDS.toMicros(t - interval);
+            int maxLocalDeletionTime = ttl == 0 ? Integer.MAX_VALUE
+                    : (int) (TimeUnit.MILLISECONDS.toSeconds(t) + ttl);
+            StatsMetadata stats = SyntheticSSTables.metadata(minTimestamp, maxTimestamp,
+                    maxLocalDeletionTime, ttl, ttl);
+            flushes.add(new Flush(t, StubSSTableReader.create(flushes.size(), stats,
+                    bytes)));
+        }
+        return flushes;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: CompactionSimulator ageing|easy|twcs "
+                    + "[sim.input=flushes.csv] [sim.key=value ...] [option=value ...]");
+            System.exit(1);
+        }
+        Map<String, String> options = new HashMap<>();
+        Map<String, String> sim = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("expected key=value: " + args[i]);
+            String key = args[i].substring(0, eq);
+            String value = args[i].substring(eq + 1);
+            if (key.startsWith(SIM_PREFIX))
+                sim.put(key.substring(SIM_PREFIX.length()), value);
+            else
+                options.put(key, value);
+        }
+
+        // loading the flushes goes through SyntheticSSTables, which points the
+        // node configuration at the bench yaml before the table is created
+        List<Flush> flushes = sim.containsKey("input") ? read(sim.get("input"))
+                : generate(sim);
+        CompactionSimulator simulator = new CompactionSimulator(args[0], options, sim,
+                flushes.size());
+        for (Flush flush : flushes)
+            simulator.flush(flush.createdMillis, flush.sstable);
+
+        long duration = flushes.isEmpty() ? 0
+                : flushes.get(flushes.size() - 1).createdMillis
+                        - flushes.get(0).createdMillis;
+        simulator.report(args[0], duration);
+    }
+}
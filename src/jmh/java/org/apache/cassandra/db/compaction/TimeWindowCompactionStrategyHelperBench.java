@@ -0,0 +1,78 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimeWindowCompactionStrategyHelperBench {
+
+    @Param({ "1000", "10000", "100000" })
+    int sstables;
+
+    List<SSTableReader> tables;
+    TimeWindowIndex buckets;
+    Set<SSTableReader> largestBucket;
+    SizeTieredCompactionStrategyOptions stcsOptions;
+
+    @Setup
+    public void setup() {
+        long nowMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        tables = SyntheticSSTables.generate(sstables, nowMicros, 42);
+        buckets = getBuckets();
+        for (int i = 0; i < buckets.windowCount(); i++)
+            if (largestBucket == null || buckets.bucketAt(i).size() > largestBucket.size())
+                largestBucket = buckets.bucketAt(i);
+        stcsOptions = new SizeTieredCompactionStrategyOptions();
+    }
+
+    @Benchmark
+    public TimeWindowIndex getBuckets() {
+        return TimeWindowCompactionStrategyHelper.getBuckets(tables, TimeUnit.HOURS, 1,
+                TimeUnit.MICROSECONDS);
+    }
+
+    @Benchmark
+    public List<SSTableReader> newestBucket() {
+        return TimeWindowCompactionStrategyHelper.newestBucket(buckets, 4, 32,
+                stcsOptions, buckets.getHighestWindow());
+    }
+
+    @Benchmark
+    public List<SSTableReader> trimToThreshold() {
+        return TimeWindowCompactionStrategyHelper.trimToThreshold(largestBucket, 32);
+    }
+
+    @Benchmark
+    public void getWindowBoundsInMillis(Blackhole bh) {
+        for (SSTableReader table : tables)
+            bh.consume(TimeWindowCompactionStrategyHelper.getWindowBoundsInMillis(
+                    TimeUnit.HOURS, 1, table.getMaxTimestamp() / 1000));
+    }
+
+    @Benchmark
+    public void getWindowLowerBoundInMillis(Blackhole bh) {
+        for (SSTableReader table : tables)
+            bh.consume(TimeWindowCompactionStrategyHelper.getWindowLowerBoundInMillis(
+                    TimeUnit.HOURS, 1, table.getMaxTimestamp() / 1000));
+    }
+}
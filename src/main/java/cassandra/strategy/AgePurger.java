@@ -0,0 +1,157 @@
+package cassandra.strategy;
+
+import java.util.function.LongSupplier;
+
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.compaction.TimeWindowCompactionStrategyMetrics;
+import org.apache.cassandra.db.compaction.TimeWindowCompactionTask;
+import org.apache.cassandra.db.rows.BTreeRow;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.ColumnData;
+import org.apache.cassandra.db.rows.ComplexColumnData;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.Rows;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.transform.Transformation;
+
+/**
+ * Leaves out of the merged partitions of a compaction the live cells and row
+ * liveness written before the age limit, so data in sstables that are not
+ * old enough to be dropped as a whole still ages out when it is compacted.
+ *
+ * Like a purgeable tombstone, a cell only goes when no sstable outside of the
+ * compaction nor memtable may hold its partition with older data, which
+ * dropping it would bring back. Tombstones are kept, they may still shadow
+ * older data elsewhere. In dry run nothing is left out, what would have been
+ * is only counted.
+ */
+public class AgePurger implements TimeWindowCompactionTask.Purge {
+    private final TimeWindowCompactionStrategyMetrics mMetrics;
+    // write timestamp limit, micros
+    private final long mAgedBefore;
+    private final int mNowInSec;
+    private final boolean mDryRun;
+
+    public AgePurger(long agedBefore, //
+            int nowInSec, //
+            boolean dryRun, //
+            TimeWindowCompactionStrategyMetrics metrics//
+    ) {
+        mAgedBefore = agedBefore;
+        mNowInSec = nowInSec;
+        mDryRun = dryRun;
+        mMetrics = metrics;
+    }
+
+    @Override
+    public UnfilteredRowIterator apply(UnfilteredRowIterator partition,
+            LongSupplier maxPurgeableTimestamp) {
+        return Transformation.apply(partition, new RowPurger(maxPurgeableTimestamp));
+    }
+
+    /**
+     * Purges the rows of one partition. Rows are checked first, only those
+     * holding aged cells are rebuilt.
+     */
+    private class RowPurger extends Transformation<UnfilteredRowIterator> {
+        private final LongSupplier mMaxPurgeableTimestamp;
+        // looked up on the first aged cell, the overlap check reads bloom filters
+        private long mPurgeableBefore = Long.MIN_VALUE;
+        private boolean mLookedUp;
+
+        RowPurger(LongSupplier maxPurgeableTimestamp) {
+            mMaxPurgeableTimestamp = maxPurgeableTimestamp;
+        }
+
+        @Override
+        protected Row applyToStatic(Row row) {
+            Row purged = purge(row);
+            return purged == null ? Rows.EMPTY_STATIC_ROW : purged;
+        }
+
+        @Override
+        protected Row applyToRow(Row row) {
+            return purge(row);
+        }
+
+        private boolean purgeable(long timestamp) {
+            if (timestamp >= mAgedBefore) {
+                return false;
+            }
+            if (!mLookedUp) {
+                mPurgeableBefore = mMaxPurgeableTimestamp.getAsLong();
+                mLookedUp = true;
+            }
+            return timestamp < mPurgeableBefore;
+        }
+
+        private boolean purgeable(LivenessInfo info) {
+            return !info.isEmpty() && info.isLive(mNowInSec) && purgeable(info.timestamp());
+        }
+
+        private boolean purgeable(Cell cell) {
+            return cell.isLive(mNowInSec) && purgeable(cell.timestamp());
+        }
+
+        private Row purge(Row row) {
+            long cells = purgeableCells(row);
+            if (cells == 0) {
+                return row;
+            }
+            mMetrics.agedCellsPurged(cells);
+            return mDryRun ? row : rebuild(row);
+        }
+
+        // row liveness counts as a cell
+        private long purgeableCells(Row row) {
+            long cells = purgeable(row.primaryKeyLivenessInfo()) ? 1 : 0;
+            for (Cell cell : row.cells()) {
+                if (purgeable(cell)) {
+                    cells++;
+                }
+            }
+            return cells;
+        }
+
+        /**
+         * @return row without its aged cells, null if nothing is left
+         */
+        private Row rebuild(Row row) {
+            Row.Builder builder = BTreeRow.sortedBuilder();
+            builder.newRow(row.clustering());
+            boolean empty = true;
+            LivenessInfo info = row.primaryKeyLivenessInfo();
+            if (!info.isEmpty() && !purgeable(info)) {
+                builder.addPrimaryKeyLivenessInfo(info);
+                empty = false;
+            }
+            if (!row.deletion().isLive()) {
+                builder.addRowDeletion(row.deletion());
+                empty = false;
+            }
+            for (ColumnData data : row) {
+                if (data.column().isSimple()) {
+                    if (!purgeable((Cell) data)) {
+                        builder.addCell((Cell) data);
+                        empty = false;
+                    }
+                    continue;
+                }
+                ComplexColumnData complex = (ComplexColumnData) data;
+                if (!complex.complexDeletion().isLive()) {
+                    builder.addComplexDeletion(complex.column(), //
+                            complex.complexDeletion()//
+                    );
+                    empty = false;
+                }
+                for (Cell cell : complex) {
+                    if (!purgeable(cell)) {
+                        builder.addCell(cell);
+                        empty = false;
+                    }
+                }
+            }
+            return empty ? null : builder.build();
+        }
+    }
+}
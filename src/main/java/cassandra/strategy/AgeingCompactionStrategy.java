@@ -5,35 +5,46 @@ import static cassandra.strategy.AgeingCompactionStrategyOptions.DEFAULT_MAX_FIL
 import static cassandra.strategy.AgeingCompactionStrategyOptions.DRY_RUN;
 import static cassandra.strategy.AgeingCompactionStrategyOptions.AGE_MINUTES;
 import static cassandra.strategy.AgeingCompactionStrategyOptions.MAX_AGED_TABLES;
+import static cassandra.strategy.AgeingCompactionStrategyOptions.MAX_FILE_SILE_MB;
 import static cassandra.strategy.AgeingCompactionStrategyOptions.MAX_LDT;
-import static java.lang.System.currentTimeMillis;
+import static cassandra.strategy.AgeingCompactionStrategyOptions.PURGE_AGED_CELLS;
 import static java.util.concurrent.TimeUnit.MICROSECONDS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToString;
 import static org.apache.commons.lang3.builder.ToStringStyle.SHORT_PREFIX_STYLE;
 //import static org.apache.commons.lang3.builder.ToStringStyle.MULTI_LINE_STYLE;
 
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.TimeZone;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.compaction.AbstractCompactionTask;
+import org.apache.cassandra.db.compaction.DecisionJournal.Decision;
+import org.apache.cassandra.db.compaction.DropSSTablesTask;
+import org.apache.cassandra.db.compaction.ExpirySchedule;
+import org.apache.cassandra.db.compaction.OperationType;
+import org.apache.cassandra.db.compaction.StrategyHandoff;
 import org.apache.cassandra.db.compaction.TimeWindowCompactionStrategyHelper;
+import org.apache.cassandra.db.compaction.TimeWindowCompactionTask;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
-import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,15 +54,21 @@ public class AgeingCompactionStrategy
     static Logger mTrace = LoggerFactory.getLogger(//
             AgeingCompactionStrategy.class//
     );
+    private static final String HANDOFF_GC_BEFORE = "ageing.gcBefore";
+    private static final String HANDOFF_AGED_CHECK = "ageing.agedCheck";
 
     private AgeingCompactionStrategyOptions mOptions;
-    private long mLastDropMillis = 0;
+    // when each sstable ages out, gates and triggers the aged check
+    private final ExpirySchedule mAgedSchedule;
 
-    private Comparator<SSTableReader> mTsComparator;
-    private SimpleDateFormat mDtFmt;
-    private long mGcBeforeMicros = 0;
+    private final AtomicReference<MaxTimestampIndex> mMetadata = //
+            new AtomicReference<>(MaxTimestampIndex.EMPTY);
+    // immutable, safe to share between concurrent selections
+    private final DateTimeFormatter mDtFmt = DateTimeFormatter//
+            .ofPattern("yyyyMMdd.HHmm").withZone(ZoneOffset.UTC);
 
-    private int mGcBefore;
+    // highest gcBefore seen, seconds
+    private final AtomicInteger mGcBefore = new AtomicInteger();
 
     public static Map<String, String> removeOptions( //
             Map<String, String> options//
@@ -61,6 +78,8 @@ public class AgeingCompactionStrategy
         map.remove(MAX_AGED_TABLES);
         map.remove(MAX_LDT);
         map.remove(DRY_RUN);
+        map.remove(PURGE_AGED_CELLS);
+        map.remove(MAX_FILE_SILE_MB);
         return map;
     }
 
@@ -70,6 +89,10 @@ public class AgeingCompactionStrategy
     ) {
         super(cfs, removeOptions(props));
         mOptions = new AgeingCompactionStrategyOptions(props);
+        mAgedSchedule = new ExpirySchedule(this::agesAtMillis, //
+                this::gcGraceMillis, //
+                options.expiredSSTableCheckFrequency//
+        );
         mTrace.info("{} options: {} {} {} {}", //
                 cfs.name, //
                 props, //
@@ -77,22 +100,6 @@ public class AgeingCompactionStrategy
                 bean(options), //
                 bean(options.stcsOptions)//
         );
-        mTsComparator = new Comparator<SSTableReader>() {
-            @Override
-            public int compare(SSTableReader o1, SSTableReader o2) {
-                long ts1 = o1.getSSTableMetadata().maxTimestamp;
-                long ts2 = o2.getSSTableMetadata().maxTimestamp;
-                if (ts1 > ts2) {
-                    return 1;
-                } else if (ts2 > ts1) {
-                    return -1;
-                } else {
-                    return 0;
-                }
-            }
-        };
-        mDtFmt = new SimpleDateFormat("yyyyMMdd.HHmm");
-        mDtFmt.setTimeZone(TimeZone.getTimeZone("UTC"));
     }
 
     private String bean(Object options) {
@@ -109,145 +116,237 @@ public class AgeingCompactionStrategy
 
     String fmtMicros(long d) {
         long millis = MILLISECONDS.convert(d, MICROSECONDS);
-        return mDtFmt.format(new Date(millis));
-    }
-
-    String fmtSeconds(long d) {
-        long millis = MILLISECONDS.convert(d, SECONDS);
-        return mDtFmt.format(new Date(millis));
+        return mDtFmt.format(Instant.ofEpochMilli(millis));
     }
 
+    /**
+     * Aged sstables do not go through a compaction, they are marked compacting
+     * and returned as a drop task that obsoletes them without reading or
+     * writing anything. It runs in a compaction slot like any background task
+     * and the compaction manager polls again once it is done.
+     */
     @Override
-    public synchronized List<SSTableReader> getNextBackgroundSSTables(
-            final int gcBefore) {
+    @SuppressWarnings("resource") // transaction is closed by the drop task
+    public AbstractCompactionTask getNextBackgroundTask(int gcBefore) {
+        metrics.registerIfPending();
+        List<SSTableReader> aged = getAgedSSTables(gcBefore);
+        if (!aged.isEmpty()) {
+            LifecycleTransaction txn = cfs.getTracker().tryModify(aged, //
+                    OperationType.COMPACTION//
+            );
+            if (txn != null) {
+                return new DropSSTablesTask(cfs, txn, metrics);
+            }
+            metrics.tryModifyRetry();
+        }
+        return super.getNextBackgroundTask(gcBefore);
+    }
 
+    /**
+     * At most max_aged_tables of the oldest sstables whose max timestamp plus
+     * age_minutes is before gcBefore, checked when one of them is due and
+     * every expired_sstable_check_frequency_seconds while some are left.
+     * Empty in dry run.
+     */
+    public List<SSTableReader> getAgedSSTables(final int gcBefore) {
         long gcBeforeMicros = TimeUnit.MICROSECONDS.convert(//
                 gcBefore, TimeUnit.SECONDS//
         );
-        if (gcBeforeMicros > mGcBeforeMicros) {
-            mGcBeforeMicros = gcBeforeMicros;
-            mGcBefore = gcBefore;
-        }
-        // mTrace.debug("" //
-        // + "Get sstables. GC before: {} {} options: {} {} {}", //
-        // fmtMicros(gcBeforeMicros), //
-        // cfs.name, //
-        // bean(mOptions), //
-        // bean(options), //
-        // bean(options.stcsOptions)//
-        // );
-
-        List<SSTableReader> result = null;
-        if (currentTimeMillis() - mLastDropMillis > //
-        options.expiredSSTableCheckFrequency//
-        ) {
-            if (mOptions.mAgeMinutes < DEFAULT_AGE_MINUTES) {
-                Iterable<SSTableReader> liveTables = cfs.getLiveSSTables();
-                mTrace.debug("" //
-                        + "{} Check expired sstables " //
-                        + "(max_ts + expire_minutes({}) < {})", //
-                        cfs.name, //
-                        mOptions.mAgeMinutes, //
-                        fmtMicros(gcBeforeMicros)//
-                );
-                result = new ArrayList<>();
-                for (SSTableReader table : liveTables) {
-
-                    StatsMetadata meta = table.getSSTableMetadata();
-                    long maxTs = meta.maxTimestamp;
-                    int maxLdt = meta.maxLocalDeletionTime;
-                    long expires = maxTs + mOptions.mAgeMicros;
-                    mTrace.debug("" //
-                            + "Check {} expires: {} maxTs: {} " //
-                            + "minTTL: {} maxTTL: {} maxLDT: {}", //
-                            table.getFilename(), //
-                            fmtMicros(expires), //
-                            fmtMicros(table.getSSTableMetadata().maxTimestamp), //
-                            table.getSSTableMetadata().minTTL, //
-                            table.getSSTableMetadata().maxTTL, //
-                            fmtSeconds(table.getSSTableMetadata().maxLocalDeletionTime)
-                    //
-                    );
+        mGcBefore.accumulateAndGet(gcBefore, Math::max);
 
-                    if (expires < gcBeforeMicros //
-                            && maxLdt >= mOptions.mMaxLdt) {
-
-                        if (mOptions.mDryRun == false) {
-                            result.add(table);
-                        }
-
-                        mTrace.debug("" //
-                                + "Remove {} {} expires:{} maxTs: {} " //
-                                + "minTTL: {} maxTTL: {} maxLDT: {} ", //
-                                mOptions.mDryRun ? "(dry-run)" : "", //
-                                table.getFilename(), //
-                                fmtMicros(expires), //
-                                fmtMicros(meta.maxTimestamp), //
-                                meta.minTTL, //
-                                meta.maxTTL, //
-                                fmtSeconds(meta.maxLocalDeletionTime) //
-                        );
-                    }
-                }
+        List<SSTableReader> result = new ArrayList<>();
+        if (mOptions.mAgeMinutes >= DEFAULT_AGE_MINUTES) {
+            return result;
+        }
+        // only one concurrent selection runs the check
+        if (!mAgedSchedule.claimCheck(currentTimeMillis())) {
+            return result;
+        }
 
-                int all = result.size();
-                if (all > 0) {
-                    Collections.sort(result, mTsComparator);
-                    if (all > mOptions.mAgedTables) {
-                        result.subList(mOptions.mAgedTables, all).clear();
-                    }
-                    long microBegin = result.get(0)//
-                            .getSSTableMetadata().maxTimestamp;
-                    long microEnd = result.get(result.size() - 1) //
-                            .getSSTableMetadata().maxTimestamp;
-
-                    mTrace.debug("" //
-                            + "Expired sstables: {}/{} {} - {}", //
-                            result.size(), all, //
-                            fmtMicros(microBegin), //
-                            fmtMicros(microEnd) //
-                    );
+        MaxTimestampIndex expiry = mMetadata.get();
+        // tables aged past this max timestamp are a prefix of the
+        // index, walk it from the oldest until max_aged_tables
+        long agedBefore = gcBeforeMicros - mOptions.mAgeMicros;
+        int all = expiry.countBefore(agedBefore);
+        Set<SSTableReader> compacting = cfs.getTracker().getCompacting();
+        int aged = 0;
+        for (int i = 0; i < all && aged < mOptions.mAgedTables; i++) {
+            SSTableReader table = expiry.tableAt(i);
+            Decision decision;
+            if (expiry.maxLocalDeletionTimeAt(i) < mOptions.mMaxLdt) {
+                decision = Decision.SKIPPED_LDT;
+            } else if (compacting.contains(table)) {
+                decision = Decision.SKIPPED_COMPACTING;
+            } else {
+                aged++;
+                if (mOptions.mDryRun == false) {
+                    result.add(table);
+                    decision = Decision.AGED;
+                } else {
+                    decision = Decision.AGED_DRY_RUN;
                 }
             }
-            mLastDropMillis = System.currentTimeMillis();
+            journal.record(decision, table, expiry.timestampAt(i), //
+                    expiry.maxLocalDeletionTimeAt(i), expiry.bytesAt(i), agedBefore//
+            );
         }
-        List<SSTableReader> tables = super.getNextBackgroundSSTables(gcBefore);
-        // mTrace.debug("Super class tables: {}", tables.size());
-        if (result == null) {
-            result = tables;
-
-            if (mOptions.mMaxFileSize < DEFAULT_MAX_FILE_SILE) {
-                // do not compact big files
-                ListIterator<SSTableReader> iter = result.listIterator();
-                while (iter.hasNext()) {
-                    SSTableReader reader = iter.next();
-                    if (reader.bytesOnDisk() > mOptions.mMaxFileSize) {
-                        mTrace.debug("" //
-                                + "Skip big file: {} bytes: {} > {}", //
-                                reader, reader.bytesOnDisk(), mOptions.mMaxFileSize//
-                        );
-                        iter.remove();
-                    }
-                }
+
+        if (mTrace.isDebugEnabled()) {
+            mTrace.debug("" //
+                    + "{} Aged sstables: {}/{} (max_ts + age_minutes({}) < {})", //
+                    cfs.name, //
+                    aged, all, //
+                    mOptions.mAgeMinutes, //
+                    fmtMicros(gcBeforeMicros)//
+            );
+        }
+        return result;
+    }
+
+    /**
+     * A table ages out once its max timestamp plus age_minutes is before
+     * gcBefore, unless max_local_deletion_time keeps it. Due tables stay
+     * scheduled in dry run, so the journal keeps recording them.
+     *
+     * @return millis from which the table is aged, Long.MAX_VALUE if never
+     */
+    long agedAtMillis(SSTableReader table) {
+        long agesAt = agesAtMillis(table);
+        return agesAt == Long.MAX_VALUE ? agesAt : agesAt + gcGraceMillis();
+    }
+
+    /**
+     * agedAtMillis without the grace period, the aged schedule adds the
+     * current one when it checks.
+     */
+    private long agesAtMillis(SSTableReader table) {
+        if (mOptions.mAgeMinutes >= DEFAULT_AGE_MINUTES //
+                || table.getSSTableMetadata().maxLocalDeletionTime < mOptions.mMaxLdt//
+        ) {
+            return Long.MAX_VALUE;
+        }
+        long maxTs = table.getSSTableMetadata().maxTimestamp;
+        return MILLISECONDS.convert(maxTs + mOptions.mAgeMicros, MICROSECONDS) + 1;
+    }
+
+    /**
+     * Whichever comes first, the TTL expiry or the age limit. Nothing ages
+     * out in dry run.
+     */
+    @Override
+    protected long droppableAtMillis(SSTableReader table) {
+        long expires = super.droppableAtMillis(table);
+        if (mOptions.mDryRun) {
+            return expires;
+        }
+        return Math.min(expires, agedAtMillis(table));
+    }
+
+    @Override
+    public void startup() {
+        super.startup();
+        mAgedSchedule.start(this::wakeForExpiry, currentTimeMillis());
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        mAgedSchedule.stop();
+    }
+
+    /**
+     * The gcBefore seen and the last aged check survive an option change, so
+     * the new instance drops and scans on the same schedule.
+     */
+    @Override
+    protected void handOff(StrategyHandoff handoff) {
+        handoff.put(MaxTimestampIndex.HANDOFF, mMetadata.get());
+        handoff.put(HANDOFF_GC_BEFORE, mGcBefore.get());
+        handoff.put(HANDOFF_AGED_CHECK, mAgedSchedule.lastCheckMillis());
+    }
+
+    @Override
+    protected void adopt(StrategyHandoff handoff, boolean indexes) {
+        MaxTimestampIndex metadata = handoff.get(MaxTimestampIndex.HANDOFF);
+        if (indexes && metadata != null) {
+            mMetadata.set(metadata);
+        }
+        Integer gcBefore = handoff.get(HANDOFF_GC_BEFORE);
+        if (gcBefore != null) {
+            mGcBefore.accumulateAndGet(gcBefore, Math::max);
+        }
+        Long agedCheck = handoff.get(HANDOFF_AGED_CHECK);
+        if (agedCheck != null) {
+            mAgedSchedule.resume(agedCheck);
+        }
+    }
+
+    /**
+     * Tables aged past the last gcBefore seen and not kept for
+     * max_local_deletion_time, which the drop task obsoletes max_aged_tables
+     * at a time. 0 in dry run.
+     */
+    @Override
+    public long getEstimatedDroppableBytes() {
+        int gcBefore = mGcBefore.get();
+        if (mOptions.mDryRun || mOptions.mAgeMinutes >= DEFAULT_AGE_MINUTES //
+                || gcBefore <= 0//
+        ) {
+            return 0;
+        }
+        MaxTimestampIndex expiry = mMetadata.get();
+        long agedBefore = MICROSECONDS.convert(gcBefore, SECONDS) - mOptions.mAgeMicros;
+        int all = expiry.countBefore(agedBefore);
+        long bytes = 0;
+        for (int i = 0; i < all; i++) {
+            if (expiry.maxLocalDeletionTimeAt(i) >= mOptions.mMaxLdt) {
+                bytes += expiry.bytesAt(i);
             }
+        }
+        return bytes;
+    }
 
-        } else {
-            for (SSTableReader table : tables) {
-                long maxTs = table.getSSTableMetadata().maxTimestamp;
-                int ldt = table.getSSTableMetadata().maxLocalDeletionTime;
-                if (maxTs + mOptions.mAgeMicros < gcBeforeMicros //
-                        || ldt < gcBefore) {
-                    // mTrace.debug(//
-                    // "Add {} maxTs: {} minTTL: {} maxTTL: {} maxLDT: {}", //
-                    // table.getFilename(), //
-                    // fmtMicros(table.getSSTableMetadata().maxTimestamp), //
-                    // table.getSSTableMetadata().minTTL, //
-                    // table.getSSTableMetadata().maxTTL, //
-                    // fmtSeconds(ldt) //
-                    // );
-                    if (false == result.contains(table)) {
-                        result.add(table);
-                    }
+    /**
+     * Roll-ups stay below max_file_size_mb, otherwise the big file filter
+     * would keep their output out of every later compaction.
+     */
+    @Override
+    protected long rollupMaxBytes() {
+        return mOptions.mMaxFileSize;
+    }
+
+    /**
+     * Windows that start to age out are not rolled up anymore, their sstables
+     * are dropped one by one.
+     */
+    @Override
+    protected long rollupExpiryMillis() {
+        if (mOptions.mAgeMinutes >= DEFAULT_AGE_MINUTES) {
+            return Long.MAX_VALUE;
+        }
+        return MILLISECONDS.convert(mOptions.mAgeMinutes, MINUTES);
+    }
+
+    @Override
+    public List<SSTableReader> getNextBackgroundSSTables(final int gcBefore) {
+        mGcBefore.accumulateAndGet(gcBefore, Math::max);
+
+        List<SSTableReader> result = super.getNextBackgroundSSTables(gcBefore);
+        if (mOptions.mMaxFileSize < DEFAULT_MAX_FILE_SILE) {
+            // do not compact big files
+            MaxTimestampIndex metadata = mMetadata.get();
+            ListIterator<SSTableReader> iter = result.listIterator();
+            while (iter.hasNext()) {
+                SSTableReader reader = iter.next();
+                long bytes = metadata.bytesOnDisk(reader);
+                if (bytes > mOptions.mMaxFileSize) {
+                    journal.record(Decision.SKIPPED_BIG_FILE, reader, //
+                            reader.getMaxTimestamp(), //
+                            reader.getSSTableMetadata().maxLocalDeletionTime, //
+                            bytes, mOptions.mMaxFileSize//
+                    );
+                    metrics.bigFileSkipped();
+                    iter.remove();
                 }
             }
         }
@@ -255,46 +354,99 @@ public class AgeingCompactionStrategy
     }
 
     @Override
-    // @SuppressWarnings("resource")
+    public void addSSTable(SSTableReader sstable) {
+        super.addSSTable(sstable);
+        mMetadata.updateAndGet(metadata -> metadata.with(sstable));
+        mAgedSchedule.add(sstable, currentTimeMillis());
+    }
+
+    @Override
+    public void removeSSTable(SSTableReader sstable) {
+        super.removeSSTable(sstable);
+        mMetadata.updateAndGet(metadata -> metadata.without(sstable));
+        mAgedSchedule.remove(sstable);
+    }
+
+    @Override
+    public void replaceSSTables(Collection<SSTableReader> removed,
+            Collection<SSTableReader> added) {
+        super.replaceSSTables(removed, added);
+        mMetadata.updateAndGet(metadata -> metadata.replace(removed, added));
+        mAgedSchedule.replace(removed, added, currentTimeMillis());
+    }
+
+    /**
+     * Leaves out the aged sstables, so they are not rewritten.
+     */
+    @Override
     public ScannerList getScanners(Collection<SSTableReader> sstables,
             Collection<Range<Token>> ranges) {
 
         Collection<SSTableReader> list = sstables;
+        int gcBefore = mGcBefore.get();
+        long gcBeforeMicros = MICROSECONDS.convert(gcBefore, SECONDS);
         if (mOptions.mDryRun == false //
                 && mOptions.mAgeMinutes < DEFAULT_AGE_MINUTES //
-                && mGcBeforeMicros > 0//
+                && gcBeforeMicros > 0//
         ) {
-            // mTrace.debug("" //
-            // + "Get scanners GC before: {} {} options: {} {} {}", //
-            // fmtMicros(mGcBeforeMicros), //
-            // cfs.name, //
-            // bean(mOptions), //
-            // bean(options), //
-            // bean(options.stcsOptions)//
-            // );
-
             list = new ArrayList<>();
             int drops = 0;
+            long dropBytes = 0;
+            MaxTimestampIndex metadata = mMetadata.get();
             for (SSTableReader table : sstables) {
-                long maxTs = table.getSSTableMetadata().maxTimestamp;
-                int ldt = table.getSSTableMetadata().maxLocalDeletionTime;
-                if (maxTs + mOptions.mAgeMicros < mGcBeforeMicros //
-                        || ldt < mGcBefore) {
+                int i = metadata.indexOf(table);
+                long maxTs = i < 0 ? table.getSSTableMetadata().maxTimestamp //
+                        : metadata.timestampAt(i);
+                int ldt = i < 0 ? table.getSSTableMetadata().maxLocalDeletionTime //
+                        : metadata.maxLocalDeletionTimeAt(i);
+                if (maxTs + mOptions.mAgeMicros < gcBeforeMicros //
+                        || ldt < gcBefore) {
+                    long bytes = i < 0 ? table.bytesOnDisk() : metadata.bytesAt(i);
+                    journal.record(Decision.DROPPED_AT_SCAN, table, maxTs, ldt, bytes, //
+                            gcBeforeMicros - mOptions.mAgeMicros//
+                    );
                     drops++;
+                    dropBytes += bytes;
                 } else {
                     list.add(table);
                 }
             }
+            metrics.aged(drops, dropBytes);
 
-            mTrace.debug("" //
-                    + "{} Scanners: {} drops: {} compact: {} GC before: {}", //
-                    cfs.name, //
-                    sstables.size(), drops, //
-                    list.size(), fmtMicros(mGcBeforeMicros)//
-            );
+            if (mTrace.isDebugEnabled()) {
+                mTrace.debug("" //
+                        + "{} Scanners: {} drops: {} compact: {} GC before: {}", //
+                        cfs.name, //
+                        sstables.size(), drops, //
+                        list.size(), fmtMicros(gcBeforeMicros)//
+                );
+            }
         }
 
         return super.getScanners(list, ranges);
     }
 
+    /**
+     * With purge_aged_cells the cells older than age_minutes are also left
+     * out of the compactions of the strategy, see AgePurger. Anticompaction,
+     * validation and the other operations that read through getScanners
+     * keep them.
+     */
+    @Override
+    protected TimeWindowCompactionTask.Purge purge(int gcBefore) {
+        int limit = mGcBefore.accumulateAndGet(gcBefore, Math::max);
+        long gcBeforeMicros = MICROSECONDS.convert(limit, SECONDS);
+        if (!mOptions.mPurgeAgedCells //
+                || mOptions.mAgeMinutes >= DEFAULT_AGE_MINUTES //
+                || gcBeforeMicros <= 0//
+        ) {
+            return null;
+        }
+        return new AgePurger(gcBeforeMicros - mOptions.mAgeMicros, //
+                FBUtilities.nowInSeconds(), //
+                mOptions.mDryRun, //
+                metrics//
+        );
+    }
+
 }
\ No newline at end of file
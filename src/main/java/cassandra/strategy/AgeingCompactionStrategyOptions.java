@@ -26,10 +26,14 @@ public class AgeingCompactionStrategyOptions
     public static String DRY_RUN = "dry_run";
     public static boolean DEFAULT_DRY_RUN = true;
 
+    public static String PURGE_AGED_CELLS = "purge_aged_cells";
+    public static boolean DEFAULT_PURGE_AGED_CELLS = false;
+
     public long mAgeMinutes = DEFAULT_AGE_MINUTES;
     public int mAgedTables = DEFAULT_MAX_AGED_TABLES;
     public int mMaxLdt = DEFAULT_MAX_LDT;
     public boolean mDryRun = DEFAULT_DRY_RUN;
+    public boolean mPurgeAgedCells = DEFAULT_PURGE_AGED_CELLS;
 
     public long mAgeMicros = 0;
 
@@ -60,6 +64,11 @@ public class AgeingCompactionStrategyOptions
             mDryRun = optionValue == null ? //
                     DEFAULT_DRY_RUN : Boolean.parseBoolean(optionValue);
         }
+        {
+            String optionValue = options.get(PURGE_AGED_CELLS);
+            mPurgeAgedCells = optionValue == null ? //
+                    DEFAULT_PURGE_AGED_CELLS : Boolean.parseBoolean(optionValue);
+        }
         {
             String optionValue = options.get(MAX_FILE_SILE_MB);
             mMaxFileSize = optionValue == null ? DEFAULT_MAX_FILE_SILE
@@ -7,6 +7,7 @@ import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToStrin
 import static org.apache.commons.lang3.builder.ToStringStyle.SHORT_PREFIX_STYLE;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -14,9 +15,13 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.compaction.DecisionJournal.Decision;
+import org.apache.cassandra.db.compaction.StrategyHandoff;
 import org.apache.cassandra.db.compaction.TimeWindowCompactionStrategyHelper;
+import org.apache.cassandra.db.compaction.TimeWindowIndex;
 import org.apache.cassandra.db.lifecycle.SSTableSet;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
@@ -37,6 +42,9 @@ public class EasyTimeWindowCompactionStrategy
 
     EasyTimeWindowCompactionStrategyOptions mOptions;
 
+    private final AtomicReference<MaxTimestampIndex> mMetadata = //
+            new AtomicReference<>(MaxTimestampIndex.EMPTY);
+
     public EasyTimeWindowCompactionStrategy(//
             ColumnFamilyStore cfs, //
             Map<String, String> props//
@@ -68,27 +76,34 @@ public class EasyTimeWindowCompactionStrategy
         );
     }
 
+    /**
+     * Roll-ups stay below max_file_size_mb, otherwise the big file filter
+     * would keep their output out of every later compaction.
+     */
+    @Override
+    protected long rollupMaxBytes() {
+        return mOptions.mMaxFileSize;
+    }
+
     @Override
-    public synchronized List<SSTableReader> getNextBackgroundSSTables(
-            final int gcBefore) {
+    public List<SSTableReader> getNextBackgroundSSTables(final int gcBefore) {
         mTrace.debug("Get sstables");
         Iterable<SSTableReader> liveTables = cfs.getSSTables(SSTableSet.LIVE);
         if (Iterables.isEmpty(liveTables))
             return Collections.emptyList();
 
+        TimeWindowIndex index = windowIndex.get();
         Set<SSTableReader> uncompacting = ImmutableSet
-                .copyOf(filter(cfs.getUncompactingSSTables(), sstables::contains));
+                .copyOf(filter(cfs.getUncompactingSSTables(), index::contains));
 
         // Find fully expired SSTables. Those will be included no matter what.
         Set<SSTableReader> expired = Collections.emptySet();
 
-        if (System.currentTimeMillis()
-                - lastExpiredCheck > options.expiredSSTableCheckFrequency) {
+        if (claimExpiredCheck()) {
             mTrace.debug(
                     "TWCS expired check sufficiently far in the past, checking for fully expired SSTables");
-            mTrace.info("Checking droppable sstables in {}", cfs);
-            expired = getFullyExpiredSSTables(uncompacting, gcBefore);
-            lastExpiredCheck = System.currentTimeMillis();
+            mTrace.debug("Checking droppable sstables in {}", cfs);
+            expired = getFullyExpiredSSTables(mMetadata.get(), uncompacting, gcBefore);
         } else {
             mTrace.debug("TWCS skipping check for fully expired SSTables");
         }
@@ -101,36 +116,83 @@ public class EasyTimeWindowCompactionStrategy
                         gcBefore));
 
         // do not compact big files
+        MaxTimestampIndex metadata = mMetadata.get();
         ListIterator<SSTableReader> iter = compactionCandidates.listIterator();
         while (iter.hasNext()) {
             SSTableReader reader = iter.next();
-            if (reader.bytesOnDisk() > mOptions.mMaxFileSize) {
-                mTrace.debug("Skip big file: {}", reader);
+            long bytes = metadata.bytesOnDisk(reader);
+            if (bytes > mOptions.mMaxFileSize) {
+                journal.record(Decision.SKIPPED_BIG_FILE, reader, //
+                        reader.getMaxTimestamp(), //
+                        reader.getSSTableMetadata().maxLocalDeletionTime, //
+                        bytes, mOptions.mMaxFileSize//
+                );
+                metrics.bigFileSkipped();
                 iter.remove();
             }
         }
 
         if (!expired.isEmpty()) {
-            mTrace.debug("Including expired sstables: {}", expired);
+            mTrace.debug("Including {} expired sstables", expired.size());
             compactionCandidates.addAll(expired);
         }
         return compactionCandidates;
     }
 
+    /**
+     * One pass over the deletion times of the index, only the expired tables
+     * are looked up in the uncompacting set.
+     */
     protected Set<SSTableReader> getFullyExpiredSSTables(//
-            Iterable<SSTableReader> compacting, //
+            MaxTimestampIndex metadata, //
+            Set<SSTableReader> uncompacting, //
             int gcBefore//
     ) {
         Set<SSTableReader> fullyExpired = new HashSet<>();
-        for (SSTableReader candidate : compacting) {
-            if (candidate.getSSTableMetadata().maxLocalDeletionTime < gcBefore) {
+        for (int i = 0; i < metadata.size(); i++) {
+            if (metadata.maxLocalDeletionTimeAt(i) >= gcBefore) {
+                continue;
+            }
+            SSTableReader candidate = metadata.tableAt(i);
+            if (uncompacting.contains(candidate)) {
                 fullyExpired.add(candidate);
-                mTrace.info(
-                        "Dropping expired SSTable {} (maxLocalDeletionTime={}, gcBefore={})",
-                        candidate, candidate.getSSTableMetadata().maxLocalDeletionTime,
-                        gcBefore);
+                journal.record(Decision.EXPIRED, candidate, metadata.timestampAt(i), //
+                        metadata.maxLocalDeletionTimeAt(i), metadata.bytesAt(i), gcBefore//
+                );
             }
         }
         return fullyExpired;
     }
+
+    @Override
+    protected void handOff(StrategyHandoff handoff) {
+        handoff.put(MaxTimestampIndex.HANDOFF, mMetadata.get());
+    }
+
+    @Override
+    protected void adopt(StrategyHandoff handoff, boolean indexes) {
+        MaxTimestampIndex metadata = handoff.get(MaxTimestampIndex.HANDOFF);
+        if (indexes && metadata != null) {
+            mMetadata.set(metadata);
+        }
+    }
+
+    @Override
+    public void addSSTable(SSTableReader sstable) {
+        super.addSSTable(sstable);
+        mMetadata.updateAndGet(metadata -> metadata.with(sstable));
+    }
+
+    @Override
+    public void removeSSTable(SSTableReader sstable) {
+        super.removeSSTable(sstable);
+        mMetadata.updateAndGet(metadata -> metadata.without(sstable));
+    }
+
+    @Override
+    public void replaceSSTables(Collection<SSTableReader> removed,
+            Collection<SSTableReader> added) {
+        super.replaceSSTables(removed, added);
+        mMetadata.updateAndGet(metadata -> metadata.replace(removed, added));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,256 @@
+package cassandra.strategy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+
+/**
+ * Sstables sorted by max timestamp, kept as a sorted long[] with the tables
+ * in a parallel array. Oldest tables come first, so the aged ones are always
+ * a prefix and can be read without scanning or sorting the live set.
+ *
+ * The metadata selection and filtering read is copied into parallel
+ * primitive arrays once, when a table is added, so loops over the index are
+ * linear passes over arrays instead of a walk through every table's stats
+ * and a size lookup on disk.
+ *
+ * Immutable, changes return a new index so it can be published copy-on-write
+ * and read without locking. Single additions are only chained onto the
+ * index and merged into the arrays by the first read, so the sstables added
+ * one at a time at startup are sorted once instead of copying the arrays
+ * for each of them.
+ */
+public class MaxTimestampIndex {
+    public static final MaxTimestampIndex EMPTY = new MaxTimestampIndex(0);
+    // name of the index in a StrategyHandoff
+    static final String HANDOFF = "maxTimestampIndex";
+
+    private final long[] mTimestamps;
+    private final SSTableReader[] mTables;
+    private final int[] mMaxLdts;
+    private final long[] mBytes;
+    // tables added after the arrays were built, newest first, null if none
+    private final Added mAdded;
+    // the arrays with mAdded merged in, built by the first read
+    private volatile MaxTimestampIndex mMerged;
+
+    private static final class Added {
+        final SSTableReader mTable;
+        final Added mNext;
+        final int mCount;
+
+        Added(SSTableReader table, Added next) {
+            mTable = table;
+            mNext = next;
+            mCount = next == null ? 1 : next.mCount + 1;
+        }
+    }
+
+    private MaxTimestampIndex(int size) {
+        mTimestamps = new long[size];
+        mTables = new SSTableReader[size];
+        mMaxLdts = new int[size];
+        mBytes = new long[size];
+        mAdded = null;
+    }
+
+    // shares the arrays of sorted
+    private MaxTimestampIndex(MaxTimestampIndex sorted, Added added) {
+        mTimestamps = sorted.mTimestamps;
+        mTables = sorted.mTables;
+        mMaxLdts = sorted.mMaxLdts;
+        mBytes = sorted.mBytes;
+        mAdded = added;
+    }
+
+    /**
+     * Constant time, the table is merged in by the first read.
+     */
+    public MaxTimestampIndex with(SSTableReader table) {
+        if (mAdded == null) {
+            return new MaxTimestampIndex(this, new Added(table, null));
+        }
+        MaxTimestampIndex merged = mMerged;
+        if (merged != null) {
+            return new MaxTimestampIndex(merged, new Added(table, null));
+        }
+        return new MaxTimestampIndex(this, new Added(table, mAdded));
+    }
+
+    public MaxTimestampIndex without(SSTableReader table) {
+        return replace(Collections.singleton(table),
+                Collections.<SSTableReader>emptySet());
+    }
+
+    /**
+     * @return a new index with removed taken out and added put in, or this
+     *         index if nothing changes
+     */
+    public MaxTimestampIndex replace(Collection<SSTableReader> removed,
+            Collection<SSTableReader> added) {
+        MaxTimestampIndex sorted = sorted();
+        MaxTimestampIndex index = sorted.merge(removed, added);
+        return index == sorted ? this : index;
+    }
+
+    /**
+     * @return this index with the chained additions merged into the arrays,
+     *         built once and shared by every later read
+     */
+    private MaxTimestampIndex sorted() {
+        if (mAdded == null) {
+            return this;
+        }
+        MaxTimestampIndex merged = mMerged;
+        if (merged == null) {
+            List<SSTableReader> added = new ArrayList<>(mAdded.mCount);
+            for (Added next = mAdded; next != null; next = next.mNext) {
+                added.add(next.mTable);
+            }
+            // oldest addition first, like the one at a time merges
+            Collections.reverse(added);
+            merged = new MaxTimestampIndex(this, null).merge(
+                    Collections.<SSTableReader>emptySet(), added);
+            mMerged = merged;
+        }
+        return merged;
+    }
+
+    /**
+     * One pass merge of the arrays with the sorted additions, only called on
+     * an index without chained additions.
+     */
+    private MaxTimestampIndex merge(Collection<SSTableReader> removed,
+            Collection<SSTableReader> added) {
+        Set<SSTableReader> gone = new HashSet<>();
+        for (SSTableReader table : removed) {
+            if (indexOf(table, maxTimestamp(table)) >= 0) {
+                gone.add(table);
+            }
+        }
+        Set<SSTableReader> seen = new HashSet<>();
+        List<SSTableReader> fresh = new ArrayList<>();
+        for (SSTableReader table : added) {
+            if (!seen.add(table) || !gone.contains(table)
+                    && indexOf(table, maxTimestamp(table)) >= 0) {
+                continue;
+            }
+            fresh.add(table);
+        }
+        if (gone.isEmpty() && fresh.isEmpty()) {
+            return this;
+        }
+        Collections.sort(fresh,
+                Comparator.comparingLong(MaxTimestampIndex::maxTimestamp));
+
+        MaxTimestampIndex index = new MaxTimestampIndex(
+                mTables.length - gone.size() + fresh.size());
+        int out = 0;
+        int next = 0;
+        for (int i = 0; i < mTables.length; i++) {
+            if (gone.contains(mTables[i])) {
+                continue;
+            }
+            // equal timestamps keep the existing table first
+            while (next < fresh.size()
+                    && maxTimestamp(fresh.get(next)) < mTimestamps[i]) {
+                index.set(out++, fresh.get(next++));
+            }
+            index.mTimestamps[out] = mTimestamps[i];
+            index.mTables[out] = mTables[i];
+            index.mMaxLdts[out] = mMaxLdts[i];
+            index.mBytes[out++] = mBytes[i];
+        }
+        while (next < fresh.size()) {
+            index.set(out++, fresh.get(next++));
+        }
+        return index;
+    }
+
+    private void set(int i, SSTableReader table) {
+        StatsMetadata meta = table.getSSTableMetadata();
+        mTimestamps[i] = meta.maxTimestamp;
+        mTables[i] = table;
+        mMaxLdts[i] = meta.maxLocalDeletionTime;
+        mBytes[i] = table.bytesOnDisk();
+    }
+
+    public int size() {
+        return sorted().mTables.length;
+    }
+
+    public long timestampAt(int i) {
+        return sorted().mTimestamps[i];
+    }
+
+    public SSTableReader tableAt(int i) {
+        return sorted().mTables[i];
+    }
+
+    public int maxLocalDeletionTimeAt(int i) {
+        return sorted().mMaxLdts[i];
+    }
+
+    public long bytesAt(int i) {
+        return sorted().mBytes[i];
+    }
+
+    /**
+     * @return size on disk recorded when the table was added, read from the
+     *         table if it is not in the index
+     */
+    public long bytesOnDisk(SSTableReader table) {
+        MaxTimestampIndex sorted = sorted();
+        int i = sorted.indexOf(table, maxTimestamp(table));
+        return i < 0 ? table.bytesOnDisk() : sorted.mBytes[i];
+    }
+
+    /**
+     * @return number of tables with max timestamp strictly below ts
+     */
+    public int countBefore(long ts) {
+        return sorted().lowerBound(ts);
+    }
+
+    private static long maxTimestamp(SSTableReader table) {
+        return table.getSSTableMetadata().maxTimestamp;
+    }
+
+    /**
+     * @return position of the table, -1 if it is not in the index
+     */
+    public int indexOf(SSTableReader table) {
+        return sorted().indexOf(table, maxTimestamp(table));
+    }
+
+    private int indexOf(SSTableReader table, long ts) {
+        for (int i = lowerBound(ts); i < mTables.length && mTimestamps[i] == ts; i++) {
+            if (mTables[i].equals(table)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // first position with timestamp >= ts
+    private int lowerBound(long ts) {
+        int lo = 0;
+        int hi = mTables.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mTimestamps[mid] < ts) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
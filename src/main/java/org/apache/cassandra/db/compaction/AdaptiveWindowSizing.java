@@ -0,0 +1,117 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the size of new compaction windows from the observed flushes. When a
+ * flush lands in a newer window the previous one is finished, and if it got
+ * more than max_sstables_per_window or fewer than min_sstables_per_window
+ * flushes the window size is scaled by a power of two towards the middle of
+ * those bounds. While max_live_windows is reached windows only grow.
+ *
+ * The new size applies from the end of the current window, windows that
+ * already hold sstables keep their bounds.
+ *
+ * Only sstables of the window holding now count as flushes. Older ones are
+ * the sstables loaded at startup, streamed or repaired data, and are not
+ * counted. Compaction output replaces sstables and is never passed here.
+ */
+public class AdaptiveWindowSizing {
+    private static final Logger logger = LoggerFactory
+            .getLogger(AdaptiveWindowSizing.class);
+
+    static final long MIN_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    static final long MAX_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(365);
+    // windows are whole seconds, the first segment is bucketed in seconds
+    static final long WINDOW_GRANULARITY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final int minSSTablesPerWindow;
+    private final int maxSSTablesPerWindow;
+    private final int maxLiveWindows;
+
+    // flushes into the newest window seen, guarded by this
+    private long currentWindow = Long.MIN_VALUE;
+    private int flushes;
+    private long flushedBytes;
+    private volatile int lastWindowFlushes;
+    private volatile long lastWindowBytes;
+
+    public AdaptiveWindowSizing(int minSSTablesPerWindow, int maxSSTablesPerWindow,
+            int maxLiveWindows) {
+        this.minSSTablesPerWindow = minSSTablesPerWindow;
+        this.maxSSTablesPerWindow = maxSSTablesPerWindow;
+        this.maxLiveWindows = maxLiveWindows;
+    }
+
+    /**
+     * Counts a flushed sstable, late flushes into older windows are ignored.
+     *
+     * @param nowMillis
+     *            sstables of windows before the one holding it are not flushes
+     * @return the layout to use from now on, index.layout() if unchanged
+     */
+    public synchronized WindowLayout flushed(SSTableReader sstable, TimeWindowIndex index,
+            long nowMillis) {
+        WindowLayout layout = index.layout();
+        long window = index.windowFor(sstable);
+        if (window < currentWindow || window < layout.lowerBound(nowMillis))
+            return layout;
+        if (window == currentWindow) {
+            flushes++;
+            flushedBytes += sstable.onDiskLength();
+            return layout;
+        }
+
+        long finished = currentWindow;
+        int finishedFlushes = flushes;
+        long finishedBytes = flushedBytes;
+        currentWindow = window;
+        flushes = 1;
+        flushedBytes = sstable.onDiskLength();
+        if (finished == Long.MIN_VALUE)
+            return layout;
+        lastWindowFlushes = finishedFlushes;
+        lastWindowBytes = finishedBytes;
+
+        long size = layout.sizeAt(finished);
+        long next = nextSize(size, finishedFlushes, index.windowCount());
+        // windows at or after the current one may already hold sstables
+        long from = Math.max(window, layout.lastStart());
+        from = from + layout.sizeAt(from);
+        if (next == layout.sizeAt(from))
+            return layout;
+        logger.debug("{} flushes ({} bytes) in window {}, new windows of {}s from {}",
+                finishedFlushes, finishedBytes, finished,
+                TimeUnit.MILLISECONDS.toSeconds(next), from);
+        return layout.resized(from, next);
+    }
+
+    long nextSize(long size, int flushes, int liveWindows) {
+        long next = size;
+        if (flushes > maxSSTablesPerWindow || flushes < minSSTablesPerWindow) {
+            // power of two closest to the middle of the bounds
+            double target = Math.sqrt((double) minSSTablesPerWindow * maxSSTablesPerWindow);
+            long scale = Math.round(Math.log(target / flushes) / Math.log(2));
+            for (; scale > 0 && next * 2 <= MAX_WINDOW_MILLIS; scale--)
+                next *= 2;
+            for (; scale < 0 && next / 2 >= MIN_WINDOW_MILLIS
+                    && (next / 2) % WINDOW_GRANULARITY_MILLIS == 0; scale++)
+                next /= 2;
+        }
+        if (maxLiveWindows > 0 && liveWindows >= maxLiveWindows && next <= size)
+            next = Math.min(size * 2, MAX_WINDOW_MILLIS);
+        return Math.max(next, MIN_WINDOW_MILLIS);
+    }
+
+    public int getLastWindowFlushes() {
+        return lastWindowFlushes;
+    }
+
+    public long getLastWindowBytes() {
+        return lastWindowBytes;
+    }
+}
@@ -0,0 +1,143 @@
+package org.apache.cassandra.db.compaction;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+
+/**
+ * Bounded ring of the latest per-sstable strategy decisions. Recording keeps
+ * raw numbers and the sstable descriptor, it takes a slot with one atomic
+ * increment and publishes an immutable entry, so it is cheap enough for the
+ * selection loops whatever the log level. Dates are only formatted when the
+ * journal is read.
+ *
+ * Readers may miss entries overwritten while they read, they never see a
+ * partially written one.
+ */
+public class DecisionJournal {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final DateTimeFormatter format = DateTimeFormatter
+            .ofPattern("yyyyMMdd.HHmmss").withZone(ZoneOffset.UTC);
+
+    public enum Decision {
+        // part of a compaction that was marked compacting
+        SELECTED,
+        // every cell past gcBefore, compacted away with no overlap blocking
+        EXPIRED,
+        // older than age_minutes, handed to the drop task
+        AGED,
+        // older than age_minutes, kept because of dry_run
+        AGED_DRY_RUN,
+        // older than age_minutes, kept for max_local_deletion_time
+        SKIPPED_LDT,
+        // older than age_minutes, already in another compaction
+        SKIPPED_COMPACTING,
+        // larger than max_file_size_mb, left out of the compaction
+        SKIPPED_BIG_FILE,
+        // left out of the scanners of a running compaction
+        DROPPED_AT_SCAN
+    }
+
+    private static final class Entry {
+        final long sequence;
+        final long timeMillis;
+        final Decision decision;
+        final Descriptor descriptor;
+        final long maxTimestamp;
+        final int maxLocalDeletionTime;
+        final long bytes;
+        final long limit;
+
+        Entry(long sequence, long timeMillis, Decision decision, Descriptor descriptor,
+                long maxTimestamp, int maxLocalDeletionTime, long bytes, long limit) {
+            this.sequence = sequence;
+            this.timeMillis = timeMillis;
+            this.decision = decision;
+            this.descriptor = descriptor;
+            this.maxTimestamp = maxTimestamp;
+            this.maxLocalDeletionTime = maxLocalDeletionTime;
+            this.bytes = bytes;
+            this.limit = limit;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s %s maxTs=%s maxLDT=%s bytes=%d limit=%d",
+                    formatMillis(timeMillis), decision, descriptor,
+                    formatMillis(TimeUnit.MICROSECONDS.toMillis(maxTimestamp)),
+                    maxLocalDeletionTime == Integer.MAX_VALUE ? "none"
+                            : formatMillis(TimeUnit.SECONDS.toMillis(maxLocalDeletionTime)),
+                    bytes, limit);
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            rounded up to a power of two
+     */
+    public DecisionJournal(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.entries = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param limit
+     *            the threshold the decision was taken against, a timestamp or
+     *            a size depending on the decision
+     */
+    public void record(Decision decision, SSTableReader sstable, long maxTimestamp,
+            int maxLocalDeletionTime, long bytes, long limit) {
+        long sequence = next.getAndIncrement();
+        entries.lazySet((int) (sequence & mask),
+                new Entry(sequence, System.currentTimeMillis(), decision,
+                        sstable.descriptor, maxTimestamp, maxLocalDeletionTime, bytes,
+                        limit));
+    }
+
+    public void record(Decision decision, SSTableReader sstable, long limit) {
+        record(decision, sstable, sstable.getMaxTimestamp(),
+                sstable.getSSTableMetadata().maxLocalDeletionTime,
+                sstable.onDiskLength(), limit);
+    }
+
+    /**
+     * @return decisions recorded since the strategy was created
+     */
+    public long recorded() {
+        return next.get();
+    }
+
+    /**
+     * @return up to limit of the latest decisions, oldest first, formatted
+     */
+    public List<String> latest(int limit) {
+        long end = next.get();
+        long start = Math.max(0, end - Math.min(limit, mask + 1));
+        List<String> result = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = entries.get((int) (sequence & mask));
+            // not yet published, or already overwritten by a later one
+            if (entry != null && entry.sequence == sequence)
+                result.add(entry.toString());
+        }
+        return result;
+    }
+
+    private static String formatMillis(long millis) {
+        return format.format(Instant.ofEpochMilli(millis));
+    }
+}
@@ -0,0 +1,81 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.Set;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.db.compaction.CompactionManager.CompactionExecutorStatsCollector;
+import org.apache.cassandra.db.compaction.writers.CompactionAwareWriter;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Drops whole sstables by marking the originals of the transaction obsolete.
+ * Nothing is read and nothing is written, so it only holds its compaction
+ * slot for the metadata update.
+ */
+public class DropSSTablesTask extends AbstractCompactionTask {
+    private static final Logger logger = LoggerFactory.getLogger(DropSSTablesTask.class);
+
+    private final TimeWindowCompactionStrategyMetrics metrics;
+
+    public DropSSTablesTask(ColumnFamilyStore cfs, LifecycleTransaction txn,
+            TimeWindowCompactionStrategyMetrics metrics) {
+        super(cfs, txn);
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void runMayThrow() throws Exception {
+        execute(null);
+    }
+
+    @Override
+    protected int executeInternal(CompactionExecutorStatsCollector collector) {
+        Set<SSTableReader> originals = ImmutableSet.copyOf(transaction.originals());
+        long bytes = 0;
+        for (SSTableReader sstable : originals)
+            bytes += sstable.bytesOnDisk();
+
+        logger.debug("Dropping {} sstables ({} bytes) of {} without rewrite: {}",
+                originals.size(), bytes, cfs.name, originals);
+        transaction.obsoleteOriginals();
+        transaction.finish();
+
+        metrics.aged(originals.size(), bytes);
+        return originals.size();
+    }
+
+    /**
+     * Not used by execute, which never reads the originals. Anyone writing the
+     * originals through it gets the same result as the drop: nothing is kept,
+     * finishing it obsoletes the originals.
+     */
+    @Override
+    public CompactionAwareWriter getCompactionAwareWriter(ColumnFamilyStore cfs,
+            Directories directories, LifecycleTransaction txn,
+            Set<SSTableReader> nonExpiredSSTables) {
+        return new DroppingWriter(cfs, directories, txn, nonExpiredSSTables);
+    }
+
+    private static class DroppingWriter extends CompactionAwareWriter {
+        DroppingWriter(ColumnFamilyStore cfs, Directories directories,
+                LifecycleTransaction txn, Set<SSTableReader> nonExpiredSSTables) {
+            super(cfs, directories, txn, nonExpiredSSTables, false, false);
+        }
+
+        @Override
+        protected boolean realAppend(UnfilteredRowIterator partition) {
+            return false;
+        }
+
+        @Override
+        protected void switchCompactionLocation(Directories.DataDirectory location) {
+        }
+    }
+}
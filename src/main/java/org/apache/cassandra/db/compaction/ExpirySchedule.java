@@ -0,0 +1,267 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.cassandra.concurrent.ScheduledExecutors;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+
+/**
+ * When each sstable becomes droppable, earliest first. The check for
+ * droppable sstables runs once one of them is due instead of every
+ * expired_sstable_check_frequency_seconds, and once started a timer asks for
+ * a background compaction at the next due time, so the space is reclaimed as
+ * soon as the data can go and tables with nothing due never scan.
+ *
+ * Sstables still here after the check that found them due were blocked, by
+ * an overlap or a running compaction, they are checked again every retry
+ * interval until they go.
+ *
+ * Drop times are queued without the grace period, which is read again on
+ * every check, so lowering gc_grace_seconds makes sstables due from the next
+ * poll instead of at the time computed when they were added. Checks are
+ * kept on the same clock, the last one is the newest queued drop time it
+ * covered.
+ *
+ * Lock-free but for the timer, which is rearmed under this.
+ */
+public class ExpirySchedule {
+
+    /**
+     * Drop time of an sstable, on the clock of the strategy.
+     */
+    public interface DropTime {
+        /**
+         * @return millis from which the sstable can be dropped, grace period
+         *         excluded, Long.MAX_VALUE if never
+         */
+        long droppableAtMillis(SSTableReader sstable);
+    }
+
+    private static final class Entry {
+        final long atMillis;
+        // orders sstables due at the same time
+        final long sequence;
+        // null in the bounds of a lookup
+        final SSTableReader sstable;
+
+        Entry(long atMillis, long sequence, SSTableReader sstable) {
+            this.atMillis = atMillis;
+            this.sequence = sequence;
+            this.sstable = sstable;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator
+            .<Entry>comparingLong(entry -> entry.atMillis)
+            .thenComparingLong(entry -> entry.sequence);
+
+    private final ConcurrentSkipListSet<Entry> queue = new ConcurrentSkipListSet<>(ORDER);
+    private final ConcurrentMap<SSTableReader, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // time of the last check less the grace period then, entries queued at or
+    // before it were checked
+    private final AtomicLong lastCheck = new AtomicLong(Long.MIN_VALUE);
+    private final DropTime dropTime;
+    private final LongSupplier graceMillis;
+    private final long retryMillis;
+
+    // guarded by this
+    private Runnable wake;
+    private ScheduledFuture<?> timer;
+    private long timerAtMillis = Long.MAX_VALUE;
+
+    /**
+     * @param retryMillis
+     *            interval between checks while due sstables are blocked
+     */
+    public ExpirySchedule(DropTime dropTime, long retryMillis) {
+        this(dropTime, () -> 0, retryMillis);
+    }
+
+    /**
+     * @param graceMillis
+     *            current grace period, added to the drop times on each check
+     * @param retryMillis
+     *            interval between checks while due sstables are blocked
+     */
+    public ExpirySchedule(DropTime dropTime, LongSupplier graceMillis, long retryMillis) {
+        this.dropTime = dropTime;
+        this.graceMillis = graceMillis;
+        this.retryMillis = retryMillis;
+    }
+
+    public void add(SSTableReader sstable, long nowMillis) {
+        long at = dropTime.droppableAtMillis(sstable);
+        if (at == Long.MAX_VALUE)
+            return;
+        Entry entry = new Entry(at, sequence.getAndIncrement(), sstable);
+        if (entries.putIfAbsent(sstable, entry) != null)
+            return;
+        queue.add(entry);
+        rearm(nowMillis);
+    }
+
+    public void remove(SSTableReader sstable) {
+        Entry entry = entries.remove(sstable);
+        if (entry != null)
+            queue.remove(entry);
+    }
+
+    public void replace(Collection<SSTableReader> removed,
+            Collection<SSTableReader> added, long nowMillis) {
+        for (SSTableReader sstable : removed)
+            remove(sstable);
+        for (SSTableReader sstable : added)
+            add(sstable, nowMillis);
+    }
+
+    /**
+     * Only one of the concurrent callers is told to check.
+     *
+     * @return true if an sstable became due since the last check, or due
+     *         sstables are left and the retry interval passed
+     */
+    public boolean claimCheck(long nowMillis) {
+        long last = lastCheck.get();
+        long horizon = nowMillis - graceMillis.getAsLong();
+        Entry first = first();
+        if (first == null || first.atMillis > horizon)
+            return false;
+        Entry fresh = firstAfter(last);
+        if ((fresh == null || fresh.atMillis > horizon) && horizon - last <= retryMillis)
+            return false;
+        if (!lastCheck.compareAndSet(last, horizon))
+            return false;
+        rearm(nowMillis);
+        return true;
+    }
+
+    /**
+     * @return millis the next sstable not checked yet becomes droppable,
+     *         Long.MAX_VALUE if none
+     */
+    public long nextDueMillis() {
+        Entry next = firstAfter(lastCheck.get());
+        return next == null ? Long.MAX_VALUE : next.atMillis + graceMillis.getAsLong();
+    }
+
+    /**
+     * @return the sstables droppable at nowMillis, earliest first
+     */
+    public List<SSTableReader> due(long nowMillis) {
+        List<SSTableReader> due = new ArrayList<>();
+        long horizon = nowMillis - graceMillis.getAsLong();
+        for (Entry entry : queue.headSet(new Entry(horizon, Long.MAX_VALUE, null), true))
+            due.add(entry.sstable);
+        return due;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return time of the last check, Long.MIN_VALUE if none
+     */
+    public long lastCheckMillis() {
+        long last = lastCheck.get();
+        return last == Long.MIN_VALUE ? last : last + graceMillis.getAsLong();
+    }
+
+    /**
+     * Takes over the last check of a schedule this one replaces, sstables
+     * it already checked are not checked again before the retry interval.
+     */
+    public void resume(long lastCheckMillis) {
+        if (lastCheckMillis != Long.MIN_VALUE)
+            lastCheck.accumulateAndGet(lastCheckMillis - graceMillis.getAsLong(),
+                    Math::max);
+    }
+
+    /**
+     * Arms the timer, wake is run on the optional tasks executor at each due
+     * time from now on.
+     */
+    public synchronized void start(Runnable wake, long nowMillis) {
+        this.wake = wake;
+        rearm(nowMillis);
+    }
+
+    public synchronized void stop() {
+        wake = null;
+        if (timer != null)
+            timer.cancel(false);
+        timer = null;
+        timerAtMillis = Long.MAX_VALUE;
+    }
+
+    private Entry first() {
+        return queue.ceiling(new Entry(Long.MIN_VALUE, Long.MIN_VALUE, null));
+    }
+
+    private Entry firstAfter(long millis) {
+        return millis == Long.MAX_VALUE ? null
+                : queue.ceiling(new Entry(millis + 1, Long.MIN_VALUE, null));
+    }
+
+    private void rearm(long nowMillis) {
+        rearm(nowMillis, Long.MIN_VALUE);
+    }
+
+    // next due time, or the next retry while checked sstables are left, due
+    // times up to dueFloorMillis are moved to the retry after nowMillis
+    private synchronized void rearm(long nowMillis, long dueFloorMillis) {
+        if (wake == null)
+            return;
+        long last = lastCheck.get();
+        long grace = graceMillis.getAsLong();
+        long at = nextDueMillis();
+        Entry first = first();
+        if (first != null && first.atMillis <= last)
+            at = Math.min(at, last + grace + retryMillis + 1);
+        if (at <= dueFloorMillis)
+            at = nowMillis + retryMillis;
+        if (at >= timerAtMillis)
+            return;
+        if (timer != null)
+            timer.cancel(false);
+        timerAtMillis = at;
+        if (at == Long.MAX_VALUE) {
+            timer = null;
+            return;
+        }
+        timer = ScheduledExecutors.optionalTasks.schedule(this::fire,
+                Math.max(0, at - nowMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rearms after the wake, claimCheck does not when the woken poll finds
+     * the sstable gone or never gets to the check. Sstables still not
+     * checked are then woken for every retry interval, not in a loop.
+     */
+    private void fire() {
+        Runnable target;
+        long firedAt;
+        synchronized (this) {
+            target = wake;
+            firedAt = timerAtMillis;
+            timer = null;
+            timerAtMillis = Long.MAX_VALUE;
+        }
+        if (target == null)
+            return;
+        target.run();
+        long now = System.currentTimeMillis();
+        rearm(now, Math.max(now, firedAt));
+    }
+}
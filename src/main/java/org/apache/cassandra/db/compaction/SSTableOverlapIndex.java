@@ -0,0 +1,251 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+
+/**
+ * Sstables sorted by min timestamp, with the tables in a parallel array, to
+ * answer which sstables block a fully expired one from being dropped.
+ *
+ * An expired sstable can only be dropped if no sstable that still holds live
+ * data overlaps its token range with data older than its newest cell. Those
+ * are a prefix of this index, so a query is a walk over that prefix instead
+ * of an overlap computation against the whole live set: O(log n) to find the
+ * prefix, then linear in the live sstables of the prefix for each candidate,
+ * stopping at the first overlap. The walk is not an interval lookup, the
+ * blockers depend on gcBefore, and the candidates of a check are only the
+ * few the expiry schedule has due, so building a token interval tree over
+ * the prefix on each check would cost more than it saves.
+ *
+ * Immutable, changes merge into a new index so it can be published
+ * copy-on-write next to the window index. Single additions are chained and
+ * merged by the first read, like in MaxTimestampIndex, so startup sorts the
+ * sstables once.
+ */
+public class SSTableOverlapIndex {
+    public static final SSTableOverlapIndex EMPTY = new SSTableOverlapIndex(new long[0],
+            new SSTableReader[0]);
+
+    private static final Comparator<SSTableReader> byMinTimestamp = Comparator
+            .comparingLong(SSTableReader::getMinTimestamp);
+
+    private final long[] minTimestamps;
+    private final SSTableReader[] tables;
+    // sstables added after the arrays were built, newest first, null if none
+    private final Added added;
+    // the arrays with added merged in, built by the first read
+    private volatile SSTableOverlapIndex merged;
+
+    private static final class Added {
+        final SSTableReader sstable;
+        final Added next;
+        final int count;
+
+        Added(SSTableReader sstable, Added next) {
+            this.sstable = sstable;
+            this.next = next;
+            this.count = next == null ? 1 : next.count + 1;
+        }
+    }
+
+    private SSTableOverlapIndex(long[] minTimestamps, SSTableReader[] tables) {
+        this(minTimestamps, tables, null);
+    }
+
+    private SSTableOverlapIndex(long[] minTimestamps, SSTableReader[] tables,
+            Added added) {
+        this.minTimestamps = minTimestamps;
+        this.tables = tables;
+        this.added = added;
+    }
+
+    /**
+     * Constant time, the sstable is merged in by the first read.
+     */
+    public SSTableOverlapIndex with(SSTableReader sstable) {
+        if (added == null)
+            return new SSTableOverlapIndex(minTimestamps, tables, new Added(sstable, null));
+        SSTableOverlapIndex sorted = merged;
+        if (sorted != null)
+            return new SSTableOverlapIndex(sorted.minTimestamps, sorted.tables,
+                    new Added(sstable, null));
+        return new SSTableOverlapIndex(minTimestamps, tables, new Added(sstable, added));
+    }
+
+    public SSTableOverlapIndex without(SSTableReader sstable) {
+        return replace(Collections.singleton(sstable),
+                Collections.<SSTableReader>emptySet());
+    }
+
+    /**
+     * @return a new index with removed taken out and added put in, or this
+     *         index if nothing changes
+     */
+    public SSTableOverlapIndex replace(Collection<SSTableReader> removed,
+            Collection<SSTableReader> added) {
+        SSTableOverlapIndex sorted = sorted();
+        SSTableOverlapIndex index = sorted.merge(removed, added);
+        return index == sorted ? this : index;
+    }
+
+    /**
+     * @return this index with the chained additions merged into the arrays,
+     *         built once and shared by every later read
+     */
+    private SSTableOverlapIndex sorted() {
+        if (added == null)
+            return this;
+        SSTableOverlapIndex sorted = merged;
+        if (sorted == null) {
+            List<SSTableReader> additions = new ArrayList<>(added.count);
+            for (Added next = added; next != null; next = next.next)
+                additions.add(next.sstable);
+            Collections.reverse(additions);
+            sorted = new SSTableOverlapIndex(minTimestamps, tables).merge(
+                    Collections.<SSTableReader>emptySet(), additions);
+            merged = sorted;
+        }
+        return sorted;
+    }
+
+    // only called on an index without chained additions
+    private SSTableOverlapIndex merge(Collection<SSTableReader> removed,
+            Collection<SSTableReader> added) {
+        Set<SSTableReader> gone = new HashSet<>();
+        for (SSTableReader sstable : removed)
+            if (indexOf(sstable) >= 0)
+                gone.add(sstable);
+        Set<SSTableReader> seen = new HashSet<>();
+        List<SSTableReader> fresh = new ArrayList<>();
+        for (SSTableReader sstable : added)
+            if (seen.add(sstable) && (gone.contains(sstable) || indexOf(sstable) < 0))
+                fresh.add(sstable);
+        if (gone.isEmpty() && fresh.isEmpty())
+            return this;
+        Collections.sort(fresh, byMinTimestamp);
+
+        int size = tables.length - gone.size() + fresh.size();
+        long[] nextTimestamps = new long[size];
+        SSTableReader[] nextTables = new SSTableReader[size];
+        int out = 0;
+        int next = 0;
+        for (int i = 0; i < tables.length; i++) {
+            if (gone.contains(tables[i]))
+                continue;
+            while (next < fresh.size()
+                    && fresh.get(next).getMinTimestamp() < minTimestamps[i]) {
+                nextTimestamps[out] = fresh.get(next).getMinTimestamp();
+                nextTables[out++] = fresh.get(next++);
+            }
+            nextTimestamps[out] = minTimestamps[i];
+            nextTables[out++] = tables[i];
+        }
+        while (next < fresh.size()) {
+            nextTimestamps[out] = fresh.get(next).getMinTimestamp();
+            nextTables[out++] = fresh.get(next++);
+        }
+        return new SSTableOverlapIndex(nextTimestamps, nextTables);
+    }
+
+    public int size() {
+        return sorted().tables.length;
+    }
+
+    /**
+     * @return oldest timestamp of the indexed sstables still holding live
+     *         data at gcBefore, Long.MAX_VALUE if none
+     */
+    public long minLiveTimestamp(int gcBefore) {
+        SSTableOverlapIndex sorted = sorted();
+        for (int i = 0; i < sorted.tables.length; i++)
+            if (sorted.tables[i].getSSTableMetadata().maxLocalDeletionTime >= gcBefore)
+                return sorted.minTimestamps[i];
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Same rule as CompactionController.getFullyExpiredSSTables, applied per
+     * candidate token range: a candidate is dropped if every cell in it is
+     * past gcBefore and no indexed sstable with live data overlapping it has
+     * a cell at or older than its newest one. sstables outside the index and
+     * memtables are accounted for by the caller through outsideMinTimestamp.
+     *
+     * @param outsideMinTimestamp oldest live timestamp not in this index
+     * @return the candidates that can be dropped
+     */
+    public Set<SSTableReader> fullyExpired(Iterable<SSTableReader> candidates,
+            int gcBefore, long outsideMinTimestamp) {
+        return sorted().expired(candidates, gcBefore, outsideMinTimestamp);
+    }
+
+    private Set<SSTableReader> expired(Iterable<SSTableReader> candidates,
+            int gcBefore, long outsideMinTimestamp) {
+        List<SSTableReader> expiring = new ArrayList<>();
+        long newest = Long.MIN_VALUE;
+        for (SSTableReader candidate : candidates) {
+            if (candidate.getSSTableMetadata().maxLocalDeletionTime < gcBefore
+                    && candidate.getMaxTimestamp() < outsideMinTimestamp) {
+                expiring.add(candidate);
+                newest = Math.max(newest, candidate.getMaxTimestamp());
+            }
+        }
+        if (expiring.isEmpty())
+            return Collections.emptySet();
+
+        // positions of the tables still holding live data, limited to the
+        // prefix any of the candidates can be blocked by
+        int[] blockers = new int[newest == Long.MAX_VALUE ? tables.length
+                : lowerBound(newest + 1)];
+        int count = 0;
+        for (int i = 0; i < blockers.length; i++)
+            if (tables[i].getSSTableMetadata().maxLocalDeletionTime >= gcBefore)
+                blockers[count++] = i;
+
+        Set<SSTableReader> expired = new HashSet<>();
+        for (SSTableReader candidate : expiring)
+            if (!isBlocked(candidate, blockers, count))
+                expired.add(candidate);
+        return expired;
+    }
+
+    // linear in the blockers at or below the max timestamp of the candidate
+    private boolean isBlocked(SSTableReader candidate, int[] blockers, int count) {
+        long maxTimestamp = candidate.getMaxTimestamp();
+        for (int i = 0; i < count && minTimestamps[blockers[i]] <= maxTimestamp; i++) {
+            SSTableReader blocker = tables[blockers[i]];
+            if (blocker.first.compareTo(candidate.last) <= 0
+                    && candidate.first.compareTo(blocker.last) <= 0)
+                return true;
+        }
+        return false;
+    }
+
+    private int indexOf(SSTableReader sstable) {
+        long ts = sstable.getMinTimestamp();
+        for (int i = lowerBound(ts); i < tables.length && minTimestamps[i] == ts; i++)
+            if (tables[i].equals(sstable))
+                return i;
+        return -1;
+    }
+
+    // first position with min timestamp >= ts
+    private int lowerBound(long ts) {
+        int lo = 0;
+        int hi = tables.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (minTimestamps[mid] < ts)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,136 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.concurrent.ScheduledExecutors;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * What a strategy instance leaves behind on shutdown for the instance that
+ * replaces it. Changing the compaction options shuts the strategies of the
+ * table down and creates new ones, which are handed the same sstables. The
+ * new instance claims the handoff holding the first sstable it is given and
+ * adopts its indexes and clocks, instead of rebuilding the indexes one
+ * sstable at a time and running every periodic check at once as if the node
+ * had just started.
+ *
+ * Handoffs not claimed within a minute are dropped, for example when the
+ * table moved to another strategy class. Leaving, claiming and starting a
+ * strategy prune the expired handoffs of all tables, and every handoff left
+ * schedules a prune for when it expires, so an unclaimed handoff does not
+ * keep its indexes and sstables alive. Dropped tables leave none.
+ */
+public class StrategyHandoff {
+    private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // by table id, one per repaired state
+    private static final ConcurrentMap<UUID, Queue<StrategyHandoff>> pending = //
+            new ConcurrentHashMap<>();
+
+    final long leftMillis = System.currentTimeMillis();
+    final TimeWindowCompactionStrategyOptionsHelper options;
+    final TimeWindowIndex windowIndex;
+    final SSTableOverlapIndex overlapIndex;
+    final long highestWindowSeen;
+    final long lastExpiredCheck;
+    // state of the subclasses, by name
+    private final Map<String, Object> extras = new ConcurrentHashMap<>();
+
+    StrategyHandoff(TimeWindowCompactionStrategyOptionsHelper options,
+            TimeWindowIndex windowIndex, SSTableOverlapIndex overlapIndex,
+            long highestWindowSeen, long lastExpiredCheck) {
+        this.options = options;
+        this.windowIndex = windowIndex;
+        this.overlapIndex = overlapIndex;
+        this.highestWindowSeen = highestWindowSeen;
+        this.lastExpiredCheck = lastExpiredCheck;
+    }
+
+    public void put(String name, Object value) {
+        extras.put(name, value);
+    }
+
+    /**
+     * @return the value put under name, null if none
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name) {
+        return (T) extras.get(name);
+    }
+
+    static void leave(UUID tableId, StrategyHandoff handoff) {
+        prune();
+        pending.compute(tableId, (id, queue) -> {
+            if (queue == null)
+                queue = new ConcurrentLinkedQueue<>();
+            queue.add(handoff);
+            return queue;
+        });
+        ScheduledExecutors.optionalTasks.schedule(() -> prune(), TTL_MILLIS + 1,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the handoff whose windows hold sstable, removed so no other
+     *         instance claims it, null if none
+     */
+    static StrategyHandoff claim(UUID tableId, SSTableReader sstable) {
+        return claim(tableId, sstable, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    static StrategyHandoff claim(UUID tableId, SSTableReader sstable, long nowMillis) {
+        prune(nowMillis);
+        Queue<StrategyHandoff> queue = pending.get(tableId);
+        if (queue == null)
+            return null;
+        StrategyHandoff claimed = null;
+        for (StrategyHandoff handoff : queue) {
+            if (handoff.windowIndex.contains(sstable) && queue.remove(handoff)) {
+                claimed = handoff;
+                break;
+            }
+        }
+        removeIfEmpty(tableId);
+        return claimed;
+    }
+
+    /**
+     * Drops the expired handoffs of every table.
+     */
+    static void prune() {
+        prune(System.currentTimeMillis());
+    }
+
+    /**
+     * Drops the handoffs of every table left more than the TTL before
+     * nowMillis.
+     */
+    @VisibleForTesting
+    static void prune(long nowMillis) {
+        for (Map.Entry<UUID, Queue<StrategyHandoff>> entry : pending.entrySet()) {
+            for (StrategyHandoff handoff : entry.getValue())
+                if (nowMillis - handoff.leftMillis > TTL_MILLIS)
+                    entry.getValue().remove(handoff);
+            removeIfEmpty(entry.getKey());
+        }
+    }
+
+    @VisibleForTesting
+    static int pendingTables() {
+        return pending.size();
+    }
+
+    // atomic with leave, which adds under compute
+    private static void removeIfEmpty(UUID tableId) {
+        pending.computeIfPresent(tableId, (id, queue) -> queue.isEmpty() ? null : queue);
+    }
+}
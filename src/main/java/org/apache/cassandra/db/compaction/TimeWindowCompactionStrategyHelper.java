@@ -1,31 +1,43 @@
-
 package org.apache.cassandra.db.compaction;
 
 import static com.google.common.collect.Iterables.filter;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.db.Memtable;
+import org.apache.cassandra.db.compaction.TimeWindowCompactionStrategyOptionsHelper.WindowSelection;
+import org.apache.cassandra.db.compaction.writers.CompactionAwareWriter;
+import org.apache.cassandra.db.compaction.writers.SplittingSizeTieredCompactionWriter;
 import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
 import org.apache.cassandra.db.lifecycle.SSTableSet;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.schema.CompactionParams;
+import org.apache.cassandra.utils.EstimatedHistogram;
 import org.apache.cassandra.utils.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -34,18 +46,48 @@ import com.google.common.collect.Sets;
 public class TimeWindowCompactionStrategyHelper extends AbstractCompactionStrategy {
     private static final Logger logger = LoggerFactory
             .getLogger(TimeWindowCompactionStrategyHelper.class);
+    // adaptive window layouts, in the first data directory of the table
+    private static final String REPAIRED_LAYOUT_FILE = "adaptive_window_layout_repaired";
+    private static final String UNREPAIRED_LAYOUT_FILE = "adaptive_window_layout_unrepaired";
 
     protected final TimeWindowCompactionStrategyOptionsHelper options;
     protected volatile int estimatedRemainingTasks;
-    protected final Set<SSTableReader> sstables = new HashSet<>();
-    protected long lastExpiredCheck;
-    protected long highestWindowSeen;
+    // selection runs without a lock, the sstables live in an immutable window
+    // index swapped in with compare-and-set on every change
+    protected final AtomicReference<TimeWindowIndex> windowIndex;
+    // the same sstables by min timestamp, for the fully expired check
+    protected final AtomicReference<SSTableOverlapIndex> overlapIndex = //
+            new AtomicReference<>(SSTableOverlapIndex.EMPTY);
+    // when each sstable fully expires, gates and triggers the expired check
+    protected final ExpirySchedule expirySchedule;
+    protected final AtomicLong highestWindowSeen = new AtomicLong();
+    protected final TimeWindowCompactionStrategyMetrics metrics;
+    protected final DecisionJournal journal = //
+            new DecisionJournal(DecisionJournal.DEFAULT_CAPACITY);
+    protected final TombstoneEstimates tombstoneEstimates = //
+            new TombstoneEstimates(this::worthDroppingOlderTombstones);
+    // null unless adaptive_window_sizing
+    protected final AdaptiveWindowSizing adaptiveWindows;
+    // the first sstable added looks for the state of a replaced instance
+    private final AtomicBoolean handoffClaimed = new AtomicBoolean();
+    // repaired state of the adopted indexes, null unless adopted
+    private volatile Boolean adoptedRepaired;
 
     public TimeWindowCompactionStrategyHelper(ColumnFamilyStore cfs,
             Map<String, String> options) {
         super(cfs, options);
         this.estimatedRemainingTasks = 0;
         this.options = new TimeWindowCompactionStrategyOptionsHelper(options);
+        this.windowIndex = new AtomicReference<>(new TimeWindowIndex(
+                this.options.sstableWindowUnit, this.options.sstableWindowSize,
+                this.options.timestampResolution));
+        this.adaptiveWindows = this.options.adaptiveWindowSizing
+                ? new AdaptiveWindowSizing(this.options.minSSTablesPerWindow,
+                        this.options.maxSSTablesPerWindow, this.options.maxLiveWindows)
+                : null;
+        this.expirySchedule = new ExpirySchedule(this::deletedAtMillis,
+                this::gcGraceMillis, this.options.expiredSSTableCheckFrequency);
+        this.metrics = new TimeWindowCompactionStrategyMetrics(this);
         if (!options.containsKey(
                 AbstractCompactionStrategy.TOMBSTONE_COMPACTION_INTERVAL_OPTION)
                 && !options.containsKey(
@@ -61,42 +103,219 @@ public class TimeWindowCompactionStrategyHelper extends AbstractCompactionStrate
     @SuppressWarnings("resource") // transaction is closed by
                                   // AbstractCompactionTask::execute
     public AbstractCompactionTask getNextBackgroundTask(int gcBefore) {
+        metrics.registerIfPending();
+        AbstractCompactionTask fastLane = getFastLaneTask(gcBefore);
+        if (fastLane != null)
+            return fastLane;
         while (true) {
-            List<SSTableReader> latestBucket = getNextBackgroundSSTables(gcBefore);
+            List<SSTableReader> latestBucket = timedNextBackgroundSSTables(gcBefore);
 
             if (latestBucket.isEmpty())
                 return null;
 
+            boolean first = options.parallelWindowCompactions > 1 && !compacting();
             LifecycleTransaction modifier = cfs.getTracker().tryModify(latestBucket,
                     OperationType.COMPACTION);
-            if (modifier != null)
-                return new CompactionTask(cfs, modifier, gcBefore);
+            if (modifier != null) {
+                recordSelected(latestBucket, gcBefore);
+                if (first)
+                    requestParallelSlots();
+                return createCompactionTask(modifier, gcBefore);
+            }
+            metrics.tryModifyRetry();
+        }
+    }
+
+    /**
+     * Merges the small sstables of the current window ahead of the other
+     * windows once fast_lane_min_sstables of them are not compacting, so they
+     * keep up with ingest while large windows wait. The merge is a regular
+     * background task, split at max_sstable_size_in_mb like any other.
+     *
+     * @return the merge, null if the fast lane is off or has nothing to do
+     */
+    private AbstractCompactionTask getFastLaneTask(int gcBefore) {
+        if (options.fastLaneMaxBytes <= 0)
+            return null;
+        List<SSTableReader> small = fastLaneCandidates(windowIndex.get());
+        if (small.size() < options.fastLaneMinSSTables)
+            return null;
+        LifecycleTransaction txn = cfs.getTracker().tryModify(small, OperationType.COMPACTION);
+        if (txn == null) {
+            metrics.tryModifyRetry();
+            return null;
+        }
+        recordSelected(small, gcBefore);
+        metrics.fastLane();
+        logger.debug("Fast lane merge of {} small sstables of {}", small.size(), cfs);
+        return createCompactionTask(txn, gcBefore);
+    }
+
+    private void recordSelected(List<SSTableReader> sstables, int gcBefore) {
+        for (SSTableReader sstable : sstables)
+            journal.record(DecisionJournal.Decision.SELECTED, sstable, gcBefore);
+    }
+
+    private List<SSTableReader> timedNextBackgroundSSTables(int gcBefore) {
+        long start = System.nanoTime();
+        try {
+            return getNextBackgroundSSTables(gcBefore);
+        } finally {
+            metrics.selection(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return true if a window of this strategy is compacting
+     */
+    private boolean compacting() {
+        TimeWindowIndex index = windowIndex.get();
+        for (SSTableReader sstable : cfs.getTracker().getCompacting())
+            if (index.contains(sstable))
+                return true;
+        return false;
+    }
+
+    /**
+     * Asks the compaction manager for parallel_window_compactions - 1 more
+     * background slots once a window starts compacting while no other one
+     * does. Each slot selects its own window when it polls, only uncompacting
+     * sstables are seen so the windows are disjoint, and a finished task asks
+     * for the next slot. Nothing is marked compacting ahead of a poll, pausing
+     * compactions finds no sstables held for tasks that are not running.
+     */
+    protected void requestParallelSlots() {
+        logger.debug("Asking for {} parallel window compactions of {}",
+                options.parallelWindowCompactions - 1, cfs);
+        for (int i = 1; i < options.parallelWindowCompactions; i++)
+            CompactionManager.instance.submitBackground(cfs);
+    }
+
+    @Override
+    public void startup() {
+        super.startup();
+        metrics.register();
+        pruneAdopted();
+        StrategyHandoff.prune();
+        expirySchedule.start(this::wakeForExpiry, currentTimeMillis());
+    }
+
+    /**
+     * Leaves the indexes and clocks to the instance replacing this one when
+     * the options change, see StrategyHandoff.
+     */
+    private void leaveHandoff() {
+        StrategyHandoff handoff = new StrategyHandoff(options, windowIndex.get(),
+                overlapIndex.get(), highestWindowSeen.get(),
+                expirySchedule.lastCheckMillis());
+        handOff(handoff);
+        StrategyHandoff.leave(cfs.metadata.cfId, handoff);
+    }
+
+    /**
+     * Puts the state of the subclass into the handoff.
+     */
+    protected void handOff(StrategyHandoff handoff) {
+    }
+
+    /**
+     * @return true if the indexes of the replaced instance were adopted
+     */
+    private boolean claimHandoff(SSTableReader first) {
+        StrategyHandoff handoff = StrategyHandoff.claim(cfs.metadata.cfId, first);
+        if (handoff == null)
+            return false;
+        boolean indexes = sameWindows(handoff.options);
+        if (indexes) {
+            windowIndex.set(handoff.windowIndex);
+            overlapIndex.set(handoff.overlapIndex);
+            adoptedRepaired = first.isRepaired();
+            highestWindowSeen.accumulateAndGet(handoff.highestWindowSeen, Math::max);
         }
+        expirySchedule.resume(handoff.lastExpiredCheck);
+        adopt(handoff, indexes);
+        logger.debug("Adopted the state of the replaced strategy of {}, indexes {}", cfs,
+                indexes);
+        return indexes;
+    }
+
+    /**
+     * Takes over the state of the subclass from the handoff.
+     *
+     * @param indexes
+     *            the sstable indexes are adopted too, they then hold the
+     *            sstables of the replaced instance until startup
+     */
+    protected void adopt(StrategyHandoff handoff, boolean indexes) {
+    }
+
+    // indexes are only kept while sstables land in the same windows
+    private boolean sameWindows(TimeWindowCompactionStrategyOptionsHelper previous) {
+        return previous.sstableWindowUnit == options.sstableWindowUnit
+                && previous.sstableWindowSize == options.sstableWindowSize
+                && previous.timestampResolution == options.timestampResolution
+                && previous.adaptiveWindowSizing == options.adaptiveWindowSizing;
+    }
+
+    /**
+     * Adopted indexes may hold sstables that went away during the switch, or
+     * that belong to the instance of the other repaired state.
+     */
+    private void pruneAdopted() {
+        Boolean repaired = adoptedRepaired;
+        if (repaired == null)
+            return;
+        Set<SSTableReader> live = ImmutableSet.copyOf(cfs.getLiveSSTables());
+        List<SSTableReader> stale = new ArrayList<>();
+        for (SSTableReader sstable : windowIndex.get().all())
+            if (!live.contains(sstable) || sstable.isRepaired() != repaired)
+                stale.add(sstable);
+        if (!stale.isEmpty())
+            replaceSSTables(stale, Collections.<SSTableReader>emptySet());
+        // the overlap index is trusted again once pruned
+        adoptedRepaired = null;
     }
 
     /**
+     * Run by the expiry timers, the background task picks the due sstables.
+     */
+    protected void wakeForExpiry() {
+        CompactionManager.instance.submitBackground(cfs);
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        metrics.unregister();
+        expirySchedule.stop();
+        // an invalidated table is being dropped, nothing replaces this instance
+        if (cfs.isValid())
+            leaveHandoff();
+    }
+
+    /**
+     * Works on a snapshot of the window index, concurrent callers do not block
+     * each other. The result may be stale by the time it is marked compacting,
+     * getNextBackgroundTask retries when tryModify refuses it.
      *
      * @param gcBefore
-     * @return was synchronized
+     * @return candidates for the next background compaction
      */
-    public synchronized List<SSTableReader> getNextBackgroundSSTables(
-            final int gcBefore) {
+    public List<SSTableReader> getNextBackgroundSSTables(final int gcBefore) {
         if (Iterables.isEmpty(cfs.getSSTables(SSTableSet.LIVE)))
             return Collections.emptyList();
 
+        TimeWindowIndex index = windowIndex.get();
         Set<SSTableReader> uncompacting = ImmutableSet
-                .copyOf(filter(cfs.getUncompactingSSTables(), sstables::contains));
+                .copyOf(filter(cfs.getUncompactingSSTables(), index::contains));
 
         // Find fully expired SSTables. Those will be included no matter what.
         Set<SSTableReader> expired = Collections.emptySet();
 
-        if (System.currentTimeMillis()
-                - lastExpiredCheck > options.expiredSSTableCheckFrequency) {
+        if (claimExpiredCheck()) {
             logger.debug(
                     "TWCS expired check sufficiently far in the past, checking for fully expired SSTables");
-            expired = CompactionController.getFullyExpiredSSTables(cfs, uncompacting,
-                    cfs.getOverlappingLiveSSTables(uncompacting), gcBefore);
-            lastExpiredCheck = System.currentTimeMillis();
+            expired = getFullyExpiredSSTables(index, uncompacting, gcBefore);
         } else {
             logger.debug("TWCS skipping check for fully expired SSTables");
         }
@@ -108,64 +327,638 @@ public class TimeWindowCompactionStrategyHelper extends AbstractCompactionStrate
                 getNextNonExpiredSSTables(Sets.difference(candidates, expired),
                         gcBefore));
         if (!expired.isEmpty()) {
-            logger.debug("Including expired sstables: {}", expired);
+            logger.debug("Including {} expired sstables", expired.size());
+            for (SSTableReader sstable : expired)
+                journal.record(DecisionJournal.Decision.EXPIRED, sstable, gcBefore);
             compactionCandidates.addAll(expired);
         }
 
         return compactionCandidates;
     }
 
+    /**
+     * CompactionController.getFullyExpiredSSTables against the overlap index
+     * instead of the overlapping live sstables, which are recomputed from the
+     * whole live set on every call. Only the candidates the expiry schedule
+     * has due are checked. sstables of the other repair state and memtables
+     * are not in the index and block by their min timestamp alone. Nothing
+     * expires while tombstones are never purged.
+     */
+    protected Set<SSTableReader> getFullyExpiredSSTables(TimeWindowIndex index,
+            Set<SSTableReader> candidates, int gcBefore) {
+        if (neverPurgeTombstones())
+            return Collections.emptySet();
+        List<SSTableReader> due = new ArrayList<>();
+        for (SSTableReader sstable : expirySchedule.due(currentTimeMillis()))
+            if (candidates.contains(sstable))
+                due.add(sstable);
+        if (due.isEmpty())
+            return Collections.emptySet();
+        if (cfs.getCompactionStrategyManager().onlyPurgeRepairedTombstones()
+                && !Iterables.all(due, SSTableReader::isRepaired))
+            return Collections.emptySet();
+
+        SSTableOverlapIndex overlaps = overlapIndex.get();
+        long outsideMinTimestamp = outsideMinTimestamp(index, overlaps, gcBefore);
+        for (Memtable memtable : cfs.getTracker().getView().getAllMemtables())
+            outsideMinTimestamp = Math.min(outsideMinTimestamp,
+                    memtable.getMinTimestamp());
+
+        return overlaps.fullyExpired(due, gcBefore, outsideMinTimestamp);
+    }
+
+    /**
+     * Asks the overlap index of the strategy of the other repair state. Falls
+     * back to walking the live set when it is not a time window strategy,
+     * when the indexes do not cover every live sstable, as while an sstable
+     * is between the tracker and the strategies, or when either index was
+     * adopted from a handoff and not pruned yet: it may then hold sstables
+     * that went away in place of live ones, and matching counts prove
+     * nothing.
+     *
+     * @return oldest timestamp of the live data outside the index
+     */
+    private long outsideMinTimestamp(TimeWindowIndex index,
+            SSTableOverlapIndex overlaps, int gcBefore) {
+        long outsideMinTimestamp = Long.MAX_VALUE;
+        int covered = adoptedRepaired == null ? overlaps.size() : -1;
+        for (AbstractCompactionStrategy strategy : cfs.getCompactionStrategyManager()
+                .getStrategies()) {
+            if (covered < 0)
+                break;
+            if (strategy == this || strategy == null)
+                continue;
+            if (!(strategy instanceof TimeWindowCompactionStrategyHelper)) {
+                covered = -1;
+                break;
+            }
+            TimeWindowCompactionStrategyHelper helper = //
+                    (TimeWindowCompactionStrategyHelper) strategy;
+            if (helper.adoptedRepaired != null) {
+                covered = -1;
+                break;
+            }
+            SSTableOverlapIndex other = helper.overlapIndex.get();
+            covered += other.size();
+            outsideMinTimestamp = Math.min(outsideMinTimestamp,
+                    other.minLiveTimestamp(gcBefore));
+        }
+        if (covered == cfs.getLiveSSTables().size())
+            return outsideMinTimestamp;
+
+        outsideMinTimestamp = Long.MAX_VALUE;
+        for (SSTableReader sstable : cfs.getLiveSSTables())
+            if (sstable.getSSTableMetadata().maxLocalDeletionTime >= gcBefore
+                    && !index.contains(sstable))
+                outsideMinTimestamp = Math.min(outsideMinTimestamp,
+                        sstable.getMinTimestamp());
+        return outsideMinTimestamp;
+    }
+
+    /**
+     * Only one of the concurrent selections gets to run the expired check,
+     * once an sstable is due to expire. Due sstables held back by an overlap
+     * are checked again every expired_sstable_check_frequency_seconds.
+     *
+     * @return true if the caller should run the check now
+     */
+    protected boolean claimExpiredCheck() {
+        return expirySchedule.claimCheck(currentTimeMillis());
+    }
+
+    /**
+     * @return millis from which the sstable is expected to be dropped without
+     *         a rewrite, Long.MAX_VALUE if never
+     */
+    protected long droppableAtMillis(SSTableReader sstable) {
+        return expiresAtMillis(sstable);
+    }
+
+    /**
+     * An sstable fully expires once its maxLocalDeletionTime is before
+     * gcBefore, overlapping data may hold it longer.
+     *
+     * @return millis from which the sstable may be fully expired,
+     *         Long.MAX_VALUE if it holds data that never expires
+     */
+    protected long expiresAtMillis(SSTableReader sstable) {
+        long deletedAt = deletedAtMillis(sstable);
+        return deletedAt == Long.MAX_VALUE ? deletedAt : deletedAt + gcGraceMillis();
+    }
+
+    /**
+     * expiresAtMillis without the grace period, which the expiry schedule
+     * adds when it checks so a changed gc_grace_seconds applies to the
+     * sstables already queued.
+     */
+    private long deletedAtMillis(SSTableReader sstable) {
+        int maxLocalDeletionTime = sstable.getSSTableMetadata().maxLocalDeletionTime;
+        if (maxLocalDeletionTime == Integer.MAX_VALUE)
+            return Long.MAX_VALUE;
+        return TimeUnit.SECONDS.toMillis((long) maxLocalDeletionTime + 1);
+    }
+
+    /**
+     * @return gc_grace_seconds of the table as it is now, in millis
+     */
+    protected long gcGraceMillis() {
+        return TimeUnit.SECONDS.toMillis(cfs.metadata.params.gcGraceSeconds);
+    }
+
+    /**
+     * @return true if -Dcassandra.never_purge_tombstones is set, nothing is
+     *         then dropped, neither whole sstables nor tombstones
+     */
+    protected boolean neverPurgeTombstones() {
+        return CompactionController.NEVER_PURGE_TOMBSTONES;
+    }
+
+    /**
+     * Wall clock of the periodic checks, the simulator replays its own.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
     public List<SSTableReader> getNextNonExpiredSSTables(
-            Iterable<SSTableReader> nonExpiringSSTables, final int gcBefore) {
+            Set<SSTableReader> nonExpiringSSTables, final int gcBefore) {
         List<SSTableReader> mostInteresting = getCompactionCandidates(
-                nonExpiringSSTables);
+                nonExpiringSSTables, gcBefore);
 
         if (mostInteresting != null) {
             return mostInteresting;
         }
 
+        List<SSTableReader> rollup = rollupCandidates(windowIndex.get(),
+                nonExpiringSSTables);
+        if (rollup != null) {
+            metrics.rollup();
+            return rollup;
+        }
+
+        if (options.splitSpanningSSTables) {
+            SSTableReader spanning = oldestSpanning(windowIndex.get(),
+                    nonExpiringSSTables);
+            if (spanning != null)
+                return Collections.singletonList(spanning);
+        }
+
         // if there is no sstable to compact in standard way, try compacting
-        // single sstable whose droppable tombstone
-        // ratio is greater than threshold.
-        List<SSTableReader> sstablesWithTombstones = new ArrayList<>();
+        // the single sstable expected to reclaim the most bytes through
+        // droppable tombstones, the estimates are cached between polls
+        if (disableTombstoneCompactions)
+            return Collections.emptyList();
+        long now = currentTimeMillis();
+        SSTableReader best = null;
+        long bestBytes = 0;
         for (SSTableReader sstable : nonExpiringSSTables) {
-            if (worthDroppingTombstones(sstable, gcBefore))
-                sstablesWithTombstones.add(sstable);
+            long bytes = tombstoneEstimates.droppableBytes(sstable, gcBefore, now,
+                    tombstoneCompactionInterval);
+            if (bytes > bestBytes) {
+                best = sstable;
+                bestBytes = bytes;
+            }
         }
-        if (sstablesWithTombstones.isEmpty())
+        if (best == null)
             return Collections.emptyList();
 
-        return Collections.singletonList(Collections.min(sstablesWithTombstones,
-                new SSTableReader.SizeComparator()));
+        logger.debug("Tombstone compaction of {}, {} bytes droppable", best, bestBytes);
+        return Collections.singletonList(best);
+    }
+
+    /**
+     * worthDroppingTombstones with the overlaps limited to the sstables that
+     * can shadow a tombstone of this one: those holding data at or older than
+     * its newest cell. Newer data never keeps a tombstone from being purged,
+     * so flushes leave the cached estimates of older sstables valid, see
+     * TombstoneEstimates.changed. The interval is checked by the estimates.
+     */
+    private boolean worthDroppingOlderTombstones(SSTableReader sstable, int gcBefore) {
+        if (disableTombstoneCompactions || neverPurgeTombstones())
+            return false;
+        double droppableRatio = sstable.getEstimatedDroppableTombstoneRatio(gcBefore);
+        if (droppableRatio <= tombstoneThreshold)
+            return false;
+        if (uncheckedTombstoneCompaction)
+            return true;
+
+        List<SSTableReader> overlaps = new ArrayList<>();
+        for (SSTableReader other : cfs
+                .getOverlappingLiveSSTables(Collections.singleton(sstable)))
+            if (other != sstable && other.getMinTimestamp() <= sstable.getMaxTimestamp())
+                overlaps.add(other);
+        if (overlaps.isEmpty())
+            return true;
+        if (!CompactionController.getFullyExpiredSSTables(cfs,
+                Collections.singleton(sstable), overlaps, gcBefore).isEmpty())
+            return true;
+        if (sstable.getIndexSummarySize() < 2)
+            return false;
+
+        // same estimate as worthDroppingTombstones: tombstones of keys outside
+        // the overlapping ranges can be dropped
+        Set<Range<Token>> ranges = new HashSet<>(overlaps.size());
+        for (SSTableReader overlap : overlaps)
+            ranges.add(new Range<>(overlap.first.getToken(), overlap.last.getToken()));
+        long remainingKeys = sstable.estimatedKeys()
+                - sstable.estimatedKeysForRanges(ranges);
+        EstimatedHistogram columnCount = sstable.getEstimatedColumnCount();
+        double remainingColumnsRatio = (double) (columnCount.mean() * remainingKeys)
+                / (columnCount.count() * columnCount.mean());
+        return remainingColumnsRatio * droppableRatio > tombstoneThreshold;
     }
 
     private List<SSTableReader> getCompactionCandidates(
-            Iterable<SSTableReader> candidateSSTables) {
-        Pair<HashMultimap<Long, SSTableReader>, Long> buckets = getBuckets(
-                candidateSSTables, options.sstableWindowUnit, options.sstableWindowSize,
-                options.timestampResolution);
+            Set<SSTableReader> candidateSSTables, int gcBefore) {
+        TimeWindowIndex index = windowIndex.get();
         // Update the highest window seen, if necessary
-        if (buckets.right > this.highestWindowSeen)
-            this.highestWindowSeen = buckets.right;
+        long now = highestWindowSeen.accumulateAndGet(index.getHighestWindow(),
+                Math::max);
 
-        updateEstimatedCompactionsByTasks(buckets.left);
-        List<SSTableReader> mostInteresting = newestBucket(buckets.left,
-                cfs.getMinimumCompactionThreshold(),
-                cfs.getMaximumCompactionThreshold(), options.sstableWindowUnit,
-                options.sstableWindowSize, options.stcsOptions, this.highestWindowSeen);
-        if (!mostInteresting.isEmpty())
-            return mostInteresting;
+        this.estimatedRemainingTasks = index.estimateTasks(now,
+                cfs.getMinimumCompactionThreshold());
+
+        if (options.windowSelection == WindowSelection.BENEFIT)
+            return mostBeneficialCandidates(index, candidateSSTables, now, gcBefore);
+
+        // walk the persistent index from the newest window and stop at the
+        // first one that qualifies, no need to bucket every sstable
+        for (int i = index.windowCount() - 1; i >= 0; i--) {
+            Set<SSTableReader> bucket = index.bucketAt(i);
+            // windows with less than 2 candidates never qualify, skip them
+            // without building the candidate set
+            if (countCandidates(bucket, candidateSSTables) < 2
+                    || expiresSoon(bucket, candidateSSTables, index.windowAt(i), now))
+                continue;
+            List<SSTableReader> mostInteresting = compactableInBucket(
+                    candidatesIn(bucket, candidateSSTables), index.windowAt(i),
+                    cfs.getMinimumCompactionThreshold(),
+                    cfs.getMaximumCompactionThreshold(), options.stcsOptions, now);
+            if (!mostInteresting.isEmpty())
+                return mostInteresting;
+        }
         return null;
     }
 
+    /**
+     * A window older than the current one whose candidates all become
+     * droppable within expiry_deferral_minutes is left as it is, compacting
+     * it would rewrite data about to be dropped anyway.
+     */
+    private boolean expiresSoon(Set<SSTableReader> bucket,
+            Set<SSTableReader> candidateSSTables, long window, long now) {
+        if (options.expiryDeferralMillis == 0 || window >= now)
+            return false;
+        long horizon = currentTimeMillis() + options.expiryDeferralMillis;
+        for (SSTableReader sstable : bucket)
+            if (candidateSSTables.contains(sstable) && droppableAtMillis(sstable) > horizon)
+                return false;
+        metrics.expiryDeferral();
+        logger.debug("Window {} expires within {}ms, not compacted", window,
+                options.expiryDeferralMillis);
+        return true;
+    }
+
+    private static int countCandidates(Set<SSTableReader> bucket,
+            Set<SSTableReader> candidateSSTables) {
+        int count = 0;
+        for (SSTableReader sstable : bucket)
+            if (candidateSSTables.contains(sstable))
+                count++;
+        return count;
+    }
+
+    private static Set<SSTableReader> candidatesIn(Set<SSTableReader> bucket,
+            Set<SSTableReader> candidateSSTables) {
+        return ImmutableSet.copyOf(Sets.intersection(bucket, candidateSSTables));
+    }
+
+    /**
+     * Scores what every window would compact and returns the best one, trimmed
+     * to compaction_budget_in_mb. Each window still follows the newestBucket
+     * rules, only the order in which windows get compacted changes.
+     */
+    private List<SSTableReader> mostBeneficialCandidates(TimeWindowIndex index,
+            Set<SSTableReader> candidateSSTables, long now, int gcBefore) {
+        List<SSTableReader> best = null;
+        double bestScore = 0;
+        for (int i = index.windowCount() - 1; i >= 0; i--) {
+            Set<SSTableReader> bucket = index.bucketAt(i);
+            if (countCandidates(bucket, candidateSSTables) < 2
+                    || expiresSoon(bucket, candidateSSTables, index.windowAt(i), now))
+                continue;
+            List<SSTableReader> compactable = trimToBudget(compactableInBucket(
+                    candidatesIn(bucket, candidateSSTables), index.windowAt(i),
+                    cfs.getMinimumCompactionThreshold(),
+                    cfs.getMaximumCompactionThreshold(), options.stcsOptions, now),
+                    options.compactionBudgetBytes);
+            if (compactable.isEmpty())
+                continue;
+            double score = benefitPerByte(compactable, gcBefore);
+            if (best == null || score > bestScore) {
+                best = compactable;
+                bestScore = score;
+            }
+        }
+        if (best != null)
+            logger.debug("Most beneficial window compaction, score {}: {}", bestScore,
+                    best);
+        return best;
+    }
+
+    /**
+     * Rolls cold windows up into the coarser windows of rollup_tiers, oldest
+     * first. A coarse window is rolled up once all of it is older than the
+     * tier age. It is left alone once its oldest data starts to age out, or
+     * if one of its sstables fully expires within a coarse window, so a
+     * roll-up does not hold back data that would be dropped on its own.
+     *
+     * @return the sstables of the oldest coarse window with at least 2, null
+     *         if there is none
+     */
+    private List<SSTableReader> rollupCandidates(TimeWindowIndex index,
+            Set<SSTableReader> candidateSSTables) {
+        if (options.rollupAgesMillis.length == 0)
+            return null;
+        long now = currentTimeMillis();
+        int groupTier = -1;
+        long groupLower = 0;
+        List<SSTableReader> group = new ArrayList<>();
+        for (int i = 0; i < index.windowCount(); i++) {
+            long window = index.windowAt(i);
+            int tier = rollupTier(window, now);
+            // windows are oldest first, the remaining ones are not cold yet
+            if (tier < 0)
+                break;
+            long size = options.rollupWindowsMillis[tier];
+            long lower = Math.floorDiv(window, size) * size;
+            if (tier != groupTier || lower != groupLower) {
+                List<SSTableReader> rollup = rollup(group, groupTier, groupLower, now);
+                if (rollup != null)
+                    return rollup;
+                group.clear();
+                groupTier = tier;
+                groupLower = lower;
+            }
+            for (SSTableReader sstable : index.bucketAt(i))
+                if (candidateSSTables.contains(sstable))
+                    group.add(sstable);
+        }
+        return rollup(group, groupTier, groupLower, now);
+    }
+
+    // coarsest tier whose whole window around window is older than its age
+    private int rollupTier(long window, long now) {
+        for (int tier = options.rollupAgesMillis.length - 1; tier >= 0; tier--) {
+            long size = options.rollupWindowsMillis[tier];
+            long end = Math.floorDiv(window, size) * size + size;
+            if (now - end >= options.rollupAgesMillis[tier])
+                return tier;
+        }
+        return -1;
+    }
+
+    private List<SSTableReader> rollup(List<SSTableReader> group, int tier, long lower,
+            long now) {
+        if (group.size() < 2 || now - lower >= rollupExpiryMillis())
+            return null;
+        long window = options.rollupWindowsMillis[tier];
+        for (SSTableReader sstable : group)
+            if (TimeUnit.SECONDS.toMillis(sstable.getSSTableMetadata().maxLocalDeletionTime)
+                    - now < window)
+                return null;
+        List<SSTableReader> sorted = new ArrayList<>(group);
+        Collections.sort(sorted, (a, b) -> Long.compare(a.getMaxTimestamp(),
+                b.getMaxTimestamp()));
+        long maxBytes = rollupMaxBytes();
+        List<SSTableReader> rollup = new ArrayList<>();
+        long bytes = 0;
+        for (SSTableReader sstable : sorted) {
+            if (rollup.size() >= cfs.getMaximumCompactionThreshold())
+                break;
+            long size = sstable.onDiskLength();
+            if (bytes + size > maxBytes)
+                continue;
+            rollup.add(sstable);
+            bytes += size;
+        }
+        if (rollup.size() < 2)
+            return null;
+        logger.debug("Rolling up {} sstables ({} bytes) of the window from {}",
+                rollup.size(), bytes, lower);
+        return rollup;
+    }
+
+    /**
+     * An sstable spans windows when its oldest cell is in an earlier window
+     * than its newest one, unless both are in the same roll-up window.
+     */
+    private boolean spansWindows(TimeWindowIndex index, SSTableReader sstable,
+            long now) {
+        long last = index.windowFor(sstable);
+        long first = index.windowForTimestamp(sstable.getMinTimestamp());
+        if (first == last)
+            return false;
+        int tier = rollupTier(last, now);
+        if (tier < 0)
+            return true;
+        long size = options.rollupWindowsMillis[tier];
+        return Math.floorDiv(first, size) != Math.floorDiv(last, size);
+    }
+
+    /**
+     * @return the spanning sstable holding the oldest data, null if none
+     */
+    private SSTableReader oldestSpanning(TimeWindowIndex index,
+            Set<SSTableReader> candidateSSTables) {
+        long now = currentTimeMillis();
+        SSTableReader oldest = null;
+        for (SSTableReader sstable : candidateSSTables)
+            if ((oldest == null || sstable.getMinTimestamp() < oldest.getMinTimestamp())
+                    && spansWindows(index, sstable, now))
+                oldest = sstable;
+        return oldest;
+    }
+
+    /**
+     * Compactions within one window are split when one of their sstables
+     * spans windows. Roll-ups merge several windows on purpose and are not.
+     */
+    private boolean needsSplit(TimeWindowIndex index, Collection<SSTableReader> sstables) {
+        long now = currentTimeMillis();
+        long window = Long.MIN_VALUE;
+        boolean spanning = false;
+        for (SSTableReader sstable : sstables) {
+            long next = index.windowFor(sstable);
+            if (window != Long.MIN_VALUE && next != window)
+                return false;
+            window = next;
+            spanning |= spansWindows(index, sstable, now);
+        }
+        return spanning;
+    }
+
+    /**
+     * @return largest sstable a roll-up may write
+     */
+    protected long rollupMaxBytes() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return age at which data starts to be dropped, Long.MAX_VALUE if never
+     */
+    protected long rollupExpiryMillis() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Benefit of compacting the sstables together, per byte rewritten. Every
+     * sstable merged away is one less to read for queries on the window, and
+     * droppable tombstones count as the fraction of an sstable they free.
+     *
+     * @return (sstables removed + droppable fraction) per GB rewritten
+     */
+    double benefitPerByte(List<SSTableReader> sstables, int gcBefore) {
+        long bytes = 0;
+        double droppableBytes = 0;
+        for (SSTableReader sstable : sstables) {
+            long size = sstable.onDiskLength();
+            bytes += size;
+            droppableBytes += size * tombstoneEstimates.droppableRatio(sstable, gcBefore);
+        }
+        if (bytes == 0)
+            return Double.MAX_VALUE;
+        double benefit = sstables.size() - 1 + droppableBytes / bytes;
+        return benefit * (1L << 30) / bytes;
+    }
+
+    /**
+     * @return the smallest sstables that fit in budget bytes, empty if fewer
+     *         than 2 fit
+     */
+    static List<SSTableReader> trimToBudget(List<SSTableReader> sstables, long budget) {
+        if (budget == Long.MAX_VALUE || sstables.size() < 2)
+            return sstables;
+        List<SSTableReader> sorted = new ArrayList<>(sstables);
+        Collections.sort(sorted, new SSTableReader.SizeComparator());
+        long bytes = 0;
+        int fit = 0;
+        while (fit < sorted.size() && bytes + sorted.get(fit).onDiskLength() <= budget)
+            bytes += sorted.get(fit++).onDiskLength();
+        return fit < 2 ? Collections.<SSTableReader>emptyList() : sorted.subList(0, fit);
+    }
+
+    /**
+     * Flushes come in one sstable at a time, they drive the adaptive window
+     * sizing. The first sstable added brings back the window layout saved for
+     * its repaired state, unless the indexes of a replaced instance are
+     * adopted, so window bounds survive restarts.
+     */
     @Override
     public void addSSTable(SSTableReader sstable) {
-        sstables.add(sstable);
+        if (handoffClaimed.compareAndSet(false, true) && !claimHandoff(sstable)
+                && adaptiveWindows != null)
+            loadLayout(sstable.isRepaired());
+        TimeWindowIndex added = windowIndex.updateAndGet(index -> index.with(sstable));
+        if (adaptiveWindows != null) {
+            // saves in the order the layouts were made
+            synchronized (adaptiveWindows) {
+                WindowLayout layout = adaptiveWindows.flushed(sstable, added,
+                        currentTimeMillis());
+                if (layout != added.layout()) {
+                    // segments before the oldest window are left out, so the
+                    // layout only grows with the live windows
+                    TimeWindowIndex resized = windowIndex.updateAndGet(
+                            index -> index.withLayout(index.windowCount() == 0 ? layout
+                                    : layout.trimmedBefore(index.windowAt(0))));
+                    saveLayout(resized.layout(), sstable.isRepaired());
+                }
+            }
+        }
+        overlapIndex.updateAndGet(index -> index.with(sstable));
+        tombstoneEstimates.changed(Collections.<SSTableReader>emptySet(),
+                Collections.singleton(sstable));
+        expirySchedule.add(sstable, currentTimeMillis());
+    }
+
+    private void loadLayout(boolean repaired) {
+        File file = layoutFile(repaired);
+        if (file == null || !file.exists())
+            return;
+        try {
+            WindowLayout saved = WindowLayout.parse(
+                    new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8),
+                    options.sstableWindowUnit, options.sstableWindowSize);
+            if (saved == null)
+                return;
+            windowIndex.updateAndGet(index -> index.withLayout(saved));
+            logger.debug("Window layout of {} loaded from {}: {}", cfs, file, saved);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Could not load the window layout of {} from {}", cfs, file, e);
+        }
+    }
+
+    private void saveLayout(WindowLayout layout, boolean repaired) {
+        File file = layoutFile(repaired);
+        if (file == null)
+            return;
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), layout.serialize().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not save the window layout of {} to {}", cfs, file, e);
+        }
+    }
+
+    /**
+     * @return where the adaptive window layout of the repaired or unrepaired
+     *         sstables is kept, null if the table has no directories
+     */
+    protected File layoutFile(boolean repaired) {
+        Directories directories = cfs.getDirectories();
+        if (directories == null)
+            return null;
+        return new File(directories.getCFDirectories().get(0),
+                repaired ? REPAIRED_LAYOUT_FILE : UNREPAIRED_LAYOUT_FILE);
+    }
+
+    /**
+     * @return up to max_threshold of the smallest uncompacting sstables below
+     *         fast_lane_max_sstable_size_in_mb in the current window
+     */
+    private List<SSTableReader> fastLaneCandidates(TimeWindowIndex index) {
+        long now = Math.max(highestWindowSeen.get(), index.getHighestWindow());
+        Set<SSTableReader> compacting = cfs.getTracker().getCompacting();
+        Set<SSTableReader> small = new HashSet<>();
+        for (SSTableReader sstable : index.get(now))
+            if (sstable.onDiskLength() < options.fastLaneMaxBytes
+                    && !compacting.contains(sstable) && !sstable.isMarkedSuspect())
+                small.add(sstable);
+        return trimToThreshold(small, cfs.getMaximumCompactionThreshold());
     }
 
     @Override
     public void removeSSTable(SSTableReader sstable) {
-        sstables.remove(sstable);
+        windowIndex.updateAndGet(index -> index.without(sstable));
+        overlapIndex.updateAndGet(index -> index.without(sstable));
+        tombstoneEstimates.changed(Collections.singleton(sstable),
+                Collections.<SSTableReader>emptySet());
+        expirySchedule.remove(sstable);
+    }
+
+    /**
+     * One compare-and-set for the whole replacement instead of one per sstable.
+     */
+    @Override
+    public void replaceSSTables(Collection<SSTableReader> removed,
+            Collection<SSTableReader> added) {
+        windowIndex.updateAndGet(index -> index.replace(removed, added));
+        overlapIndex.updateAndGet(index -> index.replace(removed, added));
+        tombstoneEstimates.changed(removed, added);
+        expirySchedule.replace(removed, added, currentTimeMillis());
     }
 
     /**
@@ -174,96 +967,68 @@ public class TimeWindowCompactionStrategyHelper extends AbstractCompactionStrate
      */
     public static Pair<Long, Long> getWindowBoundsInMillis(TimeUnit windowTimeUnit,
             int windowTimeSize, long timestampInMillis) {
-        long lowerTimestamp;
-        long upperTimestamp;
+        long lower = getWindowLowerBoundInMillis(windowTimeUnit, windowTimeSize,
+                timestampInMillis);
+        return Pair.create(lower, lower + windowSizeInMillis(windowTimeUnit,
+                windowTimeSize) - TimeUnit.SECONDS.toMillis(1));
+    }
+
+    /**
+     * Lower bound of getWindowBoundsInMillis without the Pair, for the
+     * selection path.
+     */
+    public static long getWindowLowerBoundInMillis(TimeUnit windowTimeUnit,
+            int windowTimeSize, long timestampInMillis) {
         long timestampInSeconds = TimeUnit.SECONDS.convert(timestampInMillis,
                 TimeUnit.MILLISECONDS);
+        long windowInSeconds = TimeUnit.MILLISECONDS
+                .toSeconds(windowSizeInMillis(windowTimeUnit, windowTimeSize));
+        return TimeUnit.MILLISECONDS.convert(
+                timestampInSeconds - (timestampInSeconds % windowInSeconds),
+                TimeUnit.SECONDS);
+    }
 
+    static long windowSizeInMillis(TimeUnit windowTimeUnit, int windowTimeSize) {
         switch (windowTimeUnit) {
         case MINUTES:
-            lowerTimestamp = timestampInSeconds
-                    - ((timestampInSeconds) % (60 * windowTimeSize));
-            upperTimestamp = (lowerTimestamp + (60L * (windowTimeSize - 1L))) + 59L;
-            break;
+            return TimeUnit.MINUTES.toMillis(windowTimeSize);
         case HOURS:
-            lowerTimestamp = timestampInSeconds
-                    - ((timestampInSeconds) % (3600 * windowTimeSize));
-            upperTimestamp = (lowerTimestamp + (3600L * (windowTimeSize - 1L))) + 3599L;
-            break;
+            return TimeUnit.HOURS.toMillis(windowTimeSize);
         case DAYS:
         default:
-            lowerTimestamp = timestampInSeconds
-                    - ((timestampInSeconds) % (86400 * windowTimeSize));
-            upperTimestamp = (lowerTimestamp + (86400L * (windowTimeSize - 1L)))
-                    + 86399L;
-            break;
+            return TimeUnit.DAYS.toMillis(windowTimeSize);
         }
-
-        return Pair.create(
-                TimeUnit.MILLISECONDS.convert(lowerTimestamp, TimeUnit.SECONDS),
-                TimeUnit.MILLISECONDS.convert(upperTimestamp, TimeUnit.SECONDS));
-
     }
 
     /**
      * Group files with similar max timestamp into buckets.
      *
      * @param files
-     *            pairs consisting of a file and its min timestamp
+     *            sstables to bucket
      * @param sstableWindowUnit
      * @param sstableWindowSize
      * @param timestampResolution
-     * @return A pair, where the left element is the bucket representation (map
-     *         of timestamp to sstablereader), and the right is the highest
+     * @return the buckets as a window index, its highest window is the highest
      *         timestamp seen
      */
     @VisibleForTesting
-    static Pair<HashMultimap<Long, SSTableReader>, Long> getBuckets(
-            Iterable<SSTableReader> files, TimeUnit sstableWindowUnit,
-            int sstableWindowSize, TimeUnit timestampResolution) {
-        HashMultimap<Long, SSTableReader> buckets = HashMultimap.create();
-
-        long maxTimestamp = 0;
-        // Create hash map to represent buckets
-        // For each sstable, add sstable to the time bucket
-        // Where the bucket is the file's max timestamp rounded to the nearest
-        // window bucket
-        for (SSTableReader f : files) {
-            assert TimeWindowCompactionStrategyOptions.validTimestampTimeUnits
-                    .contains(timestampResolution);
-            long tStamp = TimeUnit.MILLISECONDS.convert(f.getMaxTimestamp(),
-                    timestampResolution);
-            Pair<Long, Long> bounds = getWindowBoundsInMillis(sstableWindowUnit,
-                    sstableWindowSize, tStamp);
-            buckets.put(bounds.left, f);
-            if (bounds.left > maxTimestamp)
-                maxTimestamp = bounds.left;
-        }
-
-        logger.trace("buckets {}, max timestamp", buckets, maxTimestamp);
-        return Pair.create(buckets, maxTimestamp);
-    }
-
-    private void updateEstimatedCompactionsByTasks(
-            HashMultimap<Long, SSTableReader> tasks) {
-        int n = 0;
-        long now = this.highestWindowSeen;
-
-        for (Long key : tasks.keySet()) {
-            // For current window, make sure it's compactable
-            if (key.compareTo(now) >= 0
-                    && tasks.get(key).size() >= cfs.getMinimumCompactionThreshold())
-                n++;
-            else if (key.compareTo(now) < 0 && tasks.get(key).size() >= 2)
-                n++;
-        }
-        this.estimatedRemainingTasks = n;
+    static TimeWindowIndex getBuckets(Collection<SSTableReader> files,
+            TimeUnit sstableWindowUnit, int sstableWindowSize,
+            TimeUnit timestampResolution) {
+        assert TimeWindowCompactionStrategyOptions.validTimestampTimeUnits
+                .contains(timestampResolution);
+        TimeWindowIndex buckets = new TimeWindowIndex(sstableWindowUnit,
+                sstableWindowSize, timestampResolution)
+                        .replace(Collections.<SSTableReader>emptySet(), files);
+        logger.trace("{} buckets, max timestamp {}", buckets.windowCount(),
+                buckets.getHighestWindow());
+        return buckets;
     }
 
     /**
      * @param buckets
-     *            list of buckets, sorted from newest to oldest, from which to
-     *            return the newest bucket within thresholds.
+     *            windows from which to return the newest bucket within
+     *            thresholds.
      * @param minThreshold
      *            minimum number of sstables in a bucket to qualify.
      * @param maxThreshold
@@ -272,50 +1037,58 @@ public class TimeWindowCompactionStrategyHelper extends AbstractCompactionStrate
      * @return a bucket (list) of sstables to compact.
      */
     @VisibleForTesting
-    static List<SSTableReader> newestBucket(HashMultimap<Long, SSTableReader> buckets,
-            int minThreshold, int maxThreshold, TimeUnit sstableWindowUnit,
-            int sstableWindowSize, SizeTieredCompactionStrategyOptions stcsOptions,
+    static List<SSTableReader> newestBucket(TimeWindowIndex buckets, int minThreshold,
+            int maxThreshold, SizeTieredCompactionStrategyOptions stcsOptions,
             long now) {
         // If the current bucket has at least minThreshold SSTables, choose that
         // one.
         // For any other bucket, at least 2 SSTables is enough.
         // In any case, limit to maxThreshold SSTables.
+        for (int i = buckets.windowCount() - 1; i >= 0; i--) {
+            List<SSTableReader> mostInteresting = compactableInBucket(
+                    buckets.bucketAt(i), buckets.windowAt(i), minThreshold,
+                    maxThreshold, stcsOptions, now);
+            if (!mostInteresting.isEmpty())
+                return mostInteresting;
+        }
+        return Collections.<SSTableReader>emptyList();
+    }
 
-        TreeSet<Long> allKeys = new TreeSet<>(buckets.keySet());
-
-        Iterator<Long> it = allKeys.descendingIterator();
-        while (it.hasNext()) {
-            Long key = it.next();
-            Set<SSTableReader> bucket = buckets.get(key);
-            logger.trace("Key {}, now {}", key, now);
-            if (bucket.size() >= minThreshold && key >= now) {
-                // If we're in the newest bucket, we'll use STCS to prioritize
-                // sstables
-                List<Pair<SSTableReader, Long>> pairs = SizeTieredCompactionStrategy
-                        .createSSTableAndLengthPairs(bucket);
-                List<List<SSTableReader>> stcsBuckets = SizeTieredCompactionStrategy
-                        .getBuckets(pairs, stcsOptions.bucketHigh,
-                                stcsOptions.bucketLow, stcsOptions.minSSTableSize);
-                logger.debug(
-                        "Using STCS compaction for first window of bucket: data files {} , options {}",
-                        pairs, stcsOptions);
-                List<SSTableReader> stcsInterestingBucket = SizeTieredCompactionStrategy
-                        .mostInterestingBucket(stcsBuckets, minThreshold, maxThreshold);
-
-                // If the tables in the current bucket aren't eligible in the
-                // STCS strategy, we'll skip it and look for other buckets
-                if (!stcsInterestingBucket.isEmpty())
-                    return stcsInterestingBucket;
-            } else if (bucket.size() >= 2 && key < now) {
-                logger.debug(
-                        "bucket size {} >= 2 and not in current bucket, compacting what's here: {}",
-                        bucket.size(), bucket);
-                return trimToThreshold(bucket, maxThreshold);
-            } else {
-                logger.debug(
-                        "No compaction necessary for bucket size {} , key {}, now {}",
-                        bucket.size(), key, now);
-            }
+    /**
+     * @param bucket
+     *            sstables of a single window.
+     * @param key
+     *            lower bound of the window.
+     * @return the sstables to compact out of this window, empty if the window
+     *         does not qualify.
+     */
+    static List<SSTableReader> compactableInBucket(Set<SSTableReader> bucket, long key,
+            int minThreshold, int maxThreshold,
+            SizeTieredCompactionStrategyOptions stcsOptions, long now) {
+        logger.trace("Key {}, now {}", key, now);
+        if (bucket.size() >= minThreshold && key >= now) {
+            // If we're in the newest bucket, we'll use STCS to prioritize
+            // sstables
+            List<Pair<SSTableReader, Long>> pairs = SizeTieredCompactionStrategy
+                    .createSSTableAndLengthPairs(bucket);
+            List<List<SSTableReader>> stcsBuckets = SizeTieredCompactionStrategy
+                    .getBuckets(pairs, stcsOptions.bucketHigh, stcsOptions.bucketLow,
+                            stcsOptions.minSSTableSize);
+            logger.debug(
+                    "Using STCS compaction for first window of bucket: data files {} , options {}",
+                    pairs, stcsOptions);
+            // If the tables in the current bucket aren't eligible in the
+            // STCS strategy, we'll skip it and look for other buckets
+            return SizeTieredCompactionStrategy.mostInterestingBucket(stcsBuckets,
+                    minThreshold, maxThreshold);
+        } else if (bucket.size() >= 2 && key < now) {
+            logger.debug(
+                    "bucket size {} >= 2 and not in current bucket, compacting what's here: {}",
+                    bucket.size(), bucket);
+            return trimToThreshold(bucket, maxThreshold);
+        } else {
+            logger.debug("No compaction necessary for bucket size {} , key {}, now {}",
+                    bucket.size(), key, now);
         }
         return Collections.<SSTableReader>emptyList();
     }
@@ -338,25 +1111,42 @@ public class TimeWindowCompactionStrategyHelper extends AbstractCompactionStrate
         return ImmutableList.copyOf(Iterables.limit(ssTableReaders, maxThreshold));
     }
 
+    /**
+     * One task per window holding at least major_compaction_min_sstables
+     * sstables, so windows stay apart and the compaction manager runs them on
+     * all compaction threads. Windows already compacting are skipped. With
+     * splitOutput each window is split into sstables of halving size, as
+     * SizeTieredCompactionStrategy does for the whole table.
+     */
     @Override
     @SuppressWarnings("resource") // transaction is closed by
                                   // AbstractCompactionTask::execute
-    public synchronized Collection<AbstractCompactionTask> getMaximalTask(int gcBefore,
+    public Collection<AbstractCompactionTask> getMaximalTask(int gcBefore,
             boolean splitOutput) {
-        Iterable<SSTableReader> filteredSSTables = filterSuspectSSTables(sstables);
-        if (Iterables.isEmpty(filteredSSTables))
-            return null;
-        LifecycleTransaction txn = cfs.getTracker().tryModify(filteredSSTables,
-                OperationType.COMPACTION);
-        if (txn == null)
-            return null;
-        return Collections.singleton(new CompactionTask(cfs, txn, gcBefore));
+        TimeWindowIndex index = windowIndex.get();
+        List<AbstractCompactionTask> tasks = new ArrayList<>();
+        for (int i = index.windowCount() - 1; i >= 0; i--) {
+            List<SSTableReader> bucket = ImmutableList
+                    .copyOf(filterSuspectSSTables(index.bucketAt(i)));
+            if (bucket.isEmpty() || bucket.size() < options.majorCompactionMinSSTables)
+                continue;
+            LifecycleTransaction txn = cfs.getTracker().tryModify(bucket,
+                    OperationType.COMPACTION);
+            if (txn == null)
+                continue;
+            recordSelected(bucket, gcBefore);
+            tasks.add(splitOutput ? new SplittingCompactionTask(cfs, txn, gcBefore)
+                    : createCompactionTask(txn, gcBefore));
+        }
+        logger.debug("Major compaction of {} in {} of {} windows", cfs, tasks.size(),
+                index.windowCount());
+        return tasks.isEmpty() ? null : tasks;
     }
 
     @Override
     @SuppressWarnings("resource") // transaction is closed by
                                   // AbstractCompactionTask::execute
-    public synchronized AbstractCompactionTask getUserDefinedTask(
+    public AbstractCompactionTask getUserDefinedTask(
             Collection<SSTableReader> sstables, int gcBefore) {
         assert !sstables.isEmpty(); // checked for by CM.submitUserDefined
 
@@ -369,23 +1159,91 @@ public class TimeWindowCompactionStrategyHelper extends AbstractCompactionStrate
             return null;
         }
 
-        return new CompactionTask(cfs, modifier, gcBefore).setUserDefined(true);
+        return createCompactionTask(modifier, gcBefore).setUserDefined(true);
+    }
+
+    public DecisionJournal getJournal() {
+        return journal;
+    }
+
+    public TimeWindowCompactionStrategyMetrics getMetrics() {
+        return metrics;
     }
 
     public int getEstimatedRemainingTasks() {
         return this.estimatedRemainingTasks;
     }
 
+    /**
+     * Same windows as getEstimatedRemainingTasks, read from the current index.
+     *
+     * @return bytes on disk the pending window compactions would rewrite
+     */
+    public long getEstimatedPendingBytes() {
+        TimeWindowIndex index = windowIndex.get();
+        long now = Math.max(highestWindowSeen.get(), index.getHighestWindow());
+        return index.estimatePendingBytes(now, cfs.getMinimumCompactionThreshold());
+    }
+
+    /**
+     * @return bytes on disk expected to go away without being rewritten, 0
+     *         unless the strategy drops whole sstables on its own
+     */
+    public long getEstimatedDroppableBytes() {
+        return 0;
+    }
+
+    /**
+     * @return a task that splits its output at max_sstable_size_in_mb when set
+     */
+    protected CompactionTask createCompactionTask(LifecycleTransaction txn,
+            int gcBefore) {
+        TimeWindowIndex splitBy = null;
+        if (options.splitSpanningSSTables) {
+            TimeWindowIndex index = windowIndex.get();
+            if (needsSplit(index, txn.originals()))
+                splitBy = index;
+        }
+        TimeWindowCompactionTask.Purge purge = purge(gcBefore);
+        if (splitBy == null && purge == null && options.maxSSTableBytes == Long.MAX_VALUE)
+            return new CompactionTask(cfs, txn, gcBefore);
+        return new TimeWindowCompactionTask(cfs, txn, gcBefore, options.maxSSTableBytes,
+                splitBy, purge);
+    }
+
+    /**
+     * @return what the compactions of the strategy leave out of the merged
+     *         partitions besides purgeable tombstones, null if nothing
+     */
+    protected TimeWindowCompactionTask.Purge purge(int gcBefore) {
+        return null;
+    }
+
+    private static final class SplittingCompactionTask extends CompactionTask {
+        SplittingCompactionTask(ColumnFamilyStore cfs, LifecycleTransaction txn,
+                int gcBefore) {
+            super(cfs, txn, gcBefore);
+        }
+
+        @Override
+        public CompactionAwareWriter getCompactionAwareWriter(ColumnFamilyStore cfs,
+                Directories directories, LifecycleTransaction txn,
+                Set<SSTableReader> nonExpiredSSTables) {
+            return new SplittingSizeTieredCompactionWriter(cfs, directories, txn,
+                    nonExpiredSSTables);
+        }
+    }
+
     public long getMaxSSTableBytes() {
-        return Long.MAX_VALUE;
+        return options.maxSSTableBytes;
     }
 
     public static Map<String, String> validateOptions(Map<String, String> options)
             throws ConfigurationException {
         Map<String, String> uncheckedOptions = AbstractCompactionStrategy
                 .validateOptions(options);
-        uncheckedOptions = TimeWindowCompactionStrategyOptions.validateOptions(options,
-                uncheckedOptions);
+        uncheckedOptions = TimeWindowCompactionStrategyOptionsHelper
+                .validateOptions(options, uncheckedOptions);
 
         uncheckedOptions.remove(CompactionParams.Option.MIN_THRESHOLD.toString());
         uncheckedOptions.remove(CompactionParams.Option.MAX_THRESHOLD.toString());
@@ -0,0 +1,290 @@
+package org.apache.cassandra.db.compaction;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters of the strategy decisions, exposed over JMX while the strategy is
+ * started. Updates are striped adders, cheap enough for the selection path.
+ */
+public class TimeWindowCompactionStrategyMetrics
+        implements TimeWindowCompactionStrategyMetricsMBean {
+    private static final Logger logger = LoggerFactory
+            .getLogger(TimeWindowCompactionStrategyMetrics.class);
+
+    public static final String DOMAIN = "cassandra.strategy";
+
+    // instance registered under each name, an instance replaced by a reload
+    // only unregisters its name while it still owns it, guarded by itself
+    private static final Map<ObjectName, TimeWindowCompactionStrategyMetrics> owners = //
+            new HashMap<>();
+
+    private final TimeWindowCompactionStrategyHelper strategy;
+
+    private final LongAdder selections = new LongAdder();
+    private final LongAdder selectionNanos = new LongAdder();
+    private volatile long lastSelectionNanos;
+    private final LongAdder agedSSTables = new LongAdder();
+    private final LongAdder agedBytes = new LongAdder();
+    private final LongAdder bigFilesSkipped = new LongAdder();
+    private final LongAdder tryModifyRetries = new LongAdder();
+    private final LongAdder rollups = new LongAdder();
+    private final LongAdder agedCells = new LongAdder();
+    private final LongAdder expiryDeferrals = new LongAdder();
+    private final LongAdder fastLaneMerges = new LongAdder();
+
+    private volatile ObjectName registered;
+    // between register and unregister, written under this
+    private volatile boolean started;
+
+    public TimeWindowCompactionStrategyMetrics(
+            TimeWindowCompactionStrategyHelper strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * The repaired and unrepaired instances of a table are told apart by
+     * their place in the strategy manager. A table opening starts the
+     * strategies of its first manager before it holds the manager.
+     *
+     * @return the name, null while the table has no strategy manager
+     */
+    private String name() {
+        CompactionStrategyManager manager = strategy.cfs.getCompactionStrategyManager();
+        if (manager == null)
+            return null;
+        List<AbstractCompactionStrategy> strategies = manager.getStrategies();
+        boolean repaired = !strategies.isEmpty() && strategies.get(0) == strategy;
+        return String.format("%s:type=CompactionStrategy,keyspace=%s,table=%s,repaired=%b",
+                DOMAIN, strategy.cfs.metadata.ksName, strategy.cfs.metadata.cfName,
+                repaired);
+    }
+
+    /**
+     * Takes the name over from an instance of the same table still registered
+     * under it. Deferred to registerIfPending while the table has no strategy
+     * manager.
+     */
+    public synchronized void register() {
+        started = true;
+        tryRegister();
+    }
+
+    /**
+     * Called by every background poll, cheap once registered.
+     */
+    public void registerIfPending() {
+        if (registered != null || !started)
+            return;
+        synchronized (this) {
+            if (started)
+                tryRegister();
+        }
+    }
+
+    private void tryRegister() {
+        if (registered != null)
+            return;
+        String name = null;
+        try {
+            name = name();
+            if (name == null)
+                return;
+            ObjectName objectName = new ObjectName(name);
+            synchronized (owners) {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(objectName))
+                    server.unregisterMBean(objectName);
+                server.registerMBean(this, objectName);
+                owners.put(objectName, this);
+            }
+            registered = objectName;
+        } catch (Exception e) {
+            logger.warn("Could not register {} of {}", name, strategy.cfs, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        started = false;
+        if (registered == null)
+            return;
+        try {
+            synchronized (owners) {
+                if (owners.remove(registered, this)) {
+                    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                    if (server.isRegistered(registered))
+                        server.unregisterMBean(registered);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Could not unregister {}", registered, e);
+        }
+        registered = null;
+    }
+
+    public void selection(long nanos) {
+        selections.increment();
+        selectionNanos.add(nanos);
+        lastSelectionNanos = nanos;
+    }
+
+    public void aged(long sstables, long bytes) {
+        agedSSTables.add(sstables);
+        agedBytes.add(bytes);
+    }
+
+    public void bigFileSkipped() {
+        bigFilesSkipped.increment();
+    }
+
+    public void tryModifyRetry() {
+        tryModifyRetries.increment();
+    }
+
+    public void rollup() {
+        rollups.increment();
+    }
+
+    public void agedCellsPurged(long cells) {
+        agedCells.add(cells);
+    }
+
+    public void expiryDeferral() {
+        expiryDeferrals.increment();
+    }
+
+    public void fastLane() {
+        fastLaneMerges.increment();
+    }
+
+    @Override
+    public long getSelectionCount() {
+        return selections.sum();
+    }
+
+    @Override
+    public long getSelectionTotalMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(selectionNanos.sum());
+    }
+
+    @Override
+    public long getSelectionLastMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastSelectionNanos);
+    }
+
+    @Override
+    public long getAgedSSTablesDropped() {
+        return agedSSTables.sum();
+    }
+
+    @Override
+    public long getAgedBytesDropped() {
+        return agedBytes.sum();
+    }
+
+    @Override
+    public long getBigFilesSkipped() {
+        return bigFilesSkipped.sum();
+    }
+
+    @Override
+    public int getWindowsPendingCompaction() {
+        return strategy.getEstimatedRemainingTasks();
+    }
+
+    @Override
+    public long getPendingCompactionBytes() {
+        return strategy.getEstimatedPendingBytes();
+    }
+
+    @Override
+    public long getPendingDropBytes() {
+        return strategy.getEstimatedDroppableBytes();
+    }
+
+    @Override
+    public long getTombstoneDroppableBytes() {
+        return strategy.tombstoneEstimates.droppableBytes();
+    }
+
+    @Override
+    public long getEstimatedDrainSeconds() {
+        long bytesPerSecond = DatabaseDescriptor.getCompactionThroughputMbPerSec()
+                * 1024L * 1024L;
+        if (bytesPerSecond <= 0)
+            return -1;
+        return (strategy.getEstimatedPendingBytes() + bytesPerSecond - 1)
+                / bytesPerSecond;
+    }
+
+    @Override
+    public long getOldestWindowAgeMillis() {
+        TimeWindowIndex index = strategy.windowIndex.get();
+        if (index.windowCount() == 0)
+            return 0;
+        return System.currentTimeMillis() - index.windowAt(0);
+    }
+
+    @Override
+    public long getTryModifyRetries() {
+        return tryModifyRetries.sum();
+    }
+
+    @Override
+    public long getRollupSelections() {
+        return rollups.sum();
+    }
+
+    @Override
+    public long getAgedCellsPurged() {
+        return agedCells.sum();
+    }
+
+    @Override
+    public long getExpiryDeferrals() {
+        return expiryDeferrals.sum();
+    }
+
+    @Override
+    public long getFastLaneMerges() {
+        return fastLaneMerges.sum();
+    }
+
+    @Override
+    public long getWindowSizeMillis() {
+        return strategy.windowIndex.get().layout().sizeAt(Long.MAX_VALUE);
+    }
+
+    @Override
+    public int getLastWindowFlushes() {
+        AdaptiveWindowSizing adaptive = strategy.adaptiveWindows;
+        return adaptive == null ? 0 : adaptive.getLastWindowFlushes();
+    }
+
+    @Override
+    public long getLastWindowFlushedBytes() {
+        AdaptiveWindowSizing adaptive = strategy.adaptiveWindows;
+        return adaptive == null ? 0 : adaptive.getLastWindowBytes();
+    }
+
+    @Override
+    public long getDecisionsRecorded() {
+        return strategy.journal.recorded();
+    }
+
+    @Override
+    public String[] latestDecisions(int limit) {
+        return strategy.journal.latest(limit).toArray(new String[0]);
+    }
+}
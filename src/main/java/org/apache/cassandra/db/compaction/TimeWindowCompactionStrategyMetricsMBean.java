@@ -0,0 +1,124 @@
+package org.apache.cassandra.db.compaction;
+
+/**
+ * Per strategy instance counters, registered as
+ * cassandra.strategy:type=CompactionStrategy,keyspace=..,table=..,repaired=..
+ * so the name of a table stays the same across restarts and option changes.
+ * The strategies of a table being opened register on their first background
+ * poll, once the table holds their strategy manager.
+ */
+public interface TimeWindowCompactionStrategyMetricsMBean {
+    /**
+     * @return number of background selections
+     */
+    long getSelectionCount();
+
+    /**
+     * @return time spent in getNextBackgroundSSTables, microseconds
+     */
+    long getSelectionTotalMicros();
+
+    /**
+     * @return time spent in the last getNextBackgroundSSTables, microseconds
+     */
+    long getSelectionLastMicros();
+
+    /**
+     * @return sstables left out of compaction because they aged out
+     */
+    long getAgedSSTablesDropped();
+
+    /**
+     * @return on disk bytes of the aged sstables left out of compaction
+     */
+    long getAgedBytesDropped();
+
+    /**
+     * @return candidates skipped because of max_file_size_mb
+     */
+    long getBigFilesSkipped();
+
+    /**
+     * @return windows with enough sstables to compact
+     */
+    int getWindowsPendingCompaction();
+
+    /**
+     * @return bytes on disk of the windows pending compaction
+     */
+    long getPendingCompactionBytes();
+
+    /**
+     * @return bytes on disk aged out and dropped without a rewrite, ageing only
+     */
+    long getPendingDropBytes();
+
+    /**
+     * @return bytes tombstone compactions are expected to reclaim, from the
+     *         cached estimates
+     */
+    long getTombstoneDroppableBytes();
+
+    /**
+     * @return seconds to rewrite the pending bytes at
+     *         compaction_throughput_mb_per_sec, -1 if unthrottled
+     */
+    long getEstimatedDrainSeconds();
+
+    /**
+     * @return age of the oldest window holding a live sstable, milliseconds
+     */
+    long getOldestWindowAgeMillis();
+
+    /**
+     * @return selections refused by tryModify and retried
+     */
+    long getTryModifyRetries();
+
+    /**
+     * @return cold window roll-ups selected
+     */
+    long getRollupSelections();
+
+    /**
+     * @return aged cells and row liveness left out while compacting, or that
+     *         would have been in dry run
+     */
+    long getAgedCellsPurged();
+
+    /**
+     * @return times a window was passed over because it expires within
+     *         expiry_deferral_minutes
+     */
+    long getExpiryDeferrals();
+
+    /**
+     * @return merges of small current window flushes run on the fast lane
+     */
+    long getFastLaneMerges();
+
+    /**
+     * @return size of new windows, milliseconds
+     */
+    long getWindowSizeMillis();
+
+    /**
+     * @return flushes into the last finished window, 0 unless adaptive
+     */
+    int getLastWindowFlushes();
+
+    /**
+     * @return bytes flushed into the last finished window, 0 unless adaptive
+     */
+    long getLastWindowFlushedBytes();
+
+    /**
+     * @return per-sstable decisions recorded in the journal so far
+     */
+    long getDecisionsRecorded();
+
+    /**
+     * @return up to limit of the latest journal entries, oldest first
+     */
+    String[] latestDecisions(int limit);
+}
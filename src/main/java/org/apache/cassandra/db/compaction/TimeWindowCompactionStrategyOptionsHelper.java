@@ -20,16 +20,79 @@ public final class TimeWindowCompactionStrategyOptionsHelper {
     protected static final int DEFAULT_COMPACTION_WINDOW_SIZE = 1;
     protected static final int DEFAULT_EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS = 60
             * 10;
+    protected static final int DEFAULT_PARALLEL_WINDOW_COMPACTIONS = 1;
+    protected static final long DEFAULT_MAX_SSTABLE_SIZE_MB = 0;
+    protected static final WindowSelection DEFAULT_WINDOW_SELECTION = WindowSelection.NEWEST;
+    protected static final long DEFAULT_COMPACTION_BUDGET_MB = 0;
+    protected static final boolean DEFAULT_ADAPTIVE_WINDOW_SIZING = false;
+    protected static final int DEFAULT_MIN_SSTABLES_PER_WINDOW = 4;
+    protected static final int DEFAULT_MAX_SSTABLES_PER_WINDOW = 32;
+    protected static final int DEFAULT_MAX_LIVE_WINDOWS = 0;
+    protected static final String DEFAULT_ROLLUP_TIERS = "";
+    protected static final boolean DEFAULT_SPLIT_SPANNING_SSTABLES = false;
+    protected static final int DEFAULT_MAJOR_COMPACTION_MIN_SSTABLES = 1;
+    protected static final long DEFAULT_EXPIRY_DEFERRAL_MINUTES = 0;
+    protected static final long DEFAULT_FAST_LANE_MAX_SSTABLE_SIZE_MB = 0;
+    protected static final int DEFAULT_FAST_LANE_MIN_SSTABLES = 4;
 
     protected static final String TIMESTAMP_RESOLUTION_KEY = "timestamp_resolution";
     protected static final String COMPACTION_WINDOW_UNIT_KEY = "compaction_window_unit";
     protected static final String COMPACTION_WINDOW_SIZE_KEY = "compaction_window_size";
     protected static final String EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY = "expired_sstable_check_frequency_seconds";
+    protected static final String PARALLEL_WINDOW_COMPACTIONS_KEY = "parallel_window_compactions";
+    protected static final String MAX_SSTABLE_SIZE_MB_KEY = "max_sstable_size_in_mb";
+    protected static final String WINDOW_SELECTION_KEY = "window_selection";
+    protected static final String COMPACTION_BUDGET_MB_KEY = "compaction_budget_in_mb";
+    protected static final String ADAPTIVE_WINDOW_SIZING_KEY = "adaptive_window_sizing";
+    protected static final String MIN_SSTABLES_PER_WINDOW_KEY = "min_sstables_per_window";
+    protected static final String MAX_SSTABLES_PER_WINDOW_KEY = "max_sstables_per_window";
+    protected static final String MAX_LIVE_WINDOWS_KEY = "max_live_windows";
+    protected static final String ROLLUP_TIERS_KEY = "rollup_tiers";
+    protected static final String SPLIT_SPANNING_SSTABLES_KEY = "split_spanning_sstables";
+    protected static final String MAJOR_COMPACTION_MIN_SSTABLES_KEY = "major_compaction_min_sstables";
+    protected static final String EXPIRY_DEFERRAL_MINUTES_KEY = "expiry_deferral_minutes";
+    protected static final String FAST_LANE_MAX_SSTABLE_SIZE_MB_KEY = "fast_lane_max_sstable_size_in_mb";
+    protected static final String FAST_LANE_MIN_SSTABLES_KEY = "fast_lane_min_sstables";
+
+    /**
+     * NEWEST compacts the newest window that qualifies, BENEFIT the one with
+     * the highest benefit per byte rewritten.
+     */
+    public enum WindowSelection {
+        NEWEST, BENEFIT
+    }
 
     protected final int sstableWindowSize;
     protected final TimeUnit sstableWindowUnit;
     protected final TimeUnit timestampResolution;
     public final long expiredSSTableCheckFrequency;
+    public final int parallelWindowCompactions;
+    // cap on the size of compaction outputs, Long.MAX_VALUE writes one sstable
+    public final long maxSSTableBytes;
+    public final WindowSelection windowSelection;
+    // most bytes a BENEFIT selection rewrites at once, Long.MAX_VALUE if unbounded
+    public final long compactionBudgetBytes;
+    // sizes new windows from the flushes instead of compaction_window_*
+    public final boolean adaptiveWindowSizing;
+    public final int minSSTablesPerWindow;
+    public final int maxSSTablesPerWindow;
+    // 0 if unbounded
+    public final int maxLiveWindows;
+    // windows older than rollupAgesMillis[i] are rolled up into windows of
+    // rollupWindowsMillis[i], both increasing, empty if roll-up is off
+    public final long[] rollupAgesMillis;
+    public final long[] rollupWindowsMillis;
+    // rewrites sstables spanning windows into one sstable per window
+    public final boolean splitSpanningSSTables;
+    // windows with fewer sstables are left out of major compactions, 1 rewrites
+    // every window so tombstones in single sstable windows are purged too
+    public final int majorCompactionMinSSTables;
+    // windows droppable within this horizon are not compacted, 0 if off
+    public final long expiryDeferralMillis;
+    // current window sstables below this size are merged on the fast lane,
+    // 0 if off
+    public final long fastLaneMaxBytes;
+    public final int fastLaneMinSSTables;
 
     public SizeTieredCompactionStrategyOptions stcsOptions;
 
@@ -62,6 +125,71 @@ public final class TimeWindowCompactionStrategyOptionsHelper {
                         : Long.parseLong(optionValue),
                 TimeUnit.SECONDS);
 
+        optionValue = options.get(PARALLEL_WINDOW_COMPACTIONS_KEY);
+        parallelWindowCompactions = optionValue == null
+                ? DEFAULT_PARALLEL_WINDOW_COMPACTIONS
+                : Integer.parseInt(optionValue);
+
+        optionValue = options.get(MAX_SSTABLE_SIZE_MB_KEY);
+        long maxSSTableSizeMB = optionValue == null ? DEFAULT_MAX_SSTABLE_SIZE_MB
+                : Long.parseLong(optionValue);
+        maxSSTableBytes = maxSSTableSizeMB == 0 ? Long.MAX_VALUE
+                : maxSSTableSizeMB * 1024L * 1024L;
+
+        optionValue = options.get(WINDOW_SELECTION_KEY);
+        windowSelection = optionValue == null ? DEFAULT_WINDOW_SELECTION
+                : WindowSelection.valueOf(optionValue);
+
+        optionValue = options.get(COMPACTION_BUDGET_MB_KEY);
+        long compactionBudgetMB = optionValue == null ? DEFAULT_COMPACTION_BUDGET_MB
+                : Long.parseLong(optionValue);
+        compactionBudgetBytes = compactionBudgetMB == 0 ? Long.MAX_VALUE
+                : compactionBudgetMB * 1024L * 1024L;
+
+        optionValue = options.get(ADAPTIVE_WINDOW_SIZING_KEY);
+        adaptiveWindowSizing = optionValue == null ? DEFAULT_ADAPTIVE_WINDOW_SIZING
+                : Boolean.parseBoolean(optionValue);
+
+        optionValue = options.get(MIN_SSTABLES_PER_WINDOW_KEY);
+        minSSTablesPerWindow = optionValue == null ? DEFAULT_MIN_SSTABLES_PER_WINDOW
+                : Integer.parseInt(optionValue);
+
+        optionValue = options.get(MAX_SSTABLES_PER_WINDOW_KEY);
+        maxSSTablesPerWindow = optionValue == null ? DEFAULT_MAX_SSTABLES_PER_WINDOW
+                : Integer.parseInt(optionValue);
+
+        optionValue = options.get(MAX_LIVE_WINDOWS_KEY);
+        maxLiveWindows = optionValue == null ? DEFAULT_MAX_LIVE_WINDOWS
+                : Integer.parseInt(optionValue);
+
+        optionValue = options.get(ROLLUP_TIERS_KEY);
+        long[][] tiers = parseRollupTiers(
+                optionValue == null ? DEFAULT_ROLLUP_TIERS : optionValue);
+        rollupAgesMillis = tiers[0];
+        rollupWindowsMillis = tiers[1];
+
+        optionValue = options.get(SPLIT_SPANNING_SSTABLES_KEY);
+        splitSpanningSSTables = optionValue == null ? DEFAULT_SPLIT_SPANNING_SSTABLES
+                : Boolean.parseBoolean(optionValue);
+
+        optionValue = options.get(MAJOR_COMPACTION_MIN_SSTABLES_KEY);
+        majorCompactionMinSSTables = optionValue == null
+                ? DEFAULT_MAJOR_COMPACTION_MIN_SSTABLES
+                : Integer.parseInt(optionValue);
+
+        optionValue = options.get(EXPIRY_DEFERRAL_MINUTES_KEY);
+        expiryDeferralMillis = TimeUnit.MINUTES.toMillis(
+                optionValue == null ? DEFAULT_EXPIRY_DEFERRAL_MINUTES
+                        : Long.parseLong(optionValue));
+
+        optionValue = options.get(FAST_LANE_MAX_SSTABLE_SIZE_MB_KEY);
+        fastLaneMaxBytes = (optionValue == null ? DEFAULT_FAST_LANE_MAX_SSTABLE_SIZE_MB
+                : Long.parseLong(optionValue)) * 1024L * 1024L;
+
+        optionValue = options.get(FAST_LANE_MIN_SSTABLES_KEY);
+        fastLaneMinSSTables = optionValue == null ? DEFAULT_FAST_LANE_MIN_SSTABLES
+                : Integer.parseInt(optionValue);
+
         stcsOptions = new SizeTieredCompactionStrategyOptions(options);
     }
 
@@ -71,6 +199,21 @@ public final class TimeWindowCompactionStrategyOptionsHelper {
         sstableWindowSize = DEFAULT_COMPACTION_WINDOW_SIZE;
         expiredSSTableCheckFrequency = TimeUnit.MILLISECONDS.convert(
                 DEFAULT_EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS, TimeUnit.SECONDS);
+        parallelWindowCompactions = DEFAULT_PARALLEL_WINDOW_COMPACTIONS;
+        maxSSTableBytes = Long.MAX_VALUE;
+        windowSelection = DEFAULT_WINDOW_SELECTION;
+        compactionBudgetBytes = Long.MAX_VALUE;
+        adaptiveWindowSizing = DEFAULT_ADAPTIVE_WINDOW_SIZING;
+        minSSTablesPerWindow = DEFAULT_MIN_SSTABLES_PER_WINDOW;
+        maxSSTablesPerWindow = DEFAULT_MAX_SSTABLES_PER_WINDOW;
+        maxLiveWindows = DEFAULT_MAX_LIVE_WINDOWS;
+        rollupAgesMillis = new long[0];
+        rollupWindowsMillis = new long[0];
+        splitSpanningSSTables = DEFAULT_SPLIT_SPANNING_SSTABLES;
+        majorCompactionMinSSTables = DEFAULT_MAJOR_COMPACTION_MIN_SSTABLES;
+        expiryDeferralMillis = TimeUnit.MINUTES.toMillis(DEFAULT_EXPIRY_DEFERRAL_MINUTES);
+        fastLaneMaxBytes = DEFAULT_FAST_LANE_MAX_SSTABLE_SIZE_MB * 1024L * 1024L;
+        fastLaneMinSSTables = DEFAULT_FAST_LANE_MIN_SSTABLES;
         stcsOptions = new SizeTieredCompactionStrategyOptions();
     }
 
@@ -135,14 +278,268 @@ public final class TimeWindowCompactionStrategyOptionsHelper {
                     e);
         }
 
+        optionValue = options.get(PARALLEL_WINDOW_COMPACTIONS_KEY);
+        try {
+            int parallel = optionValue == null ? DEFAULT_PARALLEL_WINDOW_COMPACTIONS
+                    : Integer.parseInt(optionValue);
+            if (parallel < 1) {
+                throw new ConfigurationException(
+                        String.format("%s must be at least 1, but was %d",
+                                PARALLEL_WINDOW_COMPACTIONS_KEY, parallel));
+            }
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    String.format("%s is not a parsable int (base10) for %s",
+                            optionValue, PARALLEL_WINDOW_COMPACTIONS_KEY),
+                    e);
+        }
+
+        optionValue = options.get(MAX_SSTABLE_SIZE_MB_KEY);
+        try {
+            long maxSSTableSizeMB = optionValue == null ? DEFAULT_MAX_SSTABLE_SIZE_MB
+                    : Long.parseLong(optionValue);
+            if (maxSSTableSizeMB < 0) {
+                throw new ConfigurationException(
+                        String.format("%s must not be negative, but was %d",
+                                MAX_SSTABLE_SIZE_MB_KEY, maxSSTableSizeMB));
+            }
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    String.format("%s is not a parsable int (base10) for %s",
+                            optionValue, MAX_SSTABLE_SIZE_MB_KEY),
+                    e);
+        }
+
+        optionValue = options.get(WINDOW_SELECTION_KEY);
+        try {
+            if (optionValue != null)
+                WindowSelection.valueOf(optionValue);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(String.format("%s is not valid for %s",
+                    optionValue, WINDOW_SELECTION_KEY), e);
+        }
+
+        optionValue = options.get(COMPACTION_BUDGET_MB_KEY);
+        try {
+            long compactionBudgetMB = optionValue == null ? DEFAULT_COMPACTION_BUDGET_MB
+                    : Long.parseLong(optionValue);
+            if (compactionBudgetMB < 0) {
+                throw new ConfigurationException(
+                        String.format("%s must not be negative, but was %d",
+                                COMPACTION_BUDGET_MB_KEY, compactionBudgetMB));
+            }
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    String.format("%s is not a parsable int (base10) for %s",
+                            optionValue, COMPACTION_BUDGET_MB_KEY),
+                    e);
+        }
+
+        validateBoolean(options, ADAPTIVE_WINDOW_SIZING_KEY);
+        validateBoolean(options, SPLIT_SPANNING_SSTABLES_KEY);
+
+        int minPerWindow;
+        optionValue = options.get(MIN_SSTABLES_PER_WINDOW_KEY);
+        try {
+            minPerWindow = optionValue == null ? DEFAULT_MIN_SSTABLES_PER_WINDOW
+                    : Integer.parseInt(optionValue);
+            if (minPerWindow < 1) {
+                throw new ConfigurationException(
+                        String.format("%s must be at least 1, but was %d",
+                                MIN_SSTABLES_PER_WINDOW_KEY, minPerWindow));
+            }
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    String.format("%s is not a parsable int (base10) for %s",
+                            optionValue, MIN_SSTABLES_PER_WINDOW_KEY),
+                    e);
+        }
+
+        optionValue = options.get(MAX_SSTABLES_PER_WINDOW_KEY);
+        try {
+            int maxPerWindow = optionValue == null ? DEFAULT_MAX_SSTABLES_PER_WINDOW
+                    : Integer.parseInt(optionValue);
+            if (maxPerWindow < minPerWindow) {
+                throw new ConfigurationException(String.format(
+                        "%s must be at least %s (%d), but was %d",
+                        MAX_SSTABLES_PER_WINDOW_KEY, MIN_SSTABLES_PER_WINDOW_KEY,
+                        minPerWindow, maxPerWindow));
+            }
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    String.format("%s is not a parsable int (base10) for %s",
+                            optionValue, MAX_SSTABLES_PER_WINDOW_KEY),
+                    e);
+        }
+
+        optionValue = options.get(MAX_LIVE_WINDOWS_KEY);
+        try {
+            int maxLiveWindows = optionValue == null ? DEFAULT_MAX_LIVE_WINDOWS
+                    : Integer.parseInt(optionValue);
+            if (maxLiveWindows < 0) {
+                throw new ConfigurationException(
+                        String.format("%s must not be negative, but was %d",
+                                MAX_LIVE_WINDOWS_KEY, maxLiveWindows));
+            }
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    String.format("%s is not a parsable int (base10) for %s",
+                            optionValue, MAX_LIVE_WINDOWS_KEY),
+                    e);
+        }
+
+        optionValue = options.get(ROLLUP_TIERS_KEY);
+        try {
+            long[] rollupWindows = optionValue == null ? new long[0]
+                    : parseRollupTiers(optionValue)[1];
+            // every tier window is a multiple of the first one
+            if (rollupWindows.length > 0 && rollupWindows[0] % windowMillis(options) != 0)
+                throw new ConfigurationException(String.format(
+                        "%s is not valid for %s: windows must be whole multiples of %s %s",
+                        optionValue, ROLLUP_TIERS_KEY,
+                        options.getOrDefault(COMPACTION_WINDOW_SIZE_KEY,
+                                String.valueOf(DEFAULT_COMPACTION_WINDOW_SIZE)),
+                        options.getOrDefault(COMPACTION_WINDOW_UNIT_KEY,
+                                DEFAULT_COMPACTION_WINDOW_UNIT.name())));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(String.format("%s is not valid for %s: %s",
+                    optionValue, ROLLUP_TIERS_KEY, e.getMessage()), e);
+        }
+
+        optionValue = options.get(MAJOR_COMPACTION_MIN_SSTABLES_KEY);
+        try {
+            int majorMin = optionValue == null ? DEFAULT_MAJOR_COMPACTION_MIN_SSTABLES
+                    : Integer.parseInt(optionValue);
+            if (majorMin < 1) {
+                throw new ConfigurationException(
+                        String.format("%s must be at least 1, but was %d",
+                                MAJOR_COMPACTION_MIN_SSTABLES_KEY, majorMin));
+            }
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    String.format("%s is not a parsable int (base10) for %s",
+                            optionValue, MAJOR_COMPACTION_MIN_SSTABLES_KEY),
+                    e);
+        }
+
+        optionValue = options.get(EXPIRY_DEFERRAL_MINUTES_KEY);
+        try {
+            long deferral = optionValue == null ? DEFAULT_EXPIRY_DEFERRAL_MINUTES
+                    : Long.parseLong(optionValue);
+            if (deferral < 0) {
+                throw new ConfigurationException(
+                        String.format("%s must not be negative, but was %d",
+                                EXPIRY_DEFERRAL_MINUTES_KEY, deferral));
+            }
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    String.format("%s is not a parsable int (base10) for %s",
+                            optionValue, EXPIRY_DEFERRAL_MINUTES_KEY),
+                    e);
+        }
+
+        optionValue = options.get(FAST_LANE_MAX_SSTABLE_SIZE_MB_KEY);
+        try {
+            long fastLaneMB = optionValue == null ? DEFAULT_FAST_LANE_MAX_SSTABLE_SIZE_MB
+                    : Long.parseLong(optionValue);
+            if (fastLaneMB < 0) {
+                throw new ConfigurationException(
+                        String.format("%s must not be negative, but was %d",
+                                FAST_LANE_MAX_SSTABLE_SIZE_MB_KEY, fastLaneMB));
+            }
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    String.format("%s is not a parsable int (base10) for %s",
+                            optionValue, FAST_LANE_MAX_SSTABLE_SIZE_MB_KEY),
+                    e);
+        }
+
+        optionValue = options.get(FAST_LANE_MIN_SSTABLES_KEY);
+        try {
+            int fastLaneMin = optionValue == null ? DEFAULT_FAST_LANE_MIN_SSTABLES
+                    : Integer.parseInt(optionValue);
+            if (fastLaneMin < 2) {
+                throw new ConfigurationException(
+                        String.format("%s must be at least 2, but was %d",
+                                FAST_LANE_MIN_SSTABLES_KEY, fastLaneMin));
+            }
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    String.format("%s is not a parsable int (base10) for %s",
+                            optionValue, FAST_LANE_MIN_SSTABLES_KEY),
+                    e);
+        }
+
         uncheckedOptions.remove(COMPACTION_WINDOW_SIZE_KEY);
         uncheckedOptions.remove(COMPACTION_WINDOW_UNIT_KEY);
         uncheckedOptions.remove(TIMESTAMP_RESOLUTION_KEY);
         uncheckedOptions.remove(EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY);
+        uncheckedOptions.remove(PARALLEL_WINDOW_COMPACTIONS_KEY);
+        uncheckedOptions.remove(MAX_SSTABLE_SIZE_MB_KEY);
+        uncheckedOptions.remove(WINDOW_SELECTION_KEY);
+        uncheckedOptions.remove(COMPACTION_BUDGET_MB_KEY);
+        uncheckedOptions.remove(ADAPTIVE_WINDOW_SIZING_KEY);
+        uncheckedOptions.remove(MIN_SSTABLES_PER_WINDOW_KEY);
+        uncheckedOptions.remove(MAX_SSTABLES_PER_WINDOW_KEY);
+        uncheckedOptions.remove(MAX_LIVE_WINDOWS_KEY);
+        uncheckedOptions.remove(ROLLUP_TIERS_KEY);
+        uncheckedOptions.remove(SPLIT_SPANNING_SSTABLES_KEY);
+        uncheckedOptions.remove(MAJOR_COMPACTION_MIN_SSTABLES_KEY);
+        uncheckedOptions.remove(EXPIRY_DEFERRAL_MINUTES_KEY);
+        uncheckedOptions.remove(FAST_LANE_MAX_SSTABLE_SIZE_MB_KEY);
+        uncheckedOptions.remove(FAST_LANE_MIN_SSTABLES_KEY);
 
         uncheckedOptions = SizeTieredCompactionStrategyOptions.validateOptions(options,
                 uncheckedOptions);
 
         return uncheckedOptions;
     }
+
+    private static void validateBoolean(Map<String, String> options, String key)
+            throws ConfigurationException {
+        String optionValue = options.get(key);
+        if (optionValue != null && !optionValue.equalsIgnoreCase("true")
+                && !optionValue.equalsIgnoreCase("false"))
+            throw new ConfigurationException(
+                    String.format("%s is not valid for %s", optionValue, key));
+    }
+
+    // compaction_window_unit/size in millis, both already validated
+    private static long windowMillis(Map<String, String> options) {
+        String unit = options.get(COMPACTION_WINDOW_UNIT_KEY);
+        String size = options.get(COMPACTION_WINDOW_SIZE_KEY);
+        return TimeWindowCompactionStrategyHelper.windowSizeInMillis(
+                unit == null ? DEFAULT_COMPACTION_WINDOW_UNIT : TimeUnit.valueOf(unit),
+                size == null ? DEFAULT_COMPACTION_WINDOW_SIZE : Integer.parseInt(size));
+    }
+
+    /**
+     * Parses age_minutes:window_minutes pairs separated by commas, for
+     * example 1440:1440,10080:10080 rolls windows up into days after a day
+     * and into weeks after a week. Ages and windows must both increase and
+     * every window must be a multiple of the previous one.
+     *
+     * @return the ages and the windows in millis
+     */
+    static long[][] parseRollupTiers(String value) {
+        String[] pairs = value.trim().isEmpty() ? new String[0] : value.split(",");
+        long[] ages = new long[pairs.length];
+        long[] windows = new long[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] pair = pairs[i].trim().split(":");
+            if (pair.length != 2)
+                throw new IllegalArgumentException(
+                        "expected age_minutes:window_minutes, got " + pairs[i]);
+            ages[i] = TimeUnit.MINUTES.toMillis(Long.parseLong(pair[0].trim()));
+            windows[i] = TimeUnit.MINUTES.toMillis(Long.parseLong(pair[1].trim()));
+            if (ages[i] < 0 || windows[i] < TimeUnit.MINUTES.toMillis(1))
+                throw new IllegalArgumentException("negative age or empty window in "
+                        + pairs[i]);
+            if (i > 0 && (ages[i] <= ages[i - 1] || windows[i] <= windows[i - 1]
+                    || windows[i] % windows[i - 1] != 0))
+                throw new IllegalArgumentException(pairs[i]
+                        + " must have a larger age and a multiple of the previous window");
+        }
+        return new long[][] { ages, windows };
+    }
 }
@@ -0,0 +1,121 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.db.compaction.writers.CompactionAwareWriter;
+import org.apache.cassandra.db.compaction.writers.DefaultCompactionWriter;
+import org.apache.cassandra.db.compaction.writers.MaxSSTableSizeWriter;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+
+/**
+ * Compaction that splits its output into sstables of at most maxSSTableBytes.
+ * Background selections hand it one window, so every output stays in that
+ * window, and later drops, streaming and re-compactions of the window work
+ * on small units instead of one ever growing file.
+ *
+ * Given a window index, inputs spanning several windows are also split by
+ * window, see TimeWindowSplittingWriter. Given a purge, each partition is
+ * passed through it once merged, before it is written.
+ */
+public class TimeWindowCompactionTask extends CompactionTask {
+    private final long maxSSTableBytes;
+    private final TimeWindowIndex splitBy;
+    private final Purge purge;
+    private CompactionController controller;
+
+    /**
+     * Leaves data out of the merged partitions of a compaction.
+     */
+    public interface Purge {
+        /**
+         * @param maxPurgeableTimestamp
+         *            the limit tombstone purging uses for the partition: data
+         *            written before it is in no sstable outside of the
+         *            compaction nor in a memtable
+         */
+        UnfilteredRowIterator apply(UnfilteredRowIterator partition,
+                LongSupplier maxPurgeableTimestamp);
+    }
+
+    public TimeWindowCompactionTask(ColumnFamilyStore cfs, LifecycleTransaction txn,
+            int gcBefore, long maxSSTableBytes) {
+        this(cfs, txn, gcBefore, maxSSTableBytes, null, null);
+    }
+
+    /**
+     * @param splitBy
+     *            windows to split the output by, null to only split by size
+     * @param purge
+     *            applied to the merged partitions, null for none
+     */
+    public TimeWindowCompactionTask(ColumnFamilyStore cfs, LifecycleTransaction txn,
+            int gcBefore, long maxSSTableBytes, TimeWindowIndex splitBy, Purge purge) {
+        super(cfs, txn, gcBefore);
+        this.maxSSTableBytes = maxSSTableBytes;
+        this.splitBy = splitBy;
+        this.purge = purge;
+    }
+
+    @Override
+    protected CompactionController getCompactionController(Set<SSTableReader> toCompact) {
+        // created before the writer, for the purge
+        controller = super.getCompactionController(toCompact);
+        return controller;
+    }
+
+    @Override
+    public CompactionAwareWriter getCompactionAwareWriter(ColumnFamilyStore cfs,
+            Directories directories, LifecycleTransaction txn,
+            Set<SSTableReader> nonExpiredSSTables) {
+        if (purge != null)
+            return purgingWriter(cfs, directories, txn, nonExpiredSSTables);
+        if (splitBy != null)
+            return new TimeWindowSplittingWriter(cfs, directories, txn,
+                    nonExpiredSSTables, offline, keepOriginals, splitBy, maxSSTableBytes);
+        if (maxSSTableBytes == Long.MAX_VALUE)
+            return new DefaultCompactionWriter(cfs, directories, txn, nonExpiredSSTables,
+                    offline, keepOriginals);
+        return new MaxSSTableSizeWriter(cfs, directories, txn, nonExpiredSSTables,
+                maxSSTableBytes, 0, offline, keepOriginals);
+    }
+
+    // append is final, the writers are extended to purge in realAppend
+    private CompactionAwareWriter purgingWriter(ColumnFamilyStore cfs,
+            Directories directories, LifecycleTransaction txn,
+            Set<SSTableReader> nonExpiredSSTables) {
+        if (splitBy != null)
+            return new TimeWindowSplittingWriter(cfs, directories, txn,
+                    nonExpiredSSTables, offline, keepOriginals, splitBy, maxSSTableBytes) {
+                @Override
+                protected boolean realAppend(UnfilteredRowIterator partition) {
+                    return super.realAppend(purged(partition));
+                }
+            };
+        if (maxSSTableBytes == Long.MAX_VALUE)
+            return new DefaultCompactionWriter(cfs, directories, txn, nonExpiredSSTables,
+                    offline, keepOriginals) {
+                @Override
+                public boolean realAppend(UnfilteredRowIterator partition) {
+                    return super.realAppend(purged(partition));
+                }
+            };
+        return new MaxSSTableSizeWriter(cfs, directories, txn, nonExpiredSSTables,
+                maxSSTableBytes, 0, offline, keepOriginals) {
+            @Override
+            public boolean realAppend(UnfilteredRowIterator partition) {
+                return super.realAppend(purged(partition));
+            }
+        };
+    }
+
+    private UnfilteredRowIterator purged(UnfilteredRowIterator partition) {
+        DecoratedKey key = partition.partitionKey();
+        return purge.apply(partition, () -> controller.maxPurgeableTimestamp(key));
+    }
+}
@@ -0,0 +1,292 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * Immutable sorted index of time windows to the sstables whose max timestamp
+ * falls into them. Changes produce a new index which only rebuilds the
+ * touched windows, so the strategy can publish it copy-on-write and selection
+ * can read it without locking.
+ *
+ * Windows are a sorted long[] of lower bounds with the buckets in a parallel
+ * array, lookups are a binary search on primitives and do not allocate.
+ */
+public class TimeWindowIndex {
+
+    private static final long[] NO_KEYS = new long[0];
+
+    private final WindowLayout layout;
+    private final TimeUnit timestampResolution;
+
+    // never modified once the index is constructed
+    private final long[] keys;
+    private final ImmutableSet<SSTableReader>[] buckets;
+    private final int size;
+    // number of windows holding at least 2 sstables, and their bytes on disk
+    private final int multiTableWindows;
+    private final long multiTableBytes;
+
+    public TimeWindowIndex(TimeUnit windowUnit, int windowSize,
+            TimeUnit timestampResolution) {
+        this(new WindowLayout(windowUnit, windowSize), timestampResolution, NO_KEYS,
+                newBuckets(0), 0, 0, 0);
+    }
+
+    private TimeWindowIndex(WindowLayout layout, TimeUnit timestampResolution,
+            long[] keys, ImmutableSet<SSTableReader>[] buckets, int size,
+            int multiTableWindows, long multiTableBytes) {
+        this.layout = layout;
+        this.timestampResolution = timestampResolution;
+        this.keys = keys;
+        this.buckets = buckets;
+        this.size = size;
+        this.multiTableWindows = multiTableWindows;
+        this.multiTableBytes = multiTableBytes;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static ImmutableSet<SSTableReader>[] newBuckets(int n) {
+        return new ImmutableSet[n];
+    }
+
+    /**
+     * @return lower bound in millis of the window the sstable belongs to
+     */
+    public long windowFor(SSTableReader sstable) {
+        return windowForTimestamp(sstable.getMaxTimestamp());
+    }
+
+    /**
+     * @param timestamp
+     *            in timestamp_resolution, as written in cells
+     * @return lower bound in millis of the window the timestamp belongs to
+     */
+    public long windowForTimestamp(long timestamp) {
+        return layout.lowerBound(TimeUnit.MILLISECONDS.convert(timestamp,
+                timestampResolution));
+    }
+
+    public WindowLayout layout() {
+        return layout;
+    }
+
+    /**
+     * Layouts only change from a window boundary past every indexed window on,
+     * so the buckets are kept as they are unless sstables with timestamps in
+     * the future were already indexed there.
+     *
+     * @return this index under another layout
+     */
+    public TimeWindowIndex withLayout(WindowLayout next) {
+        if (next == layout)
+            return this;
+        if (getHighestWindow() < next.lastStart())
+            return new TimeWindowIndex(next, timestampResolution, keys, buckets, size,
+                    multiTableWindows, multiTableBytes);
+        return new TimeWindowIndex(next, timestampResolution, NO_KEYS, newBuckets(0), 0, 0,
+                0)
+                .replace(Collections.<SSTableReader>emptySet(), Lists.newArrayList(all()));
+    }
+
+    public TimeWindowIndex with(SSTableReader sstable) {
+        return replace(Collections.<SSTableReader>emptySet(),
+                Collections.singleton(sstable));
+    }
+
+    public TimeWindowIndex without(SSTableReader sstable) {
+        return replace(Collections.singleton(sstable),
+                Collections.<SSTableReader>emptySet());
+    }
+
+    /**
+     * Changes are grouped by window first, so every touched bucket is rebuilt
+     * once however many of its sstables change.
+     *
+     * @return a new index with removed taken out and added put in, or this
+     *         index if nothing changes
+     */
+    public TimeWindowIndex replace(Collection<SSTableReader> removed,
+            Collection<SSTableReader> added) {
+        Map<Long, Set<SSTableReader>> removedByWindow = byWindow(removed);
+        Map<Long, Set<SSTableReader>> addedByWindow = byWindow(added);
+        if (removedByWindow.isEmpty() && addedByWindow.isEmpty())
+            return this;
+
+        Map<Long, ImmutableSet<SSTableReader>> changed = new HashMap<>();
+        int nextSize = size;
+        int nextMulti = multiTableWindows;
+        long nextMultiBytes = multiTableBytes;
+        for (Long window : Iterables.concat(removedByWindow.keySet(),
+                addedByWindow.keySet())) {
+            if (changed.containsKey(window))
+                continue;
+            Set<SSTableReader> bucket = get(window);
+            Set<SSTableReader> gone = removedByWindow.get(window);
+            Set<SSTableReader> fresh = addedByWindow.get(window);
+            ImmutableSet.Builder<SSTableReader> builder = ImmutableSet.builder();
+            for (SSTableReader member : bucket)
+                if (gone == null || !gone.contains(member))
+                    builder.add(member);
+            if (fresh != null)
+                builder.addAll(fresh);
+            ImmutableSet<SSTableReader> next = builder.build();
+            if (next.equals(bucket))
+                continue;
+            changed.put(window, next);
+            nextSize += next.size() - bucket.size();
+            nextMulti += (next.size() >= 2 ? 1 : 0) - (bucket.size() >= 2 ? 1 : 0);
+            nextMultiBytes += (next.size() >= 2 ? bytesOf(next) : 0)
+                    - (bucket.size() >= 2 ? bytesOf(bucket) : 0);
+        }
+
+        if (changed.isEmpty())
+            return this;
+
+        // merge the sorted keys with the touched windows, dropping empty ones
+        long[] touched = new long[changed.size()];
+        int t = 0;
+        for (Long window : changed.keySet())
+            touched[t++] = window;
+        Arrays.sort(touched);
+        long[] nextKeys = new long[keys.length + touched.length];
+        ImmutableSet<SSTableReader>[] nextBuckets = newBuckets(nextKeys.length);
+        int out = 0;
+        int i = 0;
+        t = 0;
+        while (i < keys.length || t < touched.length) {
+            long window;
+            ImmutableSet<SSTableReader> bucket;
+            if (t == touched.length || (i < keys.length && keys[i] < touched[t])) {
+                window = keys[i];
+                bucket = buckets[i++];
+            } else {
+                window = touched[t++];
+                bucket = changed.get(window);
+                if (i < keys.length && keys[i] == window)
+                    i++;
+            }
+            if (bucket.isEmpty())
+                continue;
+            nextKeys[out] = window;
+            nextBuckets[out++] = bucket;
+        }
+        if (out < nextKeys.length) {
+            nextKeys = Arrays.copyOf(nextKeys, out);
+            nextBuckets = Arrays.copyOf(nextBuckets, out);
+        }
+        return new TimeWindowIndex(layout, timestampResolution, nextKeys, nextBuckets,
+                nextSize, nextMulti, nextMultiBytes);
+    }
+
+    private static long bytesOf(Set<SSTableReader> bucket) {
+        long bytes = 0;
+        for (SSTableReader sstable : bucket)
+            bytes += sstable.onDiskLength();
+        return bytes;
+    }
+
+    private Map<Long, Set<SSTableReader>> byWindow(Collection<SSTableReader> sstables) {
+        if (sstables.isEmpty())
+            return Collections.emptyMap();
+        Map<Long, Set<SSTableReader>> grouped = new HashMap<>();
+        for (SSTableReader sstable : sstables)
+            grouped.computeIfAbsent(windowFor(sstable), window -> new HashSet<>())
+                    .add(sstable);
+        return grouped;
+    }
+
+    public boolean contains(SSTableReader sstable) {
+        int i = Arrays.binarySearch(keys, windowFor(sstable));
+        return i >= 0 && buckets[i].contains(sstable);
+    }
+
+    /**
+     * @return every sstable in the index
+     */
+    public Iterable<SSTableReader> all() {
+        return Iterables.concat(Arrays.asList(buckets));
+    }
+
+    public Set<SSTableReader> get(long window) {
+        int i = Arrays.binarySearch(keys, window);
+        return i < 0 ? ImmutableSet.<SSTableReader>of() : buckets[i];
+    }
+
+    /**
+     * @return lower bound of the i-th window, oldest first
+     */
+    public long windowAt(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @return sstables of the i-th window, oldest first
+     */
+    public Set<SSTableReader> bucketAt(int i) {
+        return buckets[i];
+    }
+
+    /**
+     * @return lower bound of the newest window, 0 if empty
+     */
+    public long getHighestWindow() {
+        return keys.length == 0 ? 0 : keys[keys.length - 1];
+    }
+
+    public int windowCount() {
+        return keys.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Same rule as newestBucket: the current window needs minThreshold
+     * sstables, any older window needs 2.
+     *
+     * @return number of windows that qualify for compaction
+     */
+    public int estimateTasks(long now, int minThreshold) {
+        int n = multiTableWindows;
+        int count = get(now).size();
+        if (count >= 2)
+            n--;
+        if (count > 0 && count >= minThreshold)
+            n++;
+        return n;
+    }
+
+    /**
+     * Bytes on disk of the windows estimateTasks counts, kept up to date on
+     * every change so reading it only walks the current window.
+     *
+     * @return bytes the qualifying windows would rewrite
+     */
+    public long estimatePendingBytes(long now, int minThreshold) {
+        long bytes = multiTableBytes;
+        Set<SSTableReader> current = get(now);
+        int count = current.size();
+        if (count >= 2 || (count > 0 && count >= minThreshold)) {
+            long currentBytes = bytesOf(current);
+            if (count >= 2)
+                bytes -= currentBytes;
+            if (count >= minThreshold)
+                bytes += currentBytes;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,414 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.SerializationHeader;
+import org.apache.cassandra.db.compaction.writers.CompactionAwareWriter;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.db.rows.AbstractUnfilteredRowIterator;
+import org.apache.cassandra.db.rows.BTreeRow;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.ColumnData;
+import org.apache.cassandra.db.rows.ComplexColumnData;
+import org.apache.cassandra.db.rows.RangeTombstoneBoundMarker;
+import org.apache.cassandra.db.rows.RangeTombstoneBoundaryMarker;
+import org.apache.cassandra.db.rows.RangeTombstoneMarker;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.Rows;
+import org.apache.cassandra.db.rows.Unfiltered;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.transform.Transformation;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.format.SSTableWriter;
+import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Writes every cell into an output sstable of the time window its timestamp
+ * falls into, so sstables spanning windows (repair streaming, hints, out of
+ * order writes) are separated in one pass and each piece expires with its
+ * window. Row and partition deletions go by their timestamp, range tombstones
+ * too, a boundary between two windows is cut into a close and an open marker.
+ * Once an output reaches maxSSTableBytes, the next partition of its window
+ * goes to a new one.
+ *
+ * Rows of the window the inputs belong to, the newest they touch, are
+ * streamed into its output. Those of older windows are held until the end of
+ * their partition, then written to the outputs of their windows, so only the
+ * out of window part of a partition is kept in memory. The outputs are not
+ * opened early: they all cover the same token range, moving the starts of the
+ * originals to one of them would hide the others from reads.
+ */
+public class TimeWindowSplittingWriter extends CompactionAwareWriter {
+    private final TimeWindowIndex index;
+    private final long maxSSTableBytes;
+    private final long homeWindow;
+    // output being filled per window, removed once full
+    private final Map<Long, SSTableWriter> current = new HashMap<>();
+    private final List<SSTableWriter> writers = new ArrayList<>();
+    private final List<SSTableReader> finished = new ArrayList<>();
+    private Directories.DataDirectory location;
+
+    public TimeWindowSplittingWriter(ColumnFamilyStore cfs, Directories directories,
+            LifecycleTransaction txn, Set<SSTableReader> nonExpiredSSTables,
+            boolean offline, boolean keepOriginals, TimeWindowIndex index,
+            long maxSSTableBytes) {
+        super(cfs, directories, txn, nonExpiredSSTables, offline, keepOriginals);
+        this.index = index;
+        this.maxSSTableBytes = maxSSTableBytes;
+        long home = Long.MIN_VALUE;
+        for (SSTableReader sstable : nonExpiredSSTables)
+            home = Math.max(home, index.windowFor(sstable));
+        this.homeWindow = home;
+    }
+
+    @Override
+    protected boolean realAppend(UnfilteredRowIterator partition) {
+        WindowSplit split = new WindowSplit(index, homeWindow, partition);
+        // the held pieces are complete once the streamed one is written
+        boolean written = append(homeWindow, split.streamed());
+        for (Map.Entry<Long, UnfilteredRowIterator> piece : split.held().entrySet())
+            written |= append(piece.getKey(), piece.getValue());
+        return written;
+    }
+
+    private boolean append(long window, UnfilteredRowIterator piece) {
+        if (piece.isEmpty())
+            return false;
+        SSTableWriter writer = writerFor(window);
+        boolean written = writer.append(piece) != null;
+        if (writer.getOnDiskFilePointer() >= maxSSTableBytes)
+            current.remove(window);
+        return written;
+    }
+
+    @Override
+    protected void switchCompactionLocation(Directories.DataDirectory location) {
+        this.location = location;
+    }
+
+    @SuppressWarnings("resource") // closed by doCommit or doAbort
+    private SSTableWriter writerFor(long window) {
+        SSTableWriter writer = current.get(window);
+        if (writer == null) {
+            writer = SSTableWriter.create(
+                    Descriptor.fromFilename(cfs.getSSTablePath(
+                            getDirectories().getLocationForDisk(location))),
+                    estimatedKeys(window), minRepairedAt, cfs.metadata,
+                    new MetadataCollector(txn.originals(), cfs.metadata.comparator, 0),
+                    SerializationHeader.make(cfs.metadata, nonExpiredSSTables), txn);
+            writer.setMaxDataAge(maxAge);
+            current.put(window, writer);
+            writers.add(writer);
+        }
+        return writer;
+    }
+
+    // inputs are assumed to spread their keys evenly over the windows they span
+    private long estimatedKeys(long window) {
+        WindowLayout layout = index.layout();
+        long keys = 0;
+        for (SSTableReader sstable : nonExpiredSSTables) {
+            long first = index.windowForTimestamp(sstable.getMinTimestamp());
+            long last = index.windowForTimestamp(sstable.getMaxTimestamp());
+            if (window < first || window > last)
+                continue;
+            keys += sstable.estimatedKeys() / ((last - first) / layout.sizeAt(window) + 1);
+        }
+        return Math.max(1, Math.min(keys, estimatedTotalKeys));
+    }
+
+    /**
+     * Cuts a partition by window while it is read: what belongs to one window
+     * passes through, the rest is held per window.
+     */
+    @VisibleForTesting
+    static class WindowSplit extends Transformation<UnfilteredRowIterator> {
+        private final TimeWindowIndex index;
+        private final long window;
+        private final UnfilteredRowIterator partition;
+        private final Map<Long, Piece> held = new TreeMap<>();
+        private final Set<Long> windows = new TreeSet<>();
+
+        WindowSplit(TimeWindowIndex index, long window, UnfilteredRowIterator partition) {
+            this.index = index;
+            this.window = window;
+            this.partition = partition;
+        }
+
+        /**
+         * @return the piece of the given window, to be consumed before the
+         *         held ones are read
+         */
+        UnfilteredRowIterator streamed() {
+            return Transformation.apply(partition, this);
+        }
+
+        /**
+         * @return the pieces of the other windows, oldest first
+         */
+        Map<Long, UnfilteredRowIterator> held() {
+            Map<Long, UnfilteredRowIterator> pieces = new TreeMap<>();
+            for (Map.Entry<Long, Piece> piece : held.entrySet())
+                pieces.put(piece.getKey(), piece.getValue().iterator(partition));
+            return pieces;
+        }
+
+        private Piece hold(long window) {
+            Piece piece = held.get(window);
+            if (piece == null) {
+                piece = new Piece();
+                held.put(window, piece);
+            }
+            return piece;
+        }
+
+        @Override
+        protected DeletionTime applyToDeletion(DeletionTime deletion) {
+            if (deletion.isLive())
+                return deletion;
+            long of = index.windowForTimestamp(deletion.markedForDeleteAt());
+            if (of == window)
+                return deletion;
+            hold(of).deletion = deletion;
+            return DeletionTime.LIVE;
+        }
+
+        @Override
+        protected Row applyToStatic(Row row) {
+            if (row.isEmpty())
+                return row;
+            windows.clear();
+            addWindows(index, windows, row);
+            Row kept = Rows.EMPTY_STATIC_ROW;
+            for (Long of : windows) {
+                Row piece = windows.size() == 1 ? row : filter(index, of, row);
+                if (of == window)
+                    kept = piece;
+                else
+                    hold(of).staticRow = piece;
+            }
+            return kept;
+        }
+
+        @Override
+        protected Row applyToRow(Row row) {
+            windows.clear();
+            addWindows(index, windows, row);
+            Row kept = null;
+            for (Long of : windows) {
+                Row piece = windows.size() == 1 ? row : filter(index, of, row);
+                if (of == window)
+                    kept = piece;
+                else
+                    hold(of).contents.add(piece);
+            }
+            return kept;
+        }
+
+        @Override
+        protected RangeTombstoneMarker applyToMarker(RangeTombstoneMarker marker) {
+            windows.clear();
+            addWindows(index, windows, marker);
+            RangeTombstoneMarker kept = null;
+            for (Long of : windows) {
+                RangeTombstoneMarker piece = windows.size() == 1 ? marker
+                        : filter(index, of, marker);
+                if (of == window)
+                    kept = piece;
+                else
+                    hold(of).contents.add(piece);
+            }
+            return kept;
+        }
+    }
+
+    /**
+     * What a partition wrote in one window, in clustering order.
+     */
+    private static class Piece {
+        DeletionTime deletion = DeletionTime.LIVE;
+        Row staticRow = Rows.EMPTY_STATIC_ROW;
+        final List<Unfiltered> contents = new ArrayList<>();
+
+        UnfilteredRowIterator iterator(UnfilteredRowIterator partition) {
+            final Iterator<Unfiltered> iter = contents.iterator();
+            return new AbstractUnfilteredRowIterator(partition.metadata(),
+                    partition.partitionKey(), deletion, partition.columns(), staticRow,
+                    partition.isReverseOrder(), partition.stats()) {
+                @Override
+                protected Unfiltered computeNext() {
+                    return iter.hasNext() ? iter.next() : endOfData();
+                }
+            };
+        }
+    }
+
+    private static void addWindows(TimeWindowIndex index, Set<Long> windows,
+            RangeTombstoneMarker marker) {
+        if (marker.isBoundary()) {
+            RangeTombstoneBoundaryMarker boundary = (RangeTombstoneBoundaryMarker) marker;
+            addWindow(index, windows, boundary.endDeletionTime());
+            addWindow(index, windows, boundary.startDeletionTime());
+        } else {
+            addWindow(index, windows, ((RangeTombstoneBoundMarker) marker).deletionTime());
+        }
+    }
+
+    private static void addWindows(TimeWindowIndex index, Set<Long> windows, Row row) {
+        LivenessInfo info = row.primaryKeyLivenessInfo();
+        if (!info.isEmpty())
+            windows.add(index.windowForTimestamp(info.timestamp()));
+        addWindow(index, windows, row.deletion().time());
+        for (ColumnData data : row) {
+            if (data.column().isSimple()) {
+                windows.add(index.windowForTimestamp(((Cell) data).timestamp()));
+            } else {
+                ComplexColumnData complex = (ComplexColumnData) data;
+                addWindow(index, windows, complex.complexDeletion());
+                for (Cell cell : complex)
+                    windows.add(index.windowForTimestamp(cell.timestamp()));
+            }
+        }
+    }
+
+    private static void addWindow(TimeWindowIndex index, Set<Long> windows,
+            DeletionTime deletion) {
+        if (!deletion.isLive())
+            windows.add(index.windowForTimestamp(deletion.markedForDeleteAt()));
+    }
+
+    /**
+     * @return the part of a boundary closing or opening in the window
+     */
+    private static RangeTombstoneMarker filter(TimeWindowIndex index, long window,
+            RangeTombstoneMarker marker) {
+        if (!marker.isBoundary())
+            return in(index, window, ((RangeTombstoneBoundMarker) marker).deletionTime())
+                    ? marker : null;
+        RangeTombstoneBoundaryMarker boundary = (RangeTombstoneBoundaryMarker) marker;
+        boolean close = in(index, window, boundary.endDeletionTime());
+        boolean open = in(index, window, boundary.startDeletionTime());
+        if (close && open)
+            return marker;
+        if (close)
+            return boundary.createCorrespondingCloseMarker(false);
+        if (open)
+            return boundary.createCorrespondingOpenMarker(false);
+        return null;
+    }
+
+    /**
+     * @return what the row wrote in the window, null if nothing
+     */
+    private static Row filter(TimeWindowIndex index, long window, Row row) {
+        Row.Builder builder = BTreeRow.sortedBuilder();
+        builder.newRow(row.clustering());
+        boolean empty = true;
+        boolean whole = true;
+        LivenessInfo info = row.primaryKeyLivenessInfo();
+        if (!info.isEmpty()) {
+            if (in(index, window, info.timestamp())) {
+                builder.addPrimaryKeyLivenessInfo(info);
+                empty = false;
+            } else {
+                whole = false;
+            }
+        }
+        if (!row.deletion().isLive()) {
+            if (in(index, window, row.deletion().time())) {
+                builder.addRowDeletion(row.deletion());
+                empty = false;
+            } else {
+                whole = false;
+            }
+        }
+        for (ColumnData data : row) {
+            if (data.column().isSimple()) {
+                if (in(index, window, ((Cell) data).timestamp())) {
+                    builder.addCell((Cell) data);
+                    empty = false;
+                } else {
+                    whole = false;
+                }
+                continue;
+            }
+            ComplexColumnData complex = (ComplexColumnData) data;
+            if (!complex.complexDeletion().isLive()) {
+                if (in(index, window, complex.complexDeletion())) {
+                    builder.addComplexDeletion(complex.column(),
+                            complex.complexDeletion());
+                    empty = false;
+                } else {
+                    whole = false;
+                }
+            }
+            for (Cell cell : complex) {
+                if (in(index, window, cell.timestamp())) {
+                    builder.addCell(cell);
+                    empty = false;
+                } else {
+                    whole = false;
+                }
+            }
+        }
+        if (empty)
+            return null;
+        return whole ? row : builder.build();
+    }
+
+    private static boolean in(TimeWindowIndex index, long window, long timestamp) {
+        return index.windowForTimestamp(timestamp) == window;
+    }
+
+    private static boolean in(TimeWindowIndex index, long window, DeletionTime deletion) {
+        return !deletion.isLive() && in(index, window, deletion.markedForDeleteAt());
+    }
+
+    @Override
+    protected void doPrepare() {
+        for (SSTableWriter writer : writers) {
+            writer.setRepairedAt(minRepairedAt).setOpenResult(true).prepareToCommit();
+            SSTableReader reader = writer.finished();
+            txn.update(reader, false);
+            finished.add(reader);
+        }
+        // checkpoints, obsoletes the originals and prepares the transaction,
+        // its rewriter holds no writer of its own
+        super.doPrepare();
+    }
+
+    @Override
+    protected Throwable doCommit(Throwable accumulate) {
+        for (SSTableWriter writer : writers)
+            accumulate = writer.commit(accumulate);
+        return super.doCommit(accumulate);
+    }
+
+    @Override
+    protected Throwable doAbort(Throwable accumulate) {
+        for (SSTableWriter writer : writers)
+            accumulate = writer.abort(accumulate);
+        return super.doAbort(accumulate);
+    }
+
+    @Override
+    public Collection<SSTableReader> finish() {
+        super.finish();
+        return finished;
+    }
+}
@@ -0,0 +1,241 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+
+/**
+ * Droppable tombstone estimates for single-sstable tombstone compactions and
+ * window scores, cached per sstable. An estimate only moves by an interpolation step until
+ * gcBefore passes the next point of the tombstone histogram, and the overlap
+ * check only changes when an overlapping sstable comes or goes, so it is kept
+ * until one of those happens instead of being recomputed on every poll.
+ *
+ * Estimates are read without locking, an estimate computed concurrently
+ * with an invalidation is used once but not cached. The cached sstables are
+ * also sorted by max timestamp, so a change only visits the estimates it can
+ * make stale: those with data at or newer than the oldest changed cell. In
+ * a time series that is the few newest sstables, not all of them. The total
+ * of the cached droppable bytes is kept as they are cached and forgotten.
+ */
+public class TombstoneEstimates {
+
+    /**
+     * The full check, overlap included, run when the cached estimate is stale.
+     */
+    public interface Check {
+        boolean worthDropping(SSTableReader sstable, int gcBefore);
+    }
+
+    private static final class Estimate {
+        final long creationMillis;
+        // points of the tombstone drop time histogram, sorted
+        final double[] points;
+        // points at or before gcBefore when computed, -1 once invalidated
+        final int position;
+        // tombstone_compaction_interval had passed when computed
+        final boolean old;
+        // expected to be reclaimed by a tombstone compaction, 0 if not worth it
+        final long droppableBytes;
+
+        Estimate(long creationMillis, double[] points, int position, boolean old,
+                long droppableBytes) {
+            this.creationMillis = creationMillis;
+            this.points = points;
+            this.position = position;
+            this.old = old;
+            this.droppableBytes = droppableBytes;
+        }
+
+        Estimate stale() {
+            return new Estimate(creationMillis, points, -1, old, droppableBytes);
+        }
+    }
+
+    private static final class Ratio {
+        final double[] points;
+        final int position;
+        final double ratio;
+
+        Ratio(double[] points, int position, double ratio) {
+            this.points = points;
+            this.position = position;
+            this.ratio = ratio;
+        }
+    }
+
+    private final ConcurrentMap<SSTableReader, Estimate> estimates = //
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<SSTableReader, Ratio> ratios = new ConcurrentHashMap<>();
+    // sstables holding an estimate by max timestamp, guarded by itself
+    private final NavigableMap<Long, Set<SSTableReader>> byMaxTimestamp = new TreeMap<>();
+    private final AtomicLong droppableBytes = new AtomicLong();
+    private final Check check;
+
+    public TombstoneEstimates(Check check) {
+        this.check = check;
+    }
+
+    /**
+     * @param intervalSeconds
+     *            tombstone_compaction_interval, younger sstables are never
+     *            worth a tombstone compaction
+     * @return bytes a single-sstable tombstone compaction is expected to
+     *         reclaim, 0 if it is not worth one
+     */
+    public long droppableBytes(SSTableReader sstable, int gcBefore, long nowMillis,
+            long intervalSeconds) {
+        Estimate cached = estimates.get(sstable);
+        long creationMillis = cached != null ? cached.creationMillis
+                : sstable.getCreationTimeFor(Component.DATA);
+        boolean old = nowMillis >= creationMillis
+                + TimeUnit.SECONDS.toMillis(intervalSeconds);
+        double[] points = cached != null ? cached.points : points(sstable);
+        int position = position(points, gcBefore);
+        if (cached != null && cached.position == position && cached.old == old)
+            return cached.droppableBytes;
+
+        long bytes = 0;
+        if (old && check.worthDropping(sstable, gcBefore))
+            bytes = (long) (sstable.onDiskLength()
+                    * sstable.getEstimatedDroppableTombstoneRatio(gcBefore));
+        Estimate fresh = new Estimate(creationMillis, points, position, old, bytes);
+        if (cached == null) {
+            if (estimates.putIfAbsent(sstable, fresh) == null) {
+                droppableBytes.addAndGet(bytes);
+                synchronized (byMaxTimestamp) {
+                    byMaxTimestamp.computeIfAbsent(sstable.getMaxTimestamp(),
+                            maxTimestamp -> new HashSet<>()).add(sstable);
+                }
+            }
+        } else if (estimates.replace(sstable, cached, fresh))
+            droppableBytes.addAndGet(bytes - cached.droppableBytes);
+        return bytes;
+    }
+
+    /**
+     * @return bytes the cached estimates expect single-sstable tombstone
+     *         compactions to reclaim, stale estimates included
+     */
+    public long droppableBytes() {
+        return droppableBytes.get();
+    }
+
+    /**
+     * Does not depend on the overlaps, only on the histogram of the sstable.
+     *
+     * @return estimated droppable tombstone ratio at gcBefore, recomputed once
+     *         gcBefore passes the next point of the histogram
+     */
+    public double droppableRatio(SSTableReader sstable, int gcBefore) {
+        Ratio cached = ratios.get(sstable);
+        double[] points = cached != null ? cached.points : points(sstable);
+        int position = position(points, gcBefore);
+        if (cached != null && cached.position == position)
+            return cached.ratio;
+
+        Ratio fresh = new Ratio(points, position,
+                sstable.getEstimatedDroppableTombstoneRatio(gcBefore));
+        if (cached == null)
+            ratios.putIfAbsent(sstable, fresh);
+        else
+            ratios.replace(sstable, cached, fresh);
+        return fresh.ratio;
+    }
+
+    /**
+     * Forgets removed sstables and marks the estimates of every sstable
+     * overlapping a changed one stale. A changed sstable whose data is all
+     * newer than an sstable cannot shadow its tombstones, so it leaves that
+     * estimate alone and is not even visited.
+     */
+    public void changed(Collection<SSTableReader> removed,
+            Collection<SSTableReader> added) {
+        if (removed.isEmpty() && added.isEmpty())
+            return;
+        long minTimestamp = Long.MAX_VALUE;
+        for (SSTableReader sstable : removed) {
+            forget(sstable);
+            minTimestamp = Math.min(minTimestamp, sstable.getMinTimestamp());
+        }
+        for (SSTableReader sstable : added)
+            minTimestamp = Math.min(minTimestamp, sstable.getMinTimestamp());
+        List<SSTableReader> newer = new ArrayList<>();
+        synchronized (byMaxTimestamp) {
+            for (Set<SSTableReader> sstables : byMaxTimestamp.tailMap(minTimestamp, true)
+                    .values())
+                newer.addAll(sstables);
+        }
+        for (SSTableReader sstable : newer) {
+            Estimate estimate = estimates.get(sstable);
+            if (estimate != null && estimate.position >= 0
+                    && (overlapsAny(sstable, removed) || overlapsAny(sstable, added)))
+                estimates.replace(sstable, estimate, estimate.stale());
+        }
+    }
+
+    private void forget(SSTableReader sstable) {
+        ratios.remove(sstable);
+        Estimate estimate = estimates.remove(sstable);
+        if (estimate == null)
+            return;
+        droppableBytes.addAndGet(-estimate.droppableBytes);
+        synchronized (byMaxTimestamp) {
+            Set<SSTableReader> sstables = byMaxTimestamp.get(sstable.getMaxTimestamp());
+            if (sstables != null && sstables.remove(sstable) && sstables.isEmpty())
+                byMaxTimestamp.remove(sstable.getMaxTimestamp());
+        }
+    }
+
+    public int size() {
+        return estimates.size();
+    }
+
+    private static boolean overlapsAny(SSTableReader sstable,
+            Collection<SSTableReader> others) {
+        for (SSTableReader other : others)
+            if (other.getMinTimestamp() <= sstable.getMaxTimestamp()
+                    && other.first.compareTo(sstable.last) <= 0
+                    && sstable.first.compareTo(other.last) <= 0)
+                return true;
+        return false;
+    }
+
+    private static double[] points(SSTableReader sstable) {
+        Map<Double, Long> bins = sstable.getSSTableMetadata().estimatedTombstoneDropTime
+                .getAsMap();
+        double[] points = new double[bins.size()];
+        int i = 0;
+        for (Double point : bins.keySet())
+            points[i++] = point;
+        Arrays.sort(points);
+        return points;
+    }
+
+    // number of points at or before gcBefore
+    private static int position(double[] points, int gcBefore) {
+        int lo = 0;
+        int hi = points.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (points[mid] <= gcBefore)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,177 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the compaction windows start. The configured
+ * compaction_window_unit/size applies from the beginning of time, adaptive
+ * sizing appends segments with another window size, each starting at a
+ * window boundary of the previous one. Windows before a segment are never
+ * moved, so sstables already bucketed stay in their window. Segments ending
+ * before the oldest live window are trimmed, the oldest one left then also
+ * covers everything before it with its own windows.
+ *
+ * Immutable, published inside the TimeWindowIndex.
+ */
+public class WindowLayout {
+    private final TimeUnit windowUnit;
+    private final int windowSize;
+    // segment i covers [starts[i], starts[i + 1]) with windows of sizes[i]
+    // millis, the first one covers all time before too: it is the configured
+    // layout aligned to the epoch when it starts at Long.MIN_VALUE, else what
+    // is left after trimming
+    private final long[] starts;
+    private final long[] sizes;
+
+    public WindowLayout(TimeUnit windowUnit, int windowSize) {
+        this(windowUnit, windowSize, new long[] { Long.MIN_VALUE }, new long[] {
+                TimeWindowCompactionStrategyHelper.windowSizeInMillis(windowUnit,
+                        windowSize) });
+    }
+
+    private WindowLayout(TimeUnit windowUnit, int windowSize, long[] starts,
+            long[] sizes) {
+        this.windowUnit = windowUnit;
+        this.windowSize = windowSize;
+        this.starts = starts;
+        this.sizes = sizes;
+    }
+
+    /**
+     * @return lower bound in millis of the window holding timestampInMillis
+     */
+    public long lowerBound(long timestampInMillis) {
+        int i = segmentOf(timestampInMillis);
+        if (starts[i] == Long.MIN_VALUE)
+            return TimeWindowCompactionStrategyHelper
+                    .getWindowLowerBoundInMillis(windowUnit, windowSize, timestampInMillis);
+        return starts[i] + Math.floorDiv(timestampInMillis - starts[i], sizes[i])
+                * sizes[i];
+    }
+
+    /**
+     * @return size in millis of the window holding timestampInMillis
+     */
+    public long sizeAt(long timestampInMillis) {
+        return sizes[segmentOf(timestampInMillis)];
+    }
+
+    /**
+     * @return start of the newest segment, Long.MIN_VALUE if never resized
+     */
+    public long lastStart() {
+        return starts[starts.length - 1];
+    }
+
+    /**
+     * @param fromMillis
+     *            a window boundary after the start of the newest segment
+     * @return a layout with windows of sizeMillis from fromMillis on, or this
+     *         layout if the size does not change: neighbouring segments never
+     *         have the same size
+     */
+    public WindowLayout resized(long fromMillis, long sizeMillis) {
+        if (sizeMillis == sizes[sizes.length - 1])
+            return this;
+        if (fromMillis <= lastStart() || lowerBound(fromMillis) != fromMillis)
+            throw new IllegalArgumentException(fromMillis + " is not a new window boundary");
+        long[] nextStarts = Arrays.copyOf(starts, starts.length + 1);
+        long[] nextSizes = Arrays.copyOf(sizes, sizes.length + 1);
+        nextStarts[starts.length] = fromMillis;
+        nextSizes[sizes.length] = sizeMillis;
+        return new WindowLayout(windowUnit, windowSize, nextStarts, nextSizes);
+    }
+
+    /**
+     * Windows from the one holding oldestMillis on keep their bounds, older
+     * ones take the size of that window.
+     *
+     * @param oldestMillis
+     *            lower bound of the oldest live window
+     * @return this layout without the segments ending before oldestMillis
+     */
+    public WindowLayout trimmedBefore(long oldestMillis) {
+        int i = segmentOf(oldestMillis);
+        if (i == 0)
+            return this;
+        return new WindowLayout(windowUnit, windowSize,
+                Arrays.copyOfRange(starts, i, starts.length),
+                Arrays.copyOfRange(sizes, i, sizes.length));
+    }
+
+    /**
+     * @return number of segments, 1 if never resized
+     */
+    public int segments() {
+        return starts.length;
+    }
+
+    private int segmentOf(long timestampInMillis) {
+        int i = Arrays.binarySearch(starts, timestampInMillis);
+        return i >= 0 ? i : Math.max(-i - 2, 0);
+    }
+
+    /**
+     * @return the layout as text, the configured windows then one line per
+     *         segment, the configured one starting at Long.MIN_VALUE, read back
+     *         by parse
+     */
+    public String serialize() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(windowUnit).append(' ').append(windowSize).append('\n');
+        for (int i = 0; i < starts.length; i++)
+            sb.append(starts[i]).append(' ').append(sizes[i]).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * @return the serialized layout, null if it was written for other
+     *         compaction_window_unit/size
+     * @throws IllegalArgumentException
+     *             if the text is not a serialized layout
+     */
+    public static WindowLayout parse(String text, TimeUnit windowUnit, int windowSize) {
+        String[] lines = text.trim().split("\n");
+        String[] header = lines[0].trim().split(" ");
+        if (header.length != 2)
+            throw new IllegalArgumentException("no window unit and size in " + lines[0]);
+        if (TimeUnit.valueOf(header[0]) != windowUnit
+                || Integer.parseInt(header[1]) != windowSize)
+            return null;
+        WindowLayout layout = null;
+        for (int i = 1; i < lines.length; i++) {
+            String[] segment = lines[i].trim().split(" ");
+            if (segment.length != 2)
+                throw new IllegalArgumentException("no start and size in " + lines[i]);
+            long start = Long.parseLong(segment[0]);
+            long size = Long.parseLong(segment[1]);
+            if (size <= 0)
+                throw new IllegalArgumentException("no window size in " + lines[i]);
+            if (layout != null)
+                layout = layout.resized(start, size);
+            else if (start == Long.MIN_VALUE)
+                layout = new WindowLayout(windowUnit, windowSize);
+            else
+                layout = new WindowLayout(windowUnit, windowSize, new long[] { start },
+                        new long[] { size });
+        }
+        return layout == null ? new WindowLayout(windowUnit, windowSize) : layout;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (starts[0] == Long.MIN_VALUE)
+            sb.append(windowSize).append(' ').append(windowUnit);
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] == Long.MIN_VALUE)
+                continue;
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(TimeUnit.MILLISECONDS.toSeconds(sizes[i])).append(" SECONDS from ")
+                    .append(starts[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,199 @@
+package org.apache.cassandra.db.compaction;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.db.lifecycle.SSTableSet;
+import org.apache.cassandra.db.lifecycle.StubTrackers;
+import org.apache.cassandra.db.lifecycle.Tracker;
+import org.apache.cassandra.db.marshal.LongType;
+import org.apache.cassandra.db.marshal.TimestampType;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisStd;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Table stand-in for the benchmarks: answers the sstable set and threshold
+ * queries the strategies make from a given set, nothing else is initialized.
+ * Every sstable is reported live, uncompacting and overlapping, which is what
+ * a time series table with random partition keys looks like.
+ */
+public class StubColumnFamilyStore extends ColumnFamilyStore {
+    private static final Objenesis objenesis = new ObjenesisStd(true);
+
+    private volatile Set<SSTableReader> live;
+    private Tracker tracker;
+    private CompactionStrategyManager strategyManager;
+    private AtomicInteger generations;
+
+    private StubColumnFamilyStore() {
+        super(null, null, 0, null, null, false, false);
+    }
+
+    public static StubColumnFamilyStore create(String keyspace, String table,
+            Collection<? extends SSTableReader> sstables) {
+        CFMetaData metadata = CFMetaData.Builder.create(keyspace, table)
+                .addPartitionKey("id", LongType.instance)
+                .addClusteringColumn("ts", TimestampType.instance)
+                .addRegularColumn("value", LongType.instance).build();
+
+        StubColumnFamilyStore cfs = objenesis.newInstance(StubColumnFamilyStore.class);
+        setFinal(cfs, "name", table);
+        setFinal(cfs, "metadata", metadata);
+        setFinal(cfs, "valid", true);
+        cfs.live = ImmutableSet.copyOf(sstables);
+        cfs.tracker = new Tracker(null, false);
+        StubTrackers.replace(cfs.tracker, Collections.<SSTableReader>emptySet(), cfs.live);
+        cfs.strategyManager = objenesis.newInstance(StubStrategyManager.class);
+        return cfs;
+    }
+
+    /**
+     * Gives the table its data directories under the bench data directory, so
+     * writers can create sstables, the descriptors are numbered from 1.
+     */
+    public void createDirectories() {
+        setFinal(this, "directories", new Directories(metadata));
+        generations = new AtomicInteger();
+    }
+
+    /**
+     * Invalidates the table the way dropping it does before its strategies
+     * are shut down.
+     */
+    public void markDropped() {
+        setFinal(this, "valid", false);
+    }
+
+    private static void setFinal(ColumnFamilyStore cfs, String name, Object value) {
+        try {
+            Field field = ColumnFamilyStore.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(cfs, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Swaps sstables in the live set, the simulator's flushes and compactions.
+     * The tracker follows, so tryModify can mark them compacting.
+     */
+    public void replace(Collection<SSTableReader> removed,
+            Collection<SSTableReader> added) {
+        ImmutableSet.Builder<SSTableReader> next = ImmutableSet.builder();
+        for (SSTableReader sstable : live)
+            if (!removed.contains(sstable))
+                next.add(sstable);
+        live = next.addAll(added).build();
+        StubTrackers.replace(tracker, ImmutableSet.copyOf(removed), added);
+    }
+
+    @Override
+    public String getSSTablePath(File directory) {
+        return new Descriptor(directory, metadata.ksName, name,
+                generations.incrementAndGet()).filenameFor(Component.DATA);
+    }
+
+    @Override
+    public Iterable<SSTableReader> getSSTables(SSTableSet sstableSet) {
+        return live;
+    }
+
+    @Override
+    public Set<SSTableReader> getLiveSSTables() {
+        return live;
+    }
+
+    @Override
+    public Iterable<SSTableReader> getUncompactingSSTables() {
+        return live;
+    }
+
+    @Override
+    public Collection<SSTableReader> getOverlappingLiveSSTables(
+            Iterable<SSTableReader> sstables) {
+        return live;
+    }
+
+    @Override
+    public Tracker getTracker() {
+        return tracker;
+    }
+
+    @Override
+    public CompactionStrategyManager getCompactionStrategyManager() {
+        return strategyManager;
+    }
+
+    /**
+     * Drops the strategy manager, a table opening has none while the
+     * strategies of its first manager are started.
+     */
+    public void clearStrategyManager() {
+        strategyManager = null;
+    }
+
+    /**
+     * Installs a strategy manager holding the given strategies, repaired
+     * first.
+     */
+    public void manage(AbstractCompactionStrategy... strategies) {
+        StubStrategyManager manager = objenesis.newInstance(StubStrategyManager.class);
+        manager.strategies = ImmutableList.copyOf(strategies);
+        strategyManager = manager;
+    }
+
+    @Override
+    public boolean supportsEarlyOpen() {
+        return false;
+    }
+
+    @Override
+    public int getMinimumCompactionThreshold() {
+        return 4;
+    }
+
+    @Override
+    public int getMaximumCompactionThreshold() {
+        return 32;
+    }
+
+    @Override
+    public String toString() {
+        return "StubColumnFamilyStore(" + name + ")";
+    }
+
+    public static class StubStrategyManager extends CompactionStrategyManager {
+        // null unless installed by manage, objenesis skips initializers
+        private List<AbstractCompactionStrategy> strategies;
+
+        private StubStrategyManager() {
+            super(null);
+        }
+
+        @Override
+        public boolean onlyPurgeRepairedTombstones() {
+            return false;
+        }
+
+        @Override
+        public List<AbstractCompactionStrategy> getStrategies() {
+            return strategies == null ? Collections.<AbstractCompactionStrategy>emptyList()
+                    : strategies;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.apache.cassandra.db.compaction;
+
+import java.io.File;
+
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.YamlConfigurationLoader;
+import org.apache.cassandra.exceptions.ConfigurationException;
+
+/**
+ * Loads cassandra-bench.yaml from the classpath with absolute directories, so
+ * the benchmarks, the simulator and the tests run from any working directory.
+ * The directories go under the cassandra.bench.data_dir system property, or
+ * a cassandra-bench directory in java.io.tmpdir.
+ *
+ * Selected with -Dcassandra.config=cassandra-bench.yaml
+ * -Dcassandra.config.loader=org.apache.cassandra.db.compaction.StubConfigurationLoader,
+ * which SyntheticSSTables sets unless given.
+ */
+public class StubConfigurationLoader extends YamlConfigurationLoader {
+    public static final String DATA_DIR_PROPERTY = "cassandra.bench.data_dir";
+
+    @Override
+    public Config loadConfig() throws ConfigurationException {
+        Config config = super.loadConfig();
+        File dir = new File(System.getProperty(DATA_DIR_PROPERTY,
+                new File(System.getProperty("java.io.tmpdir"), "cassandra-bench")
+                        .getPath())).getAbsoluteFile();
+        config.commitlog_directory = new File(dir, "commitlog").getPath();
+        config.hints_directory = new File(dir, "hints").getPath();
+        config.saved_caches_directory = new File(dir, "saved_caches").getPath();
+        config.data_file_directories = new String[] { new File(dir, "data").getPath() };
+        return config;
+    }
+}
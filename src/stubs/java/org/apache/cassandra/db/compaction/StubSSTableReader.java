@@ -0,0 +1,169 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.apache.cassandra.db.BufferDecoratedKey;
+import org.apache.cassandra.db.DataRange;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.PartitionPosition;
+import org.apache.cassandra.db.RowIndexEntry;
+import org.apache.cassandra.db.filter.ColumnFilter;
+import org.apache.cassandra.db.rows.SliceableUnfilteredRowIterator;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+import org.apache.cassandra.io.util.FileDataInput;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisStd;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Metadata only sstable for the benchmarks. Created without running the
+ * SSTableReader constructor, so there is no descriptor, no files and no ref
+ * counting, only the stats metadata and the size the strategies look at.
+ */
+public final class StubSSTableReader extends SSTableReader {
+    private static final Objenesis objenesis = new ObjenesisStd(true);
+    // time series flushes cover the whole ring
+    private static final DecoratedKey minKey = new BufferDecoratedKey(
+            new LongToken(Long.MIN_VALUE + 1), ByteBufferUtil.EMPTY_BYTE_BUFFER);
+    private static final DecoratedKey maxKey = new BufferDecoratedKey(
+            new LongToken(Long.MAX_VALUE), ByteBufferUtil.EMPTY_BYTE_BUFFER);
+
+    private int id;
+    private long bytes;
+    private long creationMillis;
+
+    private StubSSTableReader() {
+        super(null, null, null, 0, null, null, null);
+    }
+
+    public static StubSSTableReader create(int id, StatsMetadata metadata, long bytes) {
+        StubSSTableReader reader = objenesis.newInstance(StubSSTableReader.class);
+        reader.id = id;
+        reader.bytes = bytes;
+        reader.sstableMetadata = metadata;
+        reader.first = minKey;
+        reader.last = maxKey;
+        return reader;
+    }
+
+    /**
+     * An sstable covering the tokens from first to last only.
+     */
+    public static StubSSTableReader create(int id, StatsMetadata metadata, long bytes,
+            long first, long last) {
+        StubSSTableReader reader = create(id, metadata, bytes);
+        reader.first = key(first);
+        reader.last = key(last);
+        return reader;
+    }
+
+    private static DecoratedKey key(long token) {
+        return new BufferDecoratedKey(new LongToken(token),
+                ByteBufferUtil.EMPTY_BYTE_BUFFER);
+    }
+
+    public StubSSTableReader createdAt(long millis) {
+        creationMillis = millis;
+        return this;
+    }
+
+    @Override
+    public long getCreationTimeFor(Component component) {
+        return creationMillis;
+    }
+
+    @Override
+    public long onDiskLength() {
+        return bytes;
+    }
+
+    @Override
+    public long bytesOnDisk() {
+        return bytes;
+    }
+
+    @Override
+    public boolean isMarkedSuspect() {
+        return false;
+    }
+
+    @Override
+    public boolean isMarkedCompacted() {
+        return false;
+    }
+
+    @Override
+    public String getFilename() {
+        return "stub-" + id + "-Data.db";
+    }
+
+    @Override
+    public String toString() {
+        return getFilename();
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        return this == that;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    // raw in the overridden signature
+    @SuppressWarnings("rawtypes")
+    @Override
+    protected RowIndexEntry getPosition(PartitionPosition key, Operator op,
+            boolean updateCacheAndStats, boolean permitMatchPastLast) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SliceableUnfilteredRowIterator iterator(DecoratedKey key,
+            ColumnFilter selectedColumns, boolean reversed, boolean isForThrift) {
+        throw new UnsupportedOperationException();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public SliceableUnfilteredRowIterator iterator(FileDataInput file, DecoratedKey key,
+            RowIndexEntry indexEntry, ColumnFilter selectedColumns, boolean reversed,
+            boolean isForThrift) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ISSTableScanner getScanner(RateLimiter limiter) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ISSTableScanner getScanner(Collection<Range<Token>> ranges,
+            RateLimiter limiter) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ISSTableScanner getScanner(
+            Iterator<AbstractBounds<PartitionPosition>> rangeIterator) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ISSTableScanner getScanner(ColumnFilter columns, DataRange dataRange,
+            RateLimiter limiter, boolean isForThrift) {
+        throw new UnsupportedOperationException();
+    }
+}
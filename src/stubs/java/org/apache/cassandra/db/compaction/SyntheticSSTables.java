@@ -0,0 +1,97 @@
+package org.apache.cassandra.db.compaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.db.commitlog.IntervalSet;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+import org.apache.cassandra.utils.EstimatedHistogram;
+import org.apache.cassandra.utils.StreamingHistogram;
+
+/**
+ * Generates a time series table layout: flushes spread over the last 90
+ * days, a few repair streamed sstables spanning many windows, log-normal
+ * sizes around 64 MB and a mix of no TTL, 30 day and 7 day TTLs.
+ */
+public final class SyntheticSSTables {
+    public static final long SPAN_MICROS = TimeUnit.DAYS.toMicros(90);
+
+    private static final long MB = 1024L * 1024L;
+    private static final int NO_TTL_PERCENT = 60;
+    private static final int MONTH_TTL_PERCENT = 30;
+    private static final int REPAIRED_PERCENT = 5;
+
+    // histograms are not looked at by selection, share them to keep 100k
+    // sstables cheap
+    private static final EstimatedHistogram partitionSize = new EstimatedHistogram();
+    private static final EstimatedHistogram columnCount = new EstimatedHistogram();
+    private static final StreamingHistogram tombstones = new StreamingHistogram(100);
+
+    static {
+        // generated sstables are the first thing every benchmark touches, point
+        // the node configuration at the bench yaml before anything loads it
+        if (System.getProperty("cassandra.config") == null)
+            System.setProperty("cassandra.config", "cassandra-bench.yaml");
+        if (System.getProperty("cassandra.config.loader") == null)
+            System.setProperty("cassandra.config.loader",
+                    StubConfigurationLoader.class.getName());
+    }
+
+    private SyntheticSSTables() {
+    }
+
+    public static List<SSTableReader> generate(int count, long nowMicros, long seed) {
+        Random random = new Random(seed);
+        List<SSTableReader> sstables = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long maxTimestamp = nowMicros - (long) (random.nextDouble() * SPAN_MICROS);
+            long span = random.nextInt(100) < REPAIRED_PERCENT
+                    ? (long) (random.nextDouble() * TimeUnit.DAYS.toMicros(30))
+                    : (long) (random.nextDouble() * TimeUnit.HOURS.toMicros(1));
+            long minTimestamp = maxTimestamp - span;
+
+            int ttl;
+            int dice = random.nextInt(100);
+            if (dice < NO_TTL_PERCENT)
+                ttl = 0;
+            else if (dice < NO_TTL_PERCENT + MONTH_TTL_PERCENT)
+                ttl = (int) TimeUnit.DAYS.toSeconds(30);
+            else
+                ttl = (int) TimeUnit.DAYS.toSeconds(7);
+            int maxLocalDeletionTime = ttl == 0 ? Integer.MAX_VALUE
+                    : (int) (TimeUnit.MICROSECONDS.toSeconds(maxTimestamp) + ttl);
+
+            long bytes = (long) (64 * MB * Math.exp(1.5 * random.nextGaussian()));
+            bytes = Math.max(MB, Math.min(bytes, 50 * 1024 * MB));
+
+            sstables.add(StubSSTableReader.create(i, metadata(minTimestamp,
+                    maxTimestamp, maxLocalDeletionTime, ttl, ttl), bytes));
+        }
+        return sstables;
+    }
+
+    /**
+     * @return stats with the fields the strategies look at, shared histograms
+     */
+    public static StatsMetadata metadata(long minTimestamp, long maxTimestamp,
+            int maxLocalDeletionTime, int minTTL, int maxTTL) {
+        return metadata(minTimestamp, maxTimestamp, maxLocalDeletionTime, minTTL, maxTTL,
+                tombstones);
+    }
+
+    /**
+     * @return stats with the given tombstone drop time histogram
+     */
+    public static StatsMetadata metadata(long minTimestamp, long maxTimestamp,
+            int maxLocalDeletionTime, int minTTL, int maxTTL,
+            StreamingHistogram tombstones) {
+        return new StatsMetadata(partitionSize, columnCount, IntervalSet.empty(),
+                minTimestamp, maxTimestamp, maxLocalDeletionTime, maxLocalDeletionTime,
+                minTTL, maxTTL, 1.0, tombstones, 0, Collections.emptyList(),
+                Collections.emptyList(), false, 0, 0, 0);
+    }
+}
@@ -0,0 +1,19 @@
+package org.apache.cassandra.db.lifecycle;
+
+import java.util.Set;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+
+/**
+ * Live set updates of a dummy tracker, which the benchmarks use so that
+ * tryModify marks stub sstables compacting as it does on a real table.
+ */
+public final class StubTrackers {
+    private StubTrackers() {
+    }
+
+    public static void replace(Tracker tracker, Set<SSTableReader> removed,
+            Iterable<SSTableReader> added) {
+        tracker.apply(View.updateLiveSet(removed, added));
+    }
+}
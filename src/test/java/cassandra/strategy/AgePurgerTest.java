@@ -0,0 +1,137 @@
+package cassandra.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.RowUpdateBuilder;
+import org.apache.cassandra.db.compaction.StubColumnFamilyStore;
+import org.apache.cassandra.db.compaction.TimeWindowCompactionStrategyMetrics;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.Unfiltered;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.utils.FBUtilities;
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+
+public class AgePurgerTest {
+
+    static final StubColumnFamilyStore cfs = StubColumnFamilyStore.create("ks", "aged",
+            Collections.<SSTableReader>emptyList());
+    static final CFMetaData metadata = cfs.metadata;
+
+    // cells written before 1000 are aged
+    static final long AGED_BEFORE = 1000;
+
+    final TimeWindowCompactionStrategyMetrics metrics = new TimeWindowCompactionStrategyMetrics(
+            null);
+    int lookups;
+
+    static UnfilteredRowIterator partition(long timestamp) {
+        return new RowUpdateBuilder(metadata, timestamp, 1L).clustering(new Date(1))
+                .add("value", 1L).buildUpdate().unfilteredIterator();
+    }
+
+    // merged partition as written, with older data outside of the compaction
+    // from olderOutside on
+    List<Unfiltered> purge(UnfilteredRowIterator partition, long olderOutside,
+            boolean dryRun) {
+        AgePurger purger = new AgePurger(AGED_BEFORE, FBUtilities.nowInSeconds(), dryRun,
+                metrics);
+        List<Unfiltered> contents = new ArrayList<>();
+        try (UnfilteredRowIterator purged = purger.apply(partition, () -> {
+            lookups++;
+            return olderOutside;
+        })) {
+            while (purged.hasNext())
+                contents.add(purged.next());
+        }
+        return contents;
+    }
+
+    @Test
+    public void agedCellsAreDropped() {
+        assertTrue(purge(partition(500), Long.MAX_VALUE, false).isEmpty());
+        // row liveness and the cell
+        assertEquals(2, metrics.getAgedCellsPurged());
+        assertEquals(1, lookups);
+    }
+
+    @Test
+    public void agedCellsOverOlderDataOutsideAreKept() {
+        List<Unfiltered> contents = purge(partition(500), 400, false);
+
+        assertEquals(1, contents.size());
+        Row row = (Row) contents.get(0);
+        assertEquals(500, row.primaryKeyLivenessInfo().timestamp());
+        assertEquals(1, Iterables.size(row.cells()));
+        assertEquals(0, metrics.getAgedCellsPurged());
+    }
+
+    @Test
+    public void neverPurgedKeepsAgedCells() {
+        assertEquals(1, purge(partition(500), Long.MIN_VALUE, false).size());
+        assertEquals(0, metrics.getAgedCellsPurged());
+    }
+
+    @Test
+    public void newerCellsAreKeptWithoutOverlapCheck() {
+        assertEquals(1, purge(partition(1500), Long.MAX_VALUE, false).size());
+        assertEquals(0, lookups);
+    }
+
+    @Test
+    public void rowsWithoutAgedCellsAreNotRebuilt() {
+        PartitionUpdate update = new RowUpdateBuilder(metadata, 1500, 1L)
+                .clustering(new Date(1)).add("value", 1L).buildUpdate();
+        Row row = update.iterator().next();
+
+        List<Unfiltered> contents = purge(update.unfilteredIterator(), Long.MAX_VALUE,
+                false);
+        assertEquals(1, contents.size());
+        assertSame(row, contents.get(0));
+    }
+
+    @Test
+    public void tombstonesAreKept() {
+        UnfilteredRowIterator deletion = RowUpdateBuilder.deleteRow(metadata, 500, 1L,
+                new Date(1)).getPartitionUpdate(metadata.cfId).unfilteredIterator();
+        List<Unfiltered> contents = purge(deletion, Long.MAX_VALUE, false);
+
+        assertEquals(1, contents.size());
+        assertFalse(((Row) contents.get(0)).deletion().isLive());
+    }
+
+    @Test
+    public void dryRunOnlyCounts() {
+        assertEquals(1, purge(partition(500), Long.MAX_VALUE, true).size());
+        assertEquals(2, metrics.getAgedCellsPurged());
+    }
+
+    @Test
+    public void compactionsPurgeOnlyWithTheOption() {
+        Map<String, String> props = new HashMap<>();
+        props.put(AgeingCompactionStrategyOptions.AGE_MINUTES, "60");
+        props.put(AgeingCompactionStrategyOptions.DRY_RUN, "false");
+        int gcBefore = (int) TimeUnit.DAYS.toSeconds(100);
+        assertNull(new AgeingCompactionStrategy(cfs, props).purge(gcBefore));
+
+        props.put(AgeingCompactionStrategyOptions.PURGE_AGED_CELLS, "true");
+        assertNotNull(new AgeingCompactionStrategy(cfs, props).purge(gcBefore));
+    }
+}
@@ -0,0 +1,110 @@
+package cassandra.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.cassandra.db.compaction.StubSSTableReader;
+import org.apache.cassandra.db.compaction.SyntheticSSTables;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.junit.Test;
+
+public class MaxTimestampIndexTest {
+
+    static SSTableReader table(int id, long maxTimestamp, int maxLdt) {
+        return StubSSTableReader.create(id, SyntheticSSTables.metadata(maxTimestamp - 10,
+                maxTimestamp, maxLdt, 0, 0), 1000 + id);
+    }
+
+    static List<SSTableReader> order(MaxTimestampIndex index) {
+        List<SSTableReader> tables = new ArrayList<>();
+        for (int i = 0; i < index.size(); i++) {
+            tables.add(index.tableAt(i));
+        }
+        return tables;
+    }
+
+    @Test
+    public void sortedByMaxTimestamp() {
+        SSTableReader a = table(1, 300, 10);
+        SSTableReader b = table(2, 100, 20);
+        SSTableReader c = table(3, 200, 30);
+        MaxTimestampIndex index = MaxTimestampIndex.EMPTY.with(a).with(b).with(c);
+
+        assertEquals(Arrays.asList(b, c, a), order(index));
+        assertEquals(100, index.timestampAt(0));
+        assertEquals(20, index.maxLocalDeletionTimeAt(0));
+        assertEquals(1002, index.bytesAt(0));
+        assertEquals(1003, index.bytesOnDisk(c));
+        assertEquals(2, index.indexOf(a));
+        assertEquals(-1, index.indexOf(table(4, 200, 0)));
+    }
+
+    @Test
+    public void countBefore() {
+        MaxTimestampIndex index = MaxTimestampIndex.EMPTY;
+        for (int i = 0; i < 10; i++) {
+            index = index.with(table(i, i * 10, 0));
+        }
+        assertEquals(0, index.countBefore(0));
+        assertEquals(1, index.countBefore(1));
+        assertEquals(5, index.countBefore(50));
+        assertEquals(10, index.countBefore(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void withoutAndReplace() {
+        SSTableReader a = table(1, 100, 0);
+        SSTableReader b = table(2, 200, 0);
+        SSTableReader c = table(3, 300, 0);
+        MaxTimestampIndex index = MaxTimestampIndex.EMPTY.with(a).with(b);
+
+        assertEquals(Arrays.asList(b), order(index.without(a)));
+        assertEquals(Arrays.asList(a, c), order(index.replace(Collections.singleton(b),
+                Collections.singleton(c))));
+        // removing what is not there changes nothing
+        assertSame(index, index.without(c));
+        // one sstable is in the index once
+        assertEquals(2, index.with(a).size());
+    }
+
+    @Test
+    public void equalTimestampsKeepInsertionOrder() {
+        SSTableReader a = table(1, 100, 0);
+        SSTableReader b = table(2, 100, 0);
+        SSTableReader c = table(3, 100, 0);
+        MaxTimestampIndex index = MaxTimestampIndex.EMPTY.with(a).with(b);
+        assertEquals(Arrays.asList(a, b), order(index));
+        assertEquals(Arrays.asList(a, b, c), order(index.with(c)));
+        assertEquals(1, index.with(c).indexOf(b));
+    }
+
+    @Test
+    public void singleAddsMatchBulkReplace() {
+        Random random = new Random(42);
+        List<SSTableReader> tables = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            tables.add(table(i, random.nextInt(1000), random.nextInt()));
+        }
+        MaxTimestampIndex single = MaxTimestampIndex.EMPTY;
+        for (int i = 0; i < tables.size(); i++) {
+            single = single.with(tables.get(i));
+            // reads in between merge the additions so far
+            if (i % 1000 == 0) {
+                assertEquals(i + 1, single.size());
+            }
+        }
+        MaxTimestampIndex bulk = MaxTimestampIndex.EMPTY
+                .replace(Collections.<SSTableReader>emptySet(), tables);
+
+        assertEquals(order(bulk), order(single));
+        for (int i = 1; i < single.size(); i++) {
+            assertEquals(true, single.timestampAt(i - 1) <= single.timestampAt(i));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.apache.cassandra.db.compaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.junit.Test;
+
+public class AdaptiveWindowSizingTest {
+
+    static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // middle of the bounds is 4 * 16 = 8 flushes per window
+    final AdaptiveWindowSizing sizing = new AdaptiveWindowSizing(4, 16, 0);
+    TimeWindowIndex index = new TimeWindowIndex(TimeUnit.HOURS, 1, TimeUnit.MICROSECONDS);
+    int ids;
+
+    static SSTableReader flush(int id, long millis) {
+        long micros = TimeUnit.MILLISECONDS.toMicros(millis);
+        return StubSSTableReader.create(id,
+                SyntheticSSTables.metadata(micros - 10, micros, Integer.MAX_VALUE, 0, 0),
+                1000);
+    }
+
+    // flushes count sstables evenly into the hour starting at start
+    WindowLayout flushes(long start, int count, long nowMillis) {
+        WindowLayout layout = index.layout();
+        for (int i = 0; i < count; i++) {
+            SSTableReader sstable = flush(ids++, start + i * (HOUR_MILLIS / count));
+            index = index.with(sstable);
+            layout = sizing.flushed(sstable, index, nowMillis);
+            index = index.withLayout(layout);
+        }
+        return layout;
+    }
+
+    @Test
+    public void sizeScaledTowardsTheMiddleOfTheBounds() {
+        assertEquals(HOUR_MILLIS, sizing.nextSize(HOUR_MILLIS, 8, 1));
+        assertEquals(HOUR_MILLIS, sizing.nextSize(HOUR_MILLIS, 4, 1));
+        assertEquals(HOUR_MILLIS / 4, sizing.nextSize(HOUR_MILLIS, 32, 1));
+        assertEquals(HOUR_MILLIS * 8, sizing.nextSize(HOUR_MILLIS, 1, 1));
+    }
+
+    @Test
+    public void halvedWindowsStayWholeSeconds() {
+        assertEquals(TimeUnit.SECONDS.toMillis(75), sizing.nextSize(
+                TimeUnit.SECONDS.toMillis(75), 64, 1));
+        assertEquals(TimeUnit.SECONDS.toMillis(75), sizing.nextSize(
+                TimeUnit.SECONDS.toMillis(150), 64, 1));
+        assertEquals(MINUTE_MILLIS, sizing.nextSize(2 * MINUTE_MILLIS, 64, 1));
+    }
+
+    @Test
+    public void liveWindowLimitOnlyGrowsWindows() {
+        AdaptiveWindowSizing bounded = new AdaptiveWindowSizing(4, 16, 10);
+        assertEquals(HOUR_MILLIS * 2, bounded.nextSize(HOUR_MILLIS, 32, 10));
+        assertEquals(HOUR_MILLIS / 4, bounded.nextSize(HOUR_MILLIS, 32, 9));
+    }
+
+    @Test
+    public void finishedWindowResizesFromTheNextOne() {
+        long day = TimeUnit.DAYS.toMillis(100);
+        WindowLayout layout = flushes(day, 32, day);
+        assertSame(index.layout(), layout);
+        assertEquals(Long.MIN_VALUE, layout.lastStart());
+
+        layout = flushes(day + HOUR_MILLIS, 1, day + HOUR_MILLIS);
+        assertEquals(day + 2 * HOUR_MILLIS, layout.lastStart());
+        assertEquals(HOUR_MILLIS / 4, layout.sizeAt(day + 2 * HOUR_MILLIS));
+        assertEquals(HOUR_MILLIS, layout.sizeAt(day + HOUR_MILLIS));
+        assertEquals(32, sizing.getLastWindowFlushes());
+    }
+
+    @Test
+    public void sstablesOlderThanTheCurrentWindowAreNotFlushes() {
+        long day = TimeUnit.DAYS.toMillis(100);
+        long now = day + 12 * HOUR_MILLIS;
+        // loaded at startup, oldest last
+        flushes(day + 2 * HOUR_MILLIS, 1, now);
+        flushes(day, 32, now);
+        WindowLayout layout = flushes(day + HOUR_MILLIS, 32, now);
+
+        assertEquals(Long.MIN_VALUE, layout.lastStart());
+        assertEquals(0, sizing.getLastWindowFlushes());
+    }
+
+    @Test
+    public void serializedLayoutParsesBack() {
+        WindowLayout layout = new WindowLayout(TimeUnit.HOURS, 1)
+                .resized(10 * HOUR_MILLIS, HOUR_MILLIS / 4)
+                .resized(12 * HOUR_MILLIS, HOUR_MILLIS * 2);
+        WindowLayout parsed = WindowLayout.parse(layout.serialize(), TimeUnit.HOURS, 1);
+
+        assertEquals(layout.serialize(), parsed.serialize());
+        assertEquals(layout.lowerBound(11 * HOUR_MILLIS + 1),
+                parsed.lowerBound(11 * HOUR_MILLIS + 1));
+        assertEquals(null, WindowLayout.parse(layout.serialize(), TimeUnit.HOURS, 2));
+    }
+
+    @Test
+    public void sameSizeAddsNoSegment() {
+        WindowLayout layout = new WindowLayout(TimeUnit.HOURS, 1)
+                .resized(10 * HOUR_MILLIS, HOUR_MILLIS / 4);
+        assertSame(layout, layout.resized(12 * HOUR_MILLIS, HOUR_MILLIS / 4));
+        assertEquals(2, layout.segments());
+    }
+
+    @Test
+    public void segmentsBeforeTheOldestWindowAreTrimmed() {
+        WindowLayout layout = new WindowLayout(TimeUnit.HOURS, 1)
+                .resized(10 * HOUR_MILLIS, HOUR_MILLIS / 4)
+                .resized(12 * HOUR_MILLIS, HOUR_MILLIS * 2)
+                .resized(20 * HOUR_MILLIS, HOUR_MILLIS);
+        assertSame(layout, layout.trimmedBefore(9 * HOUR_MILLIS));
+
+        WindowLayout trimmed = layout.trimmedBefore(14 * HOUR_MILLIS);
+        assertEquals(2, trimmed.segments());
+        assertEquals(layout.lastStart(), trimmed.lastStart());
+        for (long ts = 14 * HOUR_MILLIS; ts < 24 * HOUR_MILLIS; ts += MINUTE_MILLIS)
+            assertEquals(layout.lowerBound(ts), trimmed.lowerBound(ts));
+        // older windows take the size of the oldest segment left
+        assertEquals(8 * HOUR_MILLIS, trimmed.lowerBound(9 * HOUR_MILLIS));
+        assertEquals(HOUR_MILLIS * 2, trimmed.sizeAt(Long.MIN_VALUE + 1));
+
+        WindowLayout parsed = WindowLayout.parse(trimmed.serialize(), TimeUnit.HOURS, 1);
+        assertEquals(trimmed.serialize(), parsed.serialize());
+        assertEquals(8 * HOUR_MILLIS, parsed.lowerBound(9 * HOUR_MILLIS));
+    }
+
+    @Test
+    public void segmentsAreFoundAtTheirBounds() {
+        WindowLayout layout = new WindowLayout(TimeUnit.HOURS, 1);
+        for (int i = 1; i <= 10; i++)
+            layout = layout.resized(i * 10 * HOUR_MILLIS, HOUR_MILLIS / (i % 2 + 1));
+        assertEquals(11, layout.segments());
+        assertEquals(HOUR_MILLIS, layout.sizeAt(10 * HOUR_MILLIS - 1));
+        assertEquals(HOUR_MILLIS / 2, layout.sizeAt(10 * HOUR_MILLIS));
+        assertEquals(HOUR_MILLIS, layout.sizeAt(20 * HOUR_MILLIS));
+        assertEquals(HOUR_MILLIS, layout.sizeAt(Long.MAX_VALUE));
+    }
+}
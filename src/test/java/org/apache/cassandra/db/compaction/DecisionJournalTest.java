@@ -0,0 +1,55 @@
+package org.apache.cassandra.db.compaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.cassandra.db.compaction.DecisionJournal.Decision;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.junit.Test;
+
+public class DecisionJournalTest {
+
+    static final SSTableReader sstable = StubSSTableReader.create(1,
+            SyntheticSSTables.metadata(0, 1000, Integer.MAX_VALUE, 0, 0), 4096);
+
+    static void assertLimits(List<String> entries, long... limits) {
+        assertEquals(entries.toString(), limits.length, entries.size());
+        for (int i = 0; i < limits.length; i++)
+            assertTrue(entries.get(i), entries.get(i).endsWith(" limit=" + limits[i]));
+    }
+
+    @Test
+    public void latestOldestFirst() {
+        DecisionJournal journal = new DecisionJournal(8);
+        for (int i = 0; i < 3; i++)
+            journal.record(Decision.SELECTED, sstable, i);
+
+        assertEquals(3, journal.recorded());
+        assertLimits(journal.latest(10), 0, 1, 2);
+        assertLimits(journal.latest(2), 1, 2);
+    }
+
+    @Test
+    public void keepsTheLatestCapacityRoundedUp() {
+        DecisionJournal journal = new DecisionJournal(5);
+        for (int i = 0; i < 10; i++)
+            journal.record(Decision.EXPIRED, sstable, i);
+
+        assertEquals(10, journal.recorded());
+        assertLimits(journal.latest(100), 2, 3, 4, 5, 6, 7, 8, 9);
+    }
+
+    @Test
+    public void formatsTheRecordedValues() {
+        DecisionJournal journal = new DecisionJournal(DecisionJournal.DEFAULT_CAPACITY);
+        journal.record(Decision.AGED, sstable, 7);
+
+        String entry = journal.latest(1).get(0);
+        assertTrue(entry, entry.contains(" AGED "));
+        assertTrue(entry, entry.contains(" maxTs=19700101.000000 "));
+        assertTrue(entry, entry.contains(" maxLDT=none "));
+        assertTrue(entry, entry.contains(" bytes=4096 "));
+    }
+}
@@ -0,0 +1,143 @@
+package org.apache.cassandra.db.compaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.concurrent.ScheduledExecutors;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.junit.Test;
+
+public class ExpiryScheduleTest {
+
+    static final long RETRY = 100;
+
+    final Map<SSTableReader, Long> dropTimes = new HashMap<>();
+
+    SSTableReader table(int id, long droppableAtMillis) {
+        SSTableReader sstable = StubSSTableReader.create(id,
+                SyntheticSSTables.metadata(0, 10, Integer.MAX_VALUE, 0, 0), 1000);
+        dropTimes.put(sstable, droppableAtMillis);
+        return sstable;
+    }
+
+    ExpirySchedule schedule() {
+        return new ExpirySchedule(dropTimes::get, RETRY);
+    }
+
+    @Test
+    public void dueInDropTimeOrder() {
+        SSTableReader late = table(1, 2000);
+        SSTableReader early = table(2, 1000);
+        SSTableReader tied = table(3, 1000);
+        ExpirySchedule schedule = schedule();
+        schedule.replace(Collections.<SSTableReader>emptySet(),
+                Arrays.asList(late, early, tied, table(4, Long.MAX_VALUE)), 0);
+
+        assertEquals(3, schedule.size());
+        assertEquals(Collections.emptyList(), schedule.due(999));
+        assertEquals(Arrays.asList(early, tied), schedule.due(1000));
+        assertEquals(Arrays.asList(early, tied, late), schedule.due(2000));
+
+        schedule.remove(early);
+        assertEquals(Arrays.asList(tied, late), schedule.due(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void checkClaimedOnceWhenDue() {
+        SSTableReader first = table(1, 1000);
+        ExpirySchedule schedule = schedule();
+        schedule.add(first, 0);
+        schedule.add(table(2, 2000), 0);
+
+        assertFalse(schedule.claimCheck(999));
+        assertEquals(1000, schedule.nextDueMillis());
+        assertTrue(schedule.claimCheck(1000));
+        assertFalse(schedule.claimCheck(1000));
+        assertEquals(1000, schedule.lastCheckMillis());
+        assertEquals(2000, schedule.nextDueMillis());
+
+        schedule.remove(first);
+        assertFalse(schedule.claimCheck(1000 + RETRY + 1));
+        assertTrue(schedule.claimCheck(2000));
+        assertEquals(Long.MAX_VALUE, schedule.nextDueMillis());
+    }
+
+    @Test
+    public void blockedSSTablesRetriedAfterTheInterval() {
+        ExpirySchedule schedule = schedule();
+        schedule.add(table(1, 1000), 0);
+
+        assertTrue(schedule.claimCheck(1000));
+        assertFalse(schedule.claimCheck(1000 + RETRY));
+        assertTrue(schedule.claimCheck(1000 + RETRY + 1));
+        assertFalse(schedule.claimCheck(1000 + RETRY + 2));
+    }
+
+    @Test
+    public void resumedScheduleKeepsTheLastCheck() {
+        SSTableReader sstable = table(1, 1000);
+        ExpirySchedule schedule = schedule();
+        schedule.add(sstable, 0);
+        assertTrue(schedule.claimCheck(1500));
+
+        ExpirySchedule next = schedule();
+        next.add(sstable, 1500);
+        next.resume(schedule.lastCheckMillis());
+        next.resume(0);
+        assertEquals(1500, next.lastCheckMillis());
+        assertFalse(next.claimCheck(1500 + RETRY));
+        assertTrue(next.claimCheck(1500 + RETRY + 1));
+    }
+
+    @Test
+    public void loweredGraceAppliesToQueuedSSTables() {
+        SSTableReader sstable = table(1, 1000);
+        AtomicLong grace = new AtomicLong(5000);
+        ExpirySchedule schedule = new ExpirySchedule(dropTimes::get, grace::get, RETRY);
+        schedule.add(sstable, 0);
+
+        assertEquals(6000, schedule.nextDueMillis());
+        assertFalse(schedule.claimCheck(2000));
+        assertEquals(Collections.emptyList(), schedule.due(2000));
+
+        grace.set(500);
+        assertEquals(1500, schedule.nextDueMillis());
+        assertEquals(Arrays.asList(sstable), schedule.due(2000));
+        assertTrue(schedule.claimCheck(2000));
+        assertEquals(2000, schedule.lastCheckMillis());
+        assertFalse(schedule.claimCheck(2000 + RETRY));
+    }
+
+    @Test
+    public void timerRearmedWhenTheDueSSTableWentAway() throws Exception {
+        // starts the timer thread so the first wake is on time
+        ScheduledExecutors.optionalTasks.submit(() -> null).get();
+        long now = System.currentTimeMillis();
+        SSTableReader gone = table(1, now + 100);
+        SSTableReader next = table(2, now + 500);
+        ExpirySchedule schedule = new ExpirySchedule(dropTimes::get, 60_000);
+        Semaphore wakes = new Semaphore(0);
+        schedule.start(wakes::release, now);
+        try {
+            schedule.add(gone, now);
+            schedule.add(next, now);
+            schedule.remove(gone);
+
+            assertTrue(wakes.tryAcquire(5, TimeUnit.SECONDS));
+            assertTrue(wakes.tryAcquire(5, TimeUnit.SECONDS));
+            assertTrue(System.currentTimeMillis() >= now + 450);
+            assertFalse(wakes.tryAcquire(200, TimeUnit.MILLISECONDS));
+        } finally {
+            schedule.stop();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.apache.cassandra.db.compaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class SSTableOverlapIndexTest {
+
+    static final int GC_BEFORE = 1000;
+
+    // stub sstables all cover the whole ring, so they overlap each other
+    static SSTableReader table(int id, long minTimestamp, long maxTimestamp, int maxLdt) {
+        return StubSSTableReader.create(id,
+                SyntheticSSTables.metadata(minTimestamp, maxTimestamp, maxLdt, 0, 0), 1000);
+    }
+
+    @Test
+    public void replaceAndSize() {
+        SSTableReader a = table(1, 300, 310, 10);
+        SSTableReader b = table(2, 100, 110, 20);
+        SSTableReader c = table(3, 200, 210, 30);
+        SSTableOverlapIndex index = SSTableOverlapIndex.EMPTY.with(a).with(b).with(c);
+
+        assertEquals(3, index.size());
+        assertEquals(3, index.with(b).size());
+        assertEquals(2, index.without(b).size());
+        assertSame(index, index.without(table(4, 100, 110, 20)));
+
+        SSTableReader d = table(4, 50, 60, 40);
+        SSTableOverlapIndex replaced = index.replace(Arrays.asList(a, b), Arrays.asList(d));
+        assertEquals(2, replaced.size());
+        assertEquals(50, replaced.minLiveTimestamp(0));
+    }
+
+    @Test
+    public void minLiveTimestampSkipsExpired() {
+        SSTableOverlapIndex index = SSTableOverlapIndex.EMPTY
+                .with(table(1, 100, 110, GC_BEFORE - 1))
+                .with(table(2, 200, 210, GC_BEFORE))
+                .with(table(3, 300, 310, Integer.MAX_VALUE));
+
+        assertEquals(200, index.minLiveTimestamp(GC_BEFORE));
+        assertEquals(100, index.minLiveTimestamp(GC_BEFORE - 1));
+        assertEquals(300, index.minLiveTimestamp(GC_BEFORE + 1));
+        assertEquals(Long.MAX_VALUE, SSTableOverlapIndex.EMPTY.minLiveTimestamp(0));
+    }
+
+    @Test
+    public void fullyExpiredBlockedByOlderLiveData() {
+        SSTableReader expired = table(1, 100, 200, GC_BEFORE - 1);
+        SSTableReader older = table(2, 150, 400, GC_BEFORE);
+        SSTableReader newer = table(3, 201, 400, GC_BEFORE);
+
+        SSTableOverlapIndex blocked = SSTableOverlapIndex.EMPTY.with(expired).with(older);
+        assertEquals(Collections.emptySet(),
+                blocked.fullyExpired(Arrays.asList(expired), GC_BEFORE, Long.MAX_VALUE));
+
+        SSTableOverlapIndex clear = SSTableOverlapIndex.EMPTY.with(expired).with(newer);
+        assertEquals(ImmutableSet.of(expired),
+                clear.fullyExpired(Arrays.asList(expired), GC_BEFORE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void fullyExpiredBlockedOutsideTheIndex() {
+        SSTableReader expired = table(1, 100, 200, GC_BEFORE - 1);
+        SSTableOverlapIndex index = SSTableOverlapIndex.EMPTY.with(expired);
+
+        assertEquals(Collections.emptySet(),
+                index.fullyExpired(Arrays.asList(expired), GC_BEFORE, 200));
+        assertEquals(ImmutableSet.of(expired),
+                index.fullyExpired(Arrays.asList(expired), GC_BEFORE, 201));
+    }
+
+    @Test
+    public void liveCandidateIsNotExpired() {
+        SSTableReader live = table(1, 100, 200, GC_BEFORE);
+        SSTableOverlapIndex index = SSTableOverlapIndex.EMPTY.with(live);
+
+        assertEquals(Collections.emptySet(),
+                index.fullyExpired(Arrays.asList(live), GC_BEFORE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void singleAddsMatchBulkReplace() {
+        Random random = new Random(7);
+        List<SSTableReader> tables = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            long min = random.nextInt(1000);
+            tables.add(table(i, min, min + random.nextInt(100),
+                    GC_BEFORE - 50 + random.nextInt(100)));
+        }
+
+        SSTableOverlapIndex single = SSTableOverlapIndex.EMPTY;
+        for (SSTableReader table : tables)
+            single = single.with(table);
+        SSTableOverlapIndex bulk = SSTableOverlapIndex.EMPTY
+                .replace(Collections.<SSTableReader>emptySet(), tables);
+
+        assertEquals(bulk.size(), single.size());
+        assertEquals(bulk.minLiveTimestamp(GC_BEFORE), single.minLiveTimestamp(GC_BEFORE));
+        assertEquals(bulk.fullyExpired(tables, GC_BEFORE, Long.MAX_VALUE),
+                single.fullyExpired(tables, GC_BEFORE, Long.MAX_VALUE));
+    }
+}
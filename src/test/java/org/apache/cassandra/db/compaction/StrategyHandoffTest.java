@@ -0,0 +1,140 @@
+package org.apache.cassandra.db.compaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StrategyHandoffTest {
+
+    static final long HOUR_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    static SSTableReader table(int id, long hour) {
+        return StubSSTableReader.create(id, SyntheticSSTables.metadata(hour * HOUR_MICROS,
+                hour * HOUR_MICROS + 10, Integer.MAX_VALUE, 0, 0), 1000);
+    }
+
+    static StrategyHandoff handoff(TimeWindowCompactionStrategyOptionsHelper options,
+            long highestWindowSeen, SSTableReader... sstables) {
+        TimeWindowIndex index = new TimeWindowIndex(options.sstableWindowUnit,
+                options.sstableWindowSize, options.timestampResolution);
+        for (SSTableReader sstable : sstables)
+            index = index.with(sstable);
+        return new StrategyHandoff(options, index, SSTableOverlapIndex.EMPTY,
+                highestWindowSeen, Long.MIN_VALUE);
+    }
+
+    static Map<String, String> windows(String unit, String size) {
+        Map<String, String> options = new HashMap<>();
+        options.put("compaction_window_unit", unit);
+        options.put("compaction_window_size", size);
+        return options;
+    }
+
+    @Before
+    public void clear() {
+        StrategyHandoff.prune(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void claimedOnceByTheSSTablesItHolds() {
+        UUID table = UUID.randomUUID();
+        SSTableReader held = table(1, 10);
+        StrategyHandoff handoff = handoff(new TimeWindowCompactionStrategyOptionsHelper(), 0,
+                held);
+        StrategyHandoff.leave(table, handoff);
+
+        assertNull(StrategyHandoff.claim(UUID.randomUUID(), held));
+        assertNull(StrategyHandoff.claim(table, table(2, 10)));
+        assertSame(handoff, StrategyHandoff.claim(table, held));
+        assertNull(StrategyHandoff.claim(table, held));
+        assertEquals(0, StrategyHandoff.pendingTables());
+    }
+
+    @Test
+    public void expiredHandoffIsNotClaimed() {
+        UUID table = UUID.randomUUID();
+        SSTableReader held = table(1, 10);
+        StrategyHandoff handoff = handoff(new TimeWindowCompactionStrategyOptionsHelper(), 0,
+                held);
+        StrategyHandoff.leave(table, handoff);
+
+        long expired = handoff.leftMillis + TimeUnit.MINUTES.toMillis(1) + 1;
+        assertNull(StrategyHandoff.claim(table, held, expired));
+        assertEquals(0, StrategyHandoff.pendingTables());
+    }
+
+    @Test
+    public void leavingPrunesEveryTable() {
+        StrategyHandoff.leave(UUID.randomUUID(),
+                handoff(new TimeWindowCompactionStrategyOptionsHelper(), 0, table(1, 10)));
+        StrategyHandoff.leave(UUID.randomUUID(),
+                handoff(new TimeWindowCompactionStrategyOptionsHelper(), 0, table(2, 10)));
+        assertEquals(2, StrategyHandoff.pendingTables());
+
+        StrategyHandoff.prune(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2));
+        assertEquals(0, StrategyHandoff.pendingTables());
+    }
+
+    @Test
+    public void claimingPrunesEveryTable() {
+        StrategyHandoff.leave(UUID.randomUUID(),
+                handoff(new TimeWindowCompactionStrategyOptionsHelper(), 0, table(1, 10)));
+
+        assertNull(StrategyHandoff.claim(UUID.randomUUID(), table(1, 10),
+                System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2)));
+        assertEquals(0, StrategyHandoff.pendingTables());
+    }
+
+    @Test
+    public void droppedTableLeavesNoHandoff() {
+        SSTableReader held = table(1, 10);
+        StubColumnFamilyStore cfs = StubColumnFamilyStore.create("ks", "dropped",
+                Collections.singletonList(held));
+        TimeWindowCompactionStrategyHelper changed = new TimeWindowCompactionStrategyHelper(
+                cfs, windows("HOURS", "1"));
+        changed.addSSTable(held);
+        changed.shutdown();
+        assertEquals(1, StrategyHandoff.pendingTables());
+        StrategyHandoff.prune(Long.MAX_VALUE);
+
+        TimeWindowCompactionStrategyHelper dropped = new TimeWindowCompactionStrategyHelper(
+                cfs, windows("HOURS", "1"));
+        dropped.addSSTable(held);
+        cfs.markDropped();
+        dropped.shutdown();
+        assertEquals(0, StrategyHandoff.pendingTables());
+    }
+
+    @Test
+    public void clocksOfOtherWindowsAreNotAdopted() {
+        SSTableReader held = table(1, 10);
+        StubColumnFamilyStore cfs = StubColumnFamilyStore.create("ks", "handoff",
+                Collections.singletonList(held));
+        Map<String, String> days = windows("DAYS", "1");
+        StrategyHandoff.leave(cfs.metadata.cfId,
+                handoff(new TimeWindowCompactionStrategyOptionsHelper(days), 1234, held));
+
+        TimeWindowCompactionStrategyHelper hours = new TimeWindowCompactionStrategyHelper(cfs,
+                windows("HOURS", "1"));
+        hours.addSSTable(held);
+        assertEquals(0, hours.highestWindowSeen.get());
+        assertEquals(1, hours.windowIndex.get().size());
+
+        StrategyHandoff.leave(cfs.metadata.cfId,
+                handoff(new TimeWindowCompactionStrategyOptionsHelper(days), 1234, held));
+        TimeWindowCompactionStrategyHelper same = new TimeWindowCompactionStrategyHelper(cfs,
+                days);
+        same.addSSTable(held);
+        assertEquals(1234, same.highestWindowSeen.get());
+    }
+}
@@ -0,0 +1,424 @@
+package org.apache.cassandra.db.compaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableSet;
+
+public class TimeWindowCompactionStrategyHelperTest {
+
+    static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    static final long MB = 1024 * 1024;
+    // midnight, the strategies below run at noon
+    static final long TODAY = 100 * DAY_MILLIS;
+
+    static SSTableReader table(int id, long minMillis, long maxMillis, int maxLdt,
+            long bytes) {
+        return StubSSTableReader.create(id,
+                SyntheticSSTables.metadata(TimeUnit.MILLISECONDS.toMicros(minMillis),
+                        TimeUnit.MILLISECONDS.toMicros(maxMillis), maxLdt, 0, 0),
+                bytes);
+    }
+
+    static Map<String, String> hours() {
+        Map<String, String> options = new HashMap<>();
+        options.put("compaction_window_unit", "HOURS");
+        options.put("compaction_window_size", "1");
+        return options;
+    }
+
+    /**
+     * The helper on a stub table, with its own clock and purge setting.
+     */
+    static class Strategy extends TimeWindowCompactionStrategyHelper {
+        long now = System.currentTimeMillis();
+        boolean neverPurge;
+        // null if layouts are not saved
+        File layouts;
+
+        Strategy(StubColumnFamilyStore cfs, Map<String, String> options) {
+            super(cfs, options);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        protected boolean neverPurgeTombstones() {
+            return neverPurge;
+        }
+
+        @Override
+        protected File layoutFile(boolean repaired) {
+            return layouts == null ? null
+                    : new File(layouts, repaired ? "repaired" : "unrepaired");
+        }
+    }
+
+    // one hour of data at hour of day
+    static SSTableReader hour(int id, long day, int hour) {
+        long start = day + hour * HOUR_MILLIS;
+        return table(id, start, start + HOUR_MILLIS - 1, Integer.MAX_VALUE, 1000);
+    }
+
+    static Map<String, String> rollupToDays() {
+        Map<String, String> options = hours();
+        options.put("rollup_tiers", "1440:1440");
+        return options;
+    }
+
+    static Strategy strategy(Map<String, String> options, List<SSTableReader> sstables) {
+        Strategy strategy = new Strategy(StubColumnFamilyStore.create("ks",
+                "helper" + System.nanoTime(), sstables), options);
+        for (SSTableReader sstable : sstables)
+            strategy.addSSTable(sstable);
+        return strategy;
+    }
+
+    @Test
+    public void nothingExpiresWhileTombstonesAreNeverPurged() {
+        long now = System.currentTimeMillis();
+        int gcBefore = (int) TimeUnit.MILLISECONDS.toSeconds(now);
+        SSTableReader expired = table(1, 0, 10, 1000, 1000);
+        SSTableReader live = table(2, 20, 30, Integer.MAX_VALUE, 1000);
+        Strategy strategy = strategy(hours(), Arrays.asList(expired, live));
+        ImmutableSet<SSTableReader> candidates = ImmutableSet.of(expired, live);
+
+        assertEquals(ImmutableSet.of(expired), strategy.getFullyExpiredSSTables(
+                strategy.windowIndex.get(), candidates, gcBefore));
+
+        strategy.neverPurge = true;
+        assertEquals(Collections.emptySet(), strategy.getFullyExpiredSSTables(
+                strategy.windowIndex.get(), candidates, gcBefore));
+    }
+
+    @Test
+    public void adoptedIndexOfTheOtherStrategyIsNotTrusted() {
+        long now = System.currentTimeMillis();
+        int gcBefore = (int) TimeUnit.MILLISECONDS.toSeconds(now);
+        SSTableReader expired = table(1, 20, 30, 1000, 1000);
+        SSTableReader blocker = table(2, 0, 40, Integer.MAX_VALUE, 1000);
+        // in the handoff, gone by the time the other strategy adopts it
+        SSTableReader gone = table(3, 50, 60, Integer.MAX_VALUE, 1000);
+        StubColumnFamilyStore cfs = StubColumnFamilyStore.create("ks",
+                "adopted" + System.nanoTime(), Arrays.asList(expired, blocker));
+        Strategy strategy = new Strategy(cfs, hours());
+        strategy.addSSTable(expired);
+        StrategyHandoff.leave(cfs.metadata.cfId, new StrategyHandoff(
+                new TimeWindowCompactionStrategyOptionsHelper(hours()),
+                new TimeWindowIndex(TimeUnit.HOURS, 1, TimeUnit.MICROSECONDS).with(gone),
+                SSTableOverlapIndex.EMPTY.with(gone), 0, Long.MIN_VALUE));
+        Strategy other = new Strategy(cfs, hours());
+        other.addSSTable(gone);
+        cfs.manage(strategy, other);
+
+        // one sstable in each index and two live ones, but not the same
+        assertEquals(Collections.emptySet(), strategy.getFullyExpiredSSTables(
+                strategy.windowIndex.get(), ImmutableSet.of(expired), gcBefore));
+    }
+
+    @Test
+    public void loweredGcGraceExpiresQueuedSSTables() {
+        long now = System.currentTimeMillis();
+        int nowSeconds = (int) TimeUnit.MILLISECONDS.toSeconds(now);
+        SSTableReader expired = table(1, 0, 10, nowSeconds - 3600, 1000);
+        Strategy strategy = strategy(hours(), Arrays.asList(expired));
+        strategy.cfs.metadata.gcGraceSeconds(86400);
+        ImmutableSet<SSTableReader> candidates = ImmutableSet.of(expired);
+
+        assertEquals(Collections.emptySet(), strategy.getFullyExpiredSSTables(
+                strategy.windowIndex.get(), candidates, nowSeconds - 86400));
+
+        strategy.cfs.metadata.gcGraceSeconds(60);
+        assertEquals(ImmutableSet.of(expired), strategy.getFullyExpiredSSTables(
+                strategy.windowIndex.get(), candidates, nowSeconds - 60));
+    }
+
+    @Test
+    public void rollsUpTheOldestColdDayFirst() {
+        SSTableReader[] threeDaysAgo = { hour(1, TODAY - 3 * DAY_MILLIS, 5),
+                hour(2, TODAY - 3 * DAY_MILLIS, 1) };
+        SSTableReader[] twoDaysAgo = { hour(3, TODAY - 2 * DAY_MILLIS, 4),
+                hour(4, TODAY - 2 * DAY_MILLIS, 2), hour(5, TODAY - 2 * DAY_MILLIS, 3) };
+        List<SSTableReader> all = new ArrayList<>();
+        Collections.addAll(all, threeDaysAgo);
+        Collections.addAll(all, twoDaysAgo);
+        Strategy strategy = strategy(rollupToDays(), all);
+        strategy.now = TODAY + 12 * HOUR_MILLIS;
+
+        assertEquals(Arrays.asList(threeDaysAgo[1], threeDaysAgo[0]),
+                strategy.getNextNonExpiredSSTables(ImmutableSet.copyOf(all), 0));
+
+        SSTableReader rolledUp = table(6, TODAY - 3 * DAY_MILLIS,
+                TODAY - 2 * DAY_MILLIS - 1, Integer.MAX_VALUE, 2000);
+        strategy.replaceSSTables(Arrays.asList(threeDaysAgo), Arrays.asList(rolledUp));
+        all.removeAll(Arrays.asList(threeDaysAgo));
+        all.add(rolledUp);
+        assertEquals(Arrays.asList(twoDaysAgo[1], twoDaysAgo[2], twoDaysAgo[0]),
+                strategy.getNextNonExpiredSSTables(ImmutableSet.copyOf(all), 0));
+    }
+
+    @Test
+    public void daysYoungerThanTheTierAgeAreNotRolledUp() {
+        // yesterday ends at midnight, half a day before now
+        List<SSTableReader> yesterday = Arrays.asList(hour(1, TODAY - DAY_MILLIS, 1),
+                hour(2, TODAY - DAY_MILLIS, 2));
+        Strategy strategy = strategy(rollupToDays(), yesterday);
+        strategy.now = TODAY + 12 * HOUR_MILLIS;
+
+        assertEquals(Collections.emptyList(),
+                strategy.getNextNonExpiredSSTables(ImmutableSet.copyOf(yesterday), 0));
+
+        strategy.now = TODAY + DAY_MILLIS;
+        assertEquals(2, strategy
+                .getNextNonExpiredSSTables(ImmutableSet.copyOf(yesterday), 0).size());
+    }
+
+    @Test
+    public void daysExpiringWithinAWindowAreNotRolledUp() {
+        long now = TODAY + 12 * HOUR_MILLIS;
+        int expiresSoon = (int) TimeUnit.MILLISECONDS.toSeconds(now + HOUR_MILLIS);
+        long start = TODAY - 3 * DAY_MILLIS;
+        List<SSTableReader> sstables = Arrays.asList(hour(1, start, 1),
+                table(2, start + 2 * HOUR_MILLIS, start + 3 * HOUR_MILLIS, expiresSoon,
+                        1000));
+        Strategy strategy = strategy(rollupToDays(), sstables);
+        strategy.now = now;
+
+        assertEquals(Collections.emptyList(),
+                strategy.getNextNonExpiredSSTables(ImmutableSet.copyOf(sstables), 0));
+    }
+
+    // newest cell at hour of today
+    static SSTableReader sized(int id, int hour, long bytes) {
+        long start = TODAY + hour * HOUR_MILLIS;
+        return table(id, start, start + 10, Integer.MAX_VALUE, bytes);
+    }
+
+    @Test
+    public void benefitSelectionPrefersTheCheapestMerge() {
+        List<SSTableReader> large = Arrays.asList(sized(1, 2, 1024 * MB),
+                sized(2, 2, 1024 * MB));
+        List<SSTableReader> small = Arrays.asList(sized(3, 1, MB), sized(4, 1, MB),
+                sized(5, 1, MB));
+        List<SSTableReader> all = new ArrayList<>(large);
+        all.addAll(small);
+        all.add(sized(6, 3, MB));
+
+        Strategy newest = strategy(hours(), all);
+        assertEquals(ImmutableSet.copyOf(large), ImmutableSet.copyOf(
+                newest.getNextNonExpiredSSTables(ImmutableSet.copyOf(all), 0)));
+
+        Map<String, String> benefit = hours();
+        benefit.put("window_selection", "BENEFIT");
+        Strategy cheapest = strategy(benefit, all);
+        assertEquals(ImmutableSet.copyOf(small), ImmutableSet.copyOf(
+                cheapest.getNextNonExpiredSSTables(ImmutableSet.copyOf(all), 0)));
+    }
+
+    @Test
+    public void benefitSelectionTrimsToTheBudget() {
+        List<SSTableReader> window = Arrays.asList(sized(1, 1, MB), sized(2, 1, MB),
+                sized(3, 1, 5 * MB));
+        List<SSTableReader> all = new ArrayList<>(window);
+        all.add(sized(4, 2, MB));
+        Map<String, String> options = hours();
+        options.put("window_selection", "BENEFIT");
+        options.put("compaction_budget_in_mb", "3");
+        Strategy strategy = strategy(options, all);
+
+        assertEquals(ImmutableSet.of(window.get(0), window.get(1)), ImmutableSet.copyOf(
+                strategy.getNextNonExpiredSSTables(ImmutableSet.copyOf(all), 0)));
+    }
+
+    @Test
+    public void windowsAboutToExpireAreDeferred() {
+        long now = TODAY + 12 * HOUR_MILLIS;
+        int inHalfAnHour = (int) TimeUnit.MILLISECONDS.toSeconds(now + HOUR_MILLIS / 2);
+        int inADay = (int) TimeUnit.MILLISECONDS.toSeconds(now + DAY_MILLIS);
+        long start = TODAY + HOUR_MILLIS;
+        SSTableReader expiring = table(1, start, start + 10, inHalfAnHour, 1000);
+        SSTableReader alsoExpiring = table(2, start, start + 20, inHalfAnHour, 1000);
+        SSTableReader later = table(3, start, start + 30, inADay, 1000);
+        SSTableReader current = sized(4, 11, 1000);
+        Map<String, String> options = hours();
+        options.put("expiry_deferral_minutes", "60");
+
+        List<SSTableReader> deferred = Arrays.asList(expiring, alsoExpiring, current);
+        Strategy strategy = strategy(options, deferred);
+        strategy.cfs.metadata.gcGraceSeconds(0);
+        strategy.now = now;
+        assertEquals(Collections.emptyList(),
+                strategy.getNextNonExpiredSSTables(ImmutableSet.copyOf(deferred), 0));
+
+        List<SSTableReader> compacted = Arrays.asList(expiring, later, current);
+        strategy = strategy(options, compacted);
+        strategy.cfs.metadata.gcGraceSeconds(0);
+        strategy.now = now;
+        assertEquals(ImmutableSet.of(expiring, later), ImmutableSet.copyOf(
+                strategy.getNextNonExpiredSSTables(ImmutableSet.copyOf(compacted), 0)));
+    }
+
+    @Test
+    public void fastLaneMergesSmallCurrentFlushesFirst() {
+        List<SSTableReader> small = Arrays.asList(sized(1, 5, MB), sized(2, 5, MB),
+                sized(3, 5, MB));
+        List<SSTableReader> old = Arrays.asList(sized(4, 1, MB), sized(5, 1, MB));
+        List<SSTableReader> all = new ArrayList<>(small);
+        all.addAll(old);
+        all.add(sized(6, 5, 100 * MB));
+
+        Strategy regular = strategy(hours(), all);
+        AbstractCompactionTask task = regular.getNextBackgroundTask(0);
+        assertEquals(ImmutableSet.copyOf(old), task.transaction.originals());
+        task.transaction.abort();
+
+        Map<String, String> options = hours();
+        options.put("fast_lane_max_sstable_size_in_mb", "10");
+        options.put("fast_lane_min_sstables", "3");
+        Strategy fastLane = strategy(options, all);
+        AbstractCompactionTask merge = fastLane.getNextBackgroundTask(0);
+        AbstractCompactionTask next = fastLane.getNextBackgroundTask(0);
+        try {
+            assertEquals(ImmutableSet.copyOf(small), merge.transaction.originals());
+            assertEquals(ImmutableSet.copyOf(old), next.transaction.originals());
+        } finally {
+            merge.transaction.abort();
+            next.transaction.abort();
+        }
+    }
+
+    @Test
+    public void majorCompactionRunsOneTaskPerWindow() {
+        List<SSTableReader> first = Arrays.asList(sized(1, 1, MB), sized(2, 1, MB));
+        List<SSTableReader> second = Arrays.asList(sized(3, 2, MB));
+        List<SSTableReader> third = Arrays.asList(sized(4, 3, MB), sized(5, 3, MB));
+        List<SSTableReader> all = new ArrayList<>(first);
+        all.addAll(second);
+        all.addAll(third);
+        Map<String, String> options = hours();
+        options.put("major_compaction_min_sstables", "2");
+        Strategy strategy = strategy(options, all);
+
+        List<Set<SSTableReader>> windows = new ArrayList<>();
+        Collection<AbstractCompactionTask> tasks = strategy.getMaximalTask(0, false);
+        try {
+            for (AbstractCompactionTask task : tasks)
+                windows.add(task.transaction.originals());
+            assertEquals(Arrays.asList(ImmutableSet.copyOf(third), ImmutableSet.copyOf(first)),
+                    windows);
+            // every window is compacting
+            assertNull(strategy.getMaximalTask(0, false));
+        } finally {
+            for (AbstractCompactionTask task : tasks)
+                task.transaction.abort();
+        }
+    }
+
+    @Test
+    public void majorCompactionOfAnEmptyTableIsNull() {
+        Strategy strategy = strategy(hours(), Collections.<SSTableReader>emptyList());
+        assertNull(strategy.getMaximalTask(0, false));
+        assertNull(strategy.getMaximalTask(0, true));
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void adaptiveWindowLayoutSurvivesARestart() throws Exception {
+        Map<String, String> options = hours();
+        options.put("adaptive_window_sizing", "true");
+        options.put("min_sstables_per_window", "4");
+        options.put("max_sstables_per_window", "16");
+        File layouts = folder.newFolder();
+        Strategy strategy = strategy(options, Collections.<SSTableReader>emptyList());
+        strategy.layouts = layouts;
+        List<SSTableReader> flushed = new ArrayList<>();
+        for (int i = 0; i <= 32; i++) {
+            strategy.now = TODAY + i * HOUR_MILLIS / 32;
+            SSTableReader sstable = table(i, strategy.now - 10, strategy.now,
+                    Integer.MAX_VALUE, 1000);
+            flushed.add(sstable);
+            strategy.addSSTable(sstable);
+        }
+        WindowLayout layout = strategy.windowIndex.get().layout();
+        assertEquals(TODAY + 2 * HOUR_MILLIS, layout.lastStart());
+
+        Strategy restarted = new Strategy(StubColumnFamilyStore.create("ks", "restarted",
+                flushed), options);
+        restarted.layouts = layouts;
+        restarted.now = TODAY + 3 * HOUR_MILLIS;
+        for (SSTableReader sstable : flushed)
+            restarted.addSSTable(sstable);
+        assertEquals(layout.serialize(), restarted.windowIndex.get().layout().serialize());
+    }
+
+    @Test
+    public void savedLayoutKeepsOnlyTheLiveSegments() throws Exception {
+        Map<String, String> options = hours();
+        options.put("adaptive_window_sizing", "true");
+        options.put("min_sstables_per_window", "4");
+        options.put("max_sstables_per_window", "16");
+        File layouts = folder.newFolder();
+        Strategy strategy = strategy(options, Collections.<SSTableReader>emptyList());
+        strategy.layouts = layouts;
+        List<SSTableReader> flushed = new ArrayList<>();
+        for (int i = 0; i <= 32; i++) {
+            strategy.now = TODAY + i * HOUR_MILLIS / 32;
+            SSTableReader sstable = table(i, strategy.now - 10, strategy.now,
+                    Integer.MAX_VALUE, 1000);
+            flushed.add(sstable);
+            strategy.addSSTable(sstable);
+        }
+        for (SSTableReader sstable : flushed)
+            strategy.removeSSTable(sstable);
+        // one flush per quarter hour window grows the windows again
+        for (int i = 0; i < 2; i++) {
+            strategy.now = TODAY + 2 * HOUR_MILLIS + i * HOUR_MILLIS / 4;
+            strategy.addSSTable(table(100 + i, strategy.now - 10, strategy.now,
+                    Integer.MAX_VALUE, 1000));
+        }
+
+        WindowLayout layout = strategy.windowIndex.get().layout();
+        // quarter hours, then 8 hours, then 2 hours
+        assertEquals(3, layout.segments());
+        // the configured hours are gone with the sstables in them
+        assertEquals(HOUR_MILLIS / 4, layout.sizeAt(TODAY));
+        assertEquals(layout.serialize(), new String(Files.readAllBytes(
+                new File(layouts, "unrepaired").toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void startupLoadKeepsTheWindowLayout() {
+        Map<String, String> options = hours();
+        options.put("adaptive_window_sizing", "true");
+        List<SSTableReader> old = new ArrayList<>();
+        for (int i = 0; i < 64; i++)
+            old.add(hour(i, TODAY - DAY_MILLIS, i % 2 == 0 ? 1 : i % 24));
+        Strategy strategy = strategy(options, old);
+
+        assertEquals(Long.MIN_VALUE, strategy.windowIndex.get().layout().lastStart());
+    }
+}
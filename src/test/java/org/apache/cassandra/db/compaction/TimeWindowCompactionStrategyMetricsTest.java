@@ -0,0 +1,72 @@
+package org.apache.cassandra.db.compaction;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.junit.Test;
+
+public class TimeWindowCompactionStrategyMetricsTest {
+
+    @Test
+    public void reloadedStrategyKeepsTheName() throws Exception {
+        StubColumnFamilyStore cfs = StubColumnFamilyStore.create("ks", "metrics",
+                Collections.<SSTableReader>emptyList());
+        ObjectName name = new ObjectName(TimeWindowCompactionStrategyMetrics.DOMAIN
+                + ":type=CompactionStrategy,keyspace=ks,table=metrics,repaired=false");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        TimeWindowCompactionStrategyMetrics replaced = new TimeWindowCompactionStrategyHelper(
+                cfs, Collections.<String, String>emptyMap()).metrics;
+        TimeWindowCompactionStrategyMetrics current = new TimeWindowCompactionStrategyHelper(
+                cfs, Collections.<String, String>emptyMap()).metrics;
+        replaced.register();
+        assertTrue(server.isRegistered(name));
+
+        current.register();
+        replaced.unregister();
+        assertTrue(server.isRegistered(name));
+
+        current.unregister();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void registeredOnceTheTableHoldsTheManager() throws Exception {
+        StubColumnFamilyStore cfs = StubColumnFamilyStore.create("ks", "opening",
+                Collections.<SSTableReader>emptyList());
+        cfs.clearStrategyManager();
+        ObjectName repairedName = new ObjectName(TimeWindowCompactionStrategyMetrics.DOMAIN
+                + ":type=CompactionStrategy,keyspace=ks,table=opening,repaired=true");
+        ObjectName unrepairedName = new ObjectName(TimeWindowCompactionStrategyMetrics.DOMAIN
+                + ":type=CompactionStrategy,keyspace=ks,table=opening,repaired=false");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        TimeWindowCompactionStrategyHelper repaired = new TimeWindowCompactionStrategyHelper(
+                cfs, Collections.<String, String>emptyMap());
+        TimeWindowCompactionStrategyHelper unrepaired = new TimeWindowCompactionStrategyHelper(
+                cfs, Collections.<String, String>emptyMap());
+        repaired.startup();
+        unrepaired.startup();
+        assertFalse(server.isRegistered(repairedName));
+        assertFalse(server.isRegistered(unrepairedName));
+
+        cfs.manage(repaired, unrepaired);
+        repaired.getNextBackgroundTask(0);
+        unrepaired.getNextBackgroundTask(0);
+        assertTrue(server.isRegistered(repairedName));
+        assertTrue(server.isRegistered(unrepairedName));
+
+        repaired.shutdown();
+        unrepaired.shutdown();
+        unrepaired.getNextBackgroundTask(0);
+        assertFalse(server.isRegistered(repairedName));
+        assertFalse(server.isRegistered(unrepairedName));
+    }
+}
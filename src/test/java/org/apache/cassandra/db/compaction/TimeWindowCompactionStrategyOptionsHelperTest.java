@@ -0,0 +1,197 @@
+package org.apache.cassandra.db.compaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.junit.Test;
+
+import cassandra.strategy.AgeingCompactionStrategy;
+import cassandra.strategy.AgeingCompactionStrategyOptions;
+import cassandra.strategy.EasyTimeWindowCompactionStrategy;
+import cassandra.strategy.EasyTimeWindowCompactionStrategyOptions;
+
+public class TimeWindowCompactionStrategyOptionsHelperTest {
+
+    // every option of the helper, set to a valid value other than the default
+    static Map<String, String> allOptions() {
+        Map<String, String> options = new HashMap<>();
+        options.put("timestamp_resolution", "MILLISECONDS");
+        options.put("compaction_window_unit", "HOURS");
+        options.put("compaction_window_size", "6");
+        options.put("expired_sstable_check_frequency_seconds", "60");
+        options.put("parallel_window_compactions", "3");
+        options.put("max_sstable_size_in_mb", "1024");
+        options.put("window_selection", "BENEFIT");
+        options.put("compaction_budget_in_mb", "4096");
+        options.put("adaptive_window_sizing", "true");
+        options.put("min_sstables_per_window", "2");
+        options.put("max_sstables_per_window", "16");
+        options.put("max_live_windows", "100");
+        options.put("rollup_tiers", "1440:1440,10080:10080");
+        options.put("split_spanning_sstables", "true");
+        options.put("major_compaction_min_sstables", "3");
+        options.put("expiry_deferral_minutes", "120");
+        options.put("fast_lane_max_sstable_size_in_mb", "16");
+        options.put("fast_lane_min_sstables", "8");
+        options.put("min_threshold", "4");
+        options.put("max_threshold", "32");
+        return options;
+    }
+
+    static void assertRejected(String key, String value) {
+        Map<String, String> options = new HashMap<>();
+        options.put(key, value);
+        try {
+            TimeWindowCompactionStrategyHelper.validateOptions(options);
+            fail(key + "=" + value + " accepted");
+        } catch (ConfigurationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(key));
+        }
+    }
+
+    @Test
+    public void everyOptionIsChecked() throws ConfigurationException {
+        assertEquals(new HashMap<String, String>(),
+                TimeWindowCompactionStrategyHelper.validateOptions(allOptions()));
+    }
+
+    @Test
+    public void strategiesCheckEveryOption() throws ConfigurationException {
+        Map<String, String> ageing = allOptions();
+        ageing.put(AgeingCompactionStrategyOptions.AGE_MINUTES, "1440");
+        ageing.put(AgeingCompactionStrategyOptions.MAX_AGED_TABLES, "8");
+        ageing.put(AgeingCompactionStrategyOptions.MAX_LDT, "0");
+        ageing.put(AgeingCompactionStrategyOptions.DRY_RUN, "false");
+        ageing.put(AgeingCompactionStrategyOptions.PURGE_AGED_CELLS, "true");
+        ageing.put(AgeingCompactionStrategyOptions.MAX_FILE_SILE_MB, "10240");
+        assertEquals(new HashMap<String, String>(),
+                AgeingCompactionStrategy.validateOptions(ageing));
+
+        Map<String, String> easy = allOptions();
+        easy.put(EasyTimeWindowCompactionStrategyOptions.MAX_FILE_SILE_MB, "10240");
+        assertEquals(new HashMap<String, String>(),
+                EasyTimeWindowCompactionStrategy.validateOptions(easy));
+    }
+
+    @Test
+    public void unknownOptionIsLeftUnchecked() throws ConfigurationException {
+        Map<String, String> options = allOptions();
+        options.put("no_such_option", "1");
+        assertEquals(1,
+                TimeWindowCompactionStrategyHelper.validateOptions(options).size());
+    }
+
+    @Test
+    public void parallelWindowCompactions() {
+        assertRejected("parallel_window_compactions", "0");
+        assertRejected("parallel_window_compactions", "two");
+    }
+
+    @Test
+    public void maxSSTableSize() {
+        assertRejected("max_sstable_size_in_mb", "-1");
+        assertRejected("max_sstable_size_in_mb", "1g");
+        assertEquals(1024L * 1024L * 1024L, new TimeWindowCompactionStrategyOptionsHelper(
+                allOptions()).maxSSTableBytes);
+    }
+
+    @Test
+    public void windowSelection() {
+        assertRejected("window_selection", "OLDEST");
+        assertRejected("compaction_budget_in_mb", "-1");
+        TimeWindowCompactionStrategyOptionsHelper options = new TimeWindowCompactionStrategyOptionsHelper(
+                allOptions());
+        assertEquals(TimeWindowCompactionStrategyOptionsHelper.WindowSelection.BENEFIT,
+                options.windowSelection);
+        assertEquals(4096L * 1024L * 1024L, options.compactionBudgetBytes);
+    }
+
+    @Test
+    public void adaptiveWindowSizing() {
+        assertRejected("adaptive_window_sizing", "yes");
+        assertRejected("min_sstables_per_window", "0");
+        assertRejected("max_live_windows", "-1");
+        Map<String, String> options = new HashMap<>();
+        options.put("min_sstables_per_window", "8");
+        options.put("max_sstables_per_window", "4");
+        try {
+            TimeWindowCompactionStrategyHelper.validateOptions(options);
+            fail("max below min accepted");
+        } catch (ConfigurationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("max_sstables_per_window"));
+        }
+    }
+
+    @Test
+    public void rollupTiers() {
+        assertRejected("rollup_tiers", "1440");
+        assertRejected("rollup_tiers", "1440:1440,720:10080");
+        assertRejected("rollup_tiers", "1440:1440,10080:2000");
+        TimeWindowCompactionStrategyOptionsHelper options = //
+                new TimeWindowCompactionStrategyOptionsHelper(allOptions());
+        assertEquals(2, options.rollupAgesMillis.length);
+        assertEquals(TimeUnit.DAYS.toMillis(7), options.rollupWindowsMillis[1]);
+    }
+
+    @Test
+    public void rollupWindowsAreWholeCompactionWindows() throws ConfigurationException {
+        // a day by default
+        assertRejected("rollup_tiers", "60:90");
+        Map<String, String> options = new HashMap<>();
+        options.put("compaction_window_unit", "HOURS");
+        options.put("compaction_window_size", "6");
+        options.put("rollup_tiers", "1440:600");
+        try {
+            TimeWindowCompactionStrategyHelper.validateOptions(options);
+            fail("10 hour windows over 6 hour windows accepted");
+        } catch (ConfigurationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("rollup_tiers"));
+        }
+        options.put("rollup_tiers", "1440:720");
+        TimeWindowCompactionStrategyHelper.validateOptions(options);
+    }
+
+    @Test
+    public void splitSpanningSSTables() {
+        assertRejected("split_spanning_sstables", "1");
+        assertTrue(new TimeWindowCompactionStrategyOptionsHelper(
+                allOptions()).splitSpanningSSTables);
+    }
+
+    @Test
+    public void majorCompactionMinSSTables() {
+        assertRejected("major_compaction_min_sstables", "0");
+        assertRejected("major_compaction_min_sstables", "all");
+        assertEquals(3, new TimeWindowCompactionStrategyOptionsHelper(
+                allOptions()).majorCompactionMinSSTables);
+        assertEquals(1, new TimeWindowCompactionStrategyOptionsHelper()
+                .majorCompactionMinSSTables);
+    }
+
+    @Test
+    public void expiryDeferral() {
+        assertRejected("expiry_deferral_minutes", "-5");
+        assertRejected("expiry_deferral_minutes", "soon");
+        assertEquals(TimeUnit.HOURS.toMillis(2), new TimeWindowCompactionStrategyOptionsHelper(
+                allOptions()).expiryDeferralMillis);
+    }
+
+    @Test
+    public void fastLane() {
+        assertRejected("fast_lane_max_sstable_size_in_mb", "-1");
+        assertRejected("fast_lane_max_sstable_size_in_mb", "small");
+        assertRejected("fast_lane_min_sstables", "1");
+        assertRejected("fast_lane_min_sstables", "few");
+        TimeWindowCompactionStrategyOptionsHelper options = new TimeWindowCompactionStrategyOptionsHelper(
+                allOptions());
+        assertEquals(16L * 1024 * 1024, options.fastLaneMaxBytes);
+        assertEquals(8, options.fastLaneMinSSTables);
+        assertEquals(0, new TimeWindowCompactionStrategyOptionsHelper().fastLaneMaxBytes);
+    }
+}
@@ -0,0 +1,116 @@
+package org.apache.cassandra.db.compaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class TimeWindowIndexTest {
+
+    static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    static SSTableReader table(int id, long hour) {
+        long micros = TimeUnit.MILLISECONDS.toMicros(hour * HOUR_MILLIS);
+        return StubSSTableReader.create(id, SyntheticSSTables.metadata(micros, micros + 10,
+                Integer.MAX_VALUE, 0, 0), 1000);
+    }
+
+    static TimeWindowIndex hourly() {
+        return new TimeWindowIndex(TimeUnit.HOURS, 1, TimeUnit.MICROSECONDS);
+    }
+
+    @Test
+    public void addAndRemove() {
+        SSTableReader a = table(1, 10);
+        SSTableReader b = table(2, 10);
+        SSTableReader c = table(3, 12);
+        TimeWindowIndex index = hourly().with(c).with(a).with(b);
+
+        assertEquals(3, index.size());
+        assertEquals(2, index.windowCount());
+        assertEquals(10 * HOUR_MILLIS, index.windowAt(0));
+        assertEquals(12 * HOUR_MILLIS, index.getHighestWindow());
+        assertEquals(ImmutableSet.of(a, b), index.get(10 * HOUR_MILLIS));
+        assertTrue(index.contains(a));
+
+        assertSame(index, index.with(a));
+        assertSame(index, index.without(table(4, 11)));
+
+        TimeWindowIndex removed = index.without(c);
+        assertEquals(2, removed.size());
+        assertEquals(1, removed.windowCount());
+        assertEquals(10 * HOUR_MILLIS, removed.getHighestWindow());
+        assertFalse(removed.contains(c));
+        assertTrue(index.contains(c));
+    }
+
+    @Test
+    public void replaceWithinAndAcrossWindows() {
+        SSTableReader a = table(1, 10);
+        SSTableReader b = table(2, 10);
+        SSTableReader c = table(3, 11);
+        TimeWindowIndex index = hourly().replace(Collections.<SSTableReader>emptySet(),
+                Arrays.asList(a, b, c));
+
+        SSTableReader merged = table(4, 10);
+        TimeWindowIndex compacted = index.replace(Arrays.asList(a, b),
+                Collections.singleton(merged));
+        assertEquals(2, compacted.size());
+        assertEquals(ImmutableSet.of(merged), compacted.get(10 * HOUR_MILLIS));
+
+        SSTableReader moved = table(5, 13);
+        TimeWindowIndex across = compacted.replace(Arrays.asList(merged, c),
+                Collections.singleton(moved));
+        assertEquals(1, across.size());
+        assertEquals(1, across.windowCount());
+        assertEquals(13 * HOUR_MILLIS, across.windowAt(0));
+        assertEquals(ImmutableSet.of(moved), ImmutableSet.copyOf(across.all()));
+    }
+
+    @Test
+    public void estimateTasksCountsOlderPairsAndTheCurrentThreshold() {
+        SSTableReader older = table(1, 10);
+        TimeWindowIndex index = hourly().with(older).with(table(2, 10))
+                .with(table(3, 11)).with(table(4, 12)).with(table(5, 12));
+        long now = 12 * HOUR_MILLIS;
+
+        assertEquals(2, index.estimateTasks(now, 2));
+        assertEquals(1, index.estimateTasks(now, 4));
+        assertEquals(2, index.estimateTasks(11 * HOUR_MILLIS, 4));
+        assertEquals(3, index.estimateTasks(11 * HOUR_MILLIS, 1));
+        assertEquals(0, hourly().estimateTasks(now, 1));
+
+        TimeWindowIndex full = index.with(table(6, 12)).with(table(7, 12));
+        assertEquals(2, full.estimateTasks(now, 4));
+        assertEquals(1, full.without(older).estimateTasks(now, 4));
+    }
+
+    @Test
+    public void estimatePendingBytesFollowsTheQualifyingWindows() {
+        SSTableReader a = table(1, 10);
+        SSTableReader b = table(2, 10);
+        TimeWindowIndex index = hourly().with(a).with(b).with(table(3, 11))
+                .with(table(4, 12)).with(table(5, 12));
+        long now = 12 * HOUR_MILLIS;
+
+        assertEquals(4000, index.estimatePendingBytes(now, 2));
+        assertEquals(2000, index.estimatePendingBytes(now, 4));
+        assertEquals(4000, index.estimatePendingBytes(11 * HOUR_MILLIS, 4));
+        assertEquals(5000, index.estimatePendingBytes(11 * HOUR_MILLIS, 1));
+        assertEquals(0, hourly().estimatePendingBytes(now, 1));
+
+        TimeWindowIndex compacted = index.replace(Arrays.asList(a, b),
+                Collections.singleton(table(6, 10)));
+        assertEquals(0, compacted.estimatePendingBytes(now, 4));
+        assertEquals(2000, compacted.estimatePendingBytes(now, 2));
+    }
+}
@@ -0,0 +1,314 @@
+package org.apache.cassandra.db.compaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.ClusteringPrefix;
+import org.apache.cassandra.db.RowUpdateBuilder;
+import org.apache.cassandra.db.SerializationHeader;
+import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.db.marshal.LongType;
+import org.apache.cassandra.db.partitions.ImmutableBTreePartition;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.rows.EncodingStats;
+import org.apache.cassandra.db.rows.RangeTombstoneMarker;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.Unfiltered;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.format.SSTableWriter;
+import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.schema.CompressionParams;
+import org.apache.cassandra.utils.FBUtilities;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+
+public class TimeWindowSplittingWriterTest {
+
+    static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    static final CFMetaData metadata = StubColumnFamilyStore.create("ks", "split",
+            Collections.<SSTableReader>emptyList()).metadata;
+
+    static final TimeWindowIndex index = new TimeWindowIndex(TimeUnit.HOURS, 1,
+            TimeUnit.MICROSECONDS);
+
+    static long micros(long hour) {
+        return TimeUnit.MILLISECONDS.toMicros(hour * HOUR_MILLIS);
+    }
+
+    static RowUpdateBuilder write(long hour) {
+        return new RowUpdateBuilder(metadata, micros(hour), 1L);
+    }
+
+    // pieces of the partition by window, streamed into the one of the hour
+    static Map<Long, UnfilteredRowIterator> split(long hour, PartitionUpdate... updates) {
+        PartitionUpdate merged = PartitionUpdate.merge(Arrays.asList(updates));
+        TimeWindowSplittingWriter.WindowSplit split = new TimeWindowSplittingWriter.WindowSplit(
+                index, hour * HOUR_MILLIS, merged.unfilteredIterator());
+        ImmutableBTreePartition streamed = ImmutableBTreePartition.create(split.streamed());
+        Map<Long, UnfilteredRowIterator> pieces = new TreeMap<>(split.held());
+        if (!streamed.isEmpty())
+            pieces.put(hour * HOUR_MILLIS, streamed.unfilteredIterator());
+        return pieces;
+    }
+
+    static List<Unfiltered> contents(UnfilteredRowIterator piece) {
+        List<Unfiltered> contents = new ArrayList<>();
+        while (piece.hasNext())
+            contents.add(piece.next());
+        return contents;
+    }
+
+    @Test
+    public void singleWindowIsKeptWhole() {
+        Map<Long, UnfilteredRowIterator> pieces = split(10,
+                write(10).clustering(new Date(1)).add("value", 1L).buildUpdate(),
+                write(10).clustering(new Date(2)).add("value", 2L).buildUpdate());
+
+        assertEquals(Collections.singleton(10 * HOUR_MILLIS), pieces.keySet());
+        assertEquals(2, contents(pieces.get(10 * HOUR_MILLIS)).size());
+    }
+
+    @Test
+    public void olderWindowIsHeldWhole() {
+        Map<Long, UnfilteredRowIterator> pieces = split(12,
+                write(10).clustering(new Date(1)).add("value", 1L).buildUpdate(),
+                write(10).clustering(new Date(2)).add("value", 2L).buildUpdate());
+
+        assertEquals(Collections.singleton(10 * HOUR_MILLIS), pieces.keySet());
+        assertEquals(2, contents(pieces.get(10 * HOUR_MILLIS)).size());
+    }
+
+    @Test
+    public void rowsAreCutByCellTimestamp() {
+        Map<Long, UnfilteredRowIterator> pieces = split(11,
+                write(10).clustering(new Date(1)).add("value", 1L).buildUpdate(),
+                write(11).clustering(new Date(2)).add("value", 2L).buildUpdate(),
+                write(11).noRowMarker().clustering(new Date(1)).add("value", 3L)
+                        .buildUpdate());
+        assertEquals(Arrays.asList(10 * HOUR_MILLIS, 11 * HOUR_MILLIS),
+                new ArrayList<>(pieces.keySet()));
+
+        List<Unfiltered> older = contents(pieces.get(10 * HOUR_MILLIS));
+        assertEquals(1, older.size());
+        Row marker = (Row) older.get(0);
+        assertEquals(micros(10), marker.primaryKeyLivenessInfo().timestamp());
+        assertTrue(Iterables.isEmpty(marker.cells()));
+
+        List<Unfiltered> newer = contents(pieces.get(11 * HOUR_MILLIS));
+        assertEquals(2, newer.size());
+        Row overwritten = (Row) newer.get(0);
+        assertTrue(overwritten.primaryKeyLivenessInfo().isEmpty());
+        assertEquals(micros(11), Iterables.getOnlyElement(overwritten.cells()).timestamp());
+        Row whole = (Row) newer.get(1);
+        assertEquals(micros(11), whole.primaryKeyLivenessInfo().timestamp());
+        assertEquals(1, Iterables.size(whole.cells()));
+    }
+
+    @Test
+    public void partitionDeletionGoesToItsWindow() {
+        PartitionUpdate deletion = PartitionUpdate.fullPartitionDelete(metadata,
+                LongType.instance.decompose(1L), micros(10), FBUtilities.nowInSeconds());
+        Map<Long, UnfilteredRowIterator> pieces = split(12, deletion,
+                write(12).clustering(new Date(1)).add("value", 1L).buildUpdate());
+
+        UnfilteredRowIterator older = pieces.get(10 * HOUR_MILLIS);
+        assertEquals(micros(10), older.partitionLevelDeletion().markedForDeleteAt());
+        assertFalse(older.isEmpty());
+        assertTrue(contents(older).isEmpty());
+
+        UnfilteredRowIterator newer = pieces.get(12 * HOUR_MILLIS);
+        assertTrue(newer.partitionLevelDeletion().isLive());
+        assertEquals(1, contents(newer).size());
+    }
+
+    @Test
+    public void boundaryIsCutIntoCloseAndOpen() {
+        Map<Long, UnfilteredRowIterator> pieces = split(12,
+                write(10).addRangeTombstone(new Date(10), new Date(20)).buildUpdate(),
+                write(12).addRangeTombstone(new Date(15), new Date(30)).buildUpdate());
+        assertEquals(Arrays.asList(10 * HOUR_MILLIS, 12 * HOUR_MILLIS),
+                new ArrayList<>(pieces.keySet()));
+
+        List<Unfiltered> older = contents(pieces.get(10 * HOUR_MILLIS));
+        assertEquals(2, older.size());
+        RangeTombstoneMarker open = (RangeTombstoneMarker) older.get(0);
+        assertEquals(ClusteringPrefix.Kind.INCL_START_BOUND, open.clustering().kind());
+        assertEquals(micros(10), open.openDeletionTime(false).markedForDeleteAt());
+        RangeTombstoneMarker close = (RangeTombstoneMarker) older.get(1);
+        assertEquals(ClusteringPrefix.Kind.EXCL_END_BOUND, close.clustering().kind());
+        assertEquals(micros(10), close.closeDeletionTime(false).markedForDeleteAt());
+
+        List<Unfiltered> newer = contents(pieces.get(12 * HOUR_MILLIS));
+        assertEquals(2, newer.size());
+        RangeTombstoneMarker reopen = (RangeTombstoneMarker) newer.get(0);
+        assertEquals(ClusteringPrefix.Kind.INCL_START_BOUND, reopen.clustering().kind());
+        assertEquals(micros(12), reopen.openDeletionTime(false).markedForDeleteAt());
+        assertEquals(ClusteringPrefix.Kind.INCL_END_BOUND,
+                ((RangeTombstoneMarker) newer.get(1)).clustering().kind());
+    }
+
+    // partitions 0 until count, each with a row in hours 10 and 12
+    static List<UnfilteredRowIterator> partitions(int count) {
+        List<PartitionUpdate> updates = new ArrayList<>();
+        for (long key = 0; key < count; key++)
+            updates.add(PartitionUpdate.merge(Arrays.asList(
+                    new RowUpdateBuilder(metadata, micros(10), key).clustering(new Date(1))
+                            .add("value", key).buildUpdate(),
+                    new RowUpdateBuilder(metadata, micros(12), key).clustering(new Date(2))
+                            .add("value", key).buildUpdate())));
+        Collections.sort(updates, (a, b) -> a.partitionKey().compareTo(b.partitionKey()));
+        List<UnfilteredRowIterator> partitions = new ArrayList<>();
+        for (PartitionUpdate update : updates)
+            partitions.add(update.unfilteredIterator());
+        return partitions;
+    }
+
+    StubColumnFamilyStore cfs;
+
+    // in the system keyspace, whose sstables keep no read meter in the system
+    // tables, uncompressed so the size of an output grows with each partition
+    @Before
+    public void createTable() {
+        cfs = StubColumnFamilyStore.create(SystemKeyspace.NAME, "split_writer",
+                Collections.<SSTableReader>emptyList());
+        cfs.metadata.compression(CompressionParams.noCompression());
+        cfs.createDirectories();
+        for (File dir : cfs.getDirectories().getCFDirectories())
+            for (File file : dir.listFiles())
+                FileUtils.deleteRecursive(file);
+    }
+
+    // an sstable of count partitions spanning hours 10 to 12
+    @SuppressWarnings("resource")
+    SSTableReader spanning(int count) {
+        try (LifecycleTransaction txn = LifecycleTransaction.offline(OperationType.WRITE)) {
+            SSTableWriter writer = SSTableWriter.create(
+                    Descriptor.fromFilename(cfs.getSSTablePath(
+                            cfs.getDirectories().getDirectoryForNewSSTables())),
+                    (long) count, 0L, cfs.metadata,
+                    new MetadataCollector(cfs.metadata.comparator),
+                    new SerializationHeader(true, cfs.metadata,
+                            cfs.metadata.partitionColumns(), EncodingStats.NO_STATS),
+                    txn);
+            for (UnfilteredRowIterator partition : partitions(count))
+                writer.append(partition);
+            SSTableReader sstable = writer.finish(true);
+            txn.finish();
+            return sstable;
+        }
+    }
+
+    // keeps the input, its deletion would clear its read meter in the system
+    // tables
+    List<SSTableReader> compact(SSTableReader input, long maxSSTableBytes) {
+        try (LifecycleTransaction txn = LifecycleTransaction.offline(
+                OperationType.COMPACTION, input);
+                TimeWindowSplittingWriter writer = new TimeWindowSplittingWriter(cfs,
+                        cfs.getDirectories(), txn, txn.originals(), true, true, index,
+                        maxSSTableBytes)) {
+            try (ISSTableScanner scanner = input.getScanner()) {
+                while (scanner.hasNext())
+                    try (UnfilteredRowIterator partition = scanner.next()) {
+                        assertTrue(writer.append(partition));
+                    }
+            }
+            return new ArrayList<>(writer.finish());
+        }
+    }
+
+    List<String> dataFiles() {
+        List<String> files = new ArrayList<>();
+        for (File dir : cfs.getDirectories().getCFDirectories())
+            for (File file : dir.listFiles())
+                if (file.getName().endsWith(Component.DATA.name))
+                    files.add(file.getName());
+        return files;
+    }
+
+    static List<Unfiltered> read(SSTableReader sstable) {
+        List<Unfiltered> contents = new ArrayList<>();
+        try (ISSTableScanner scanner = sstable.getScanner()) {
+            while (scanner.hasNext())
+                try (UnfilteredRowIterator partition = scanner.next()) {
+                    contents.addAll(contents(partition));
+                }
+        }
+        return contents;
+    }
+
+    @Test
+    public void committedOutputsHoldOneWindowEach() {
+        SSTableReader input = spanning(10);
+        List<SSTableReader> outputs = compact(input, Long.MAX_VALUE);
+
+        assertEquals(2, outputs.size());
+        for (SSTableReader sstable : outputs) {
+            List<Unfiltered> rows = read(sstable);
+            assertEquals(10, rows.size());
+            long window = index.windowFor(sstable);
+            for (Unfiltered row : rows)
+                assertEquals(window, index.windowForTimestamp(
+                        ((Row) row).primaryKeyLivenessInfo().timestamp()));
+        }
+        // the streamed window is written first
+        assertEquals(12 * HOUR_MILLIS, index.windowFor(outputs.get(0)));
+        assertEquals(10 * HOUR_MILLIS, index.windowFor(outputs.get(1)));
+        assertEquals(3, dataFiles().size());
+        for (SSTableReader sstable : outputs)
+            sstable.selfRef().release();
+        input.selfRef().release();
+    }
+
+    @Test
+    public void fullOutputsAreFollowedByNewOnes() {
+        SSTableReader input = spanning(3);
+        List<SSTableReader> outputs = compact(input, 1);
+
+        // one per partition and window
+        assertEquals(6, outputs.size());
+        for (SSTableReader sstable : outputs) {
+            assertEquals(sstable.first, sstable.last);
+            sstable.selfRef().release();
+        }
+        input.selfRef().release();
+    }
+
+    @Test
+    public void abortedOutputsAreRemoved() {
+        SSTableReader input = spanning(3);
+        List<String> before = dataFiles();
+        try (LifecycleTransaction txn = LifecycleTransaction.offline(
+                OperationType.COMPACTION, input);
+                TimeWindowSplittingWriter writer = new TimeWindowSplittingWriter(cfs,
+                        cfs.getDirectories(), txn, txn.originals(), true, true, index, 1)) {
+            for (UnfilteredRowIterator partition : partitions(3))
+                writer.append(partition);
+            assertEquals(7, dataFiles().size());
+            writer.abort();
+        }
+        LifecycleTransaction.waitForDeletions();
+        assertEquals(before, dataFiles());
+        input.selfRef().release();
+    }
+}
@@ -0,0 +1,152 @@
+package org.apache.cassandra.db.compaction;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.db.commitlog.IntervalSet;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+import org.apache.cassandra.utils.EstimatedHistogram;
+import org.apache.cassandra.utils.StreamingHistogram;
+import org.junit.Test;
+
+public class TombstoneEstimatesTest {
+
+    static final long INTERVAL_SECONDS = 10;
+    static final long OLD = TimeUnit.SECONDS.toMillis(INTERVAL_SECONDS);
+
+    int checks;
+    final TombstoneEstimates estimates = new TombstoneEstimates((sstable, gcBefore) -> {
+        checks++;
+        return true;
+    });
+
+    // tombstones droppable from 1000 and 2000
+    static SSTableReader table(int id, long minTimestamp, long maxTimestamp, long first,
+            long last) {
+        StreamingHistogram tombstones = new StreamingHistogram(100);
+        tombstones.update(1000);
+        tombstones.update(2000);
+        return StubSSTableReader.create(id, SyntheticSSTables.metadata(minTimestamp,
+                maxTimestamp, Integer.MAX_VALUE, 0, 0, tombstones), 1000, first, last);
+    }
+
+    // 4 cells, so the two tombstones are half of them once droppable
+    static SSTableReader counted(int id, long minTimestamp, long maxTimestamp) {
+        StreamingHistogram tombstones = new StreamingHistogram(100);
+        tombstones.update(1000);
+        tombstones.update(2000);
+        EstimatedHistogram cells = new EstimatedHistogram();
+        cells.add(4);
+        return StubSSTableReader.create(id, new StatsMetadata(new EstimatedHistogram(),
+                cells, IntervalSet.empty(), minTimestamp, maxTimestamp, Integer.MAX_VALUE,
+                Integer.MAX_VALUE, 0, 0, 1.0, tombstones, 0,
+                Collections.emptyList(), Collections.emptyList(), false, 0, 0, 0), 1000);
+    }
+
+    long estimate(SSTableReader sstable, int gcBefore) {
+        return estimates.droppableBytes(sstable, gcBefore, OLD, INTERVAL_SECONDS);
+    }
+
+    @Test
+    public void keptUntilGcBeforePassesAHistogramPoint() {
+        SSTableReader sstable = table(1, 100, 200, 0, 100);
+
+        estimate(sstable, 500);
+        estimate(sstable, 999);
+        assertEquals(1, checks);
+        estimate(sstable, 1000);
+        estimate(sstable, 1999);
+        assertEquals(2, checks);
+        estimate(sstable, 2500);
+        assertEquals(3, checks);
+        assertEquals(1, estimates.size());
+    }
+
+    @Test
+    public void checkedOnceTheIntervalPassed() {
+        SSTableReader sstable = table(1, 100, 200, 0, 100);
+
+        assertEquals(0, estimates.droppableBytes(sstable, 500, OLD - 1, INTERVAL_SECONDS));
+        assertEquals(0, checks);
+        estimate(sstable, 500);
+        estimate(sstable, 500);
+        assertEquals(1, checks);
+    }
+
+    @Test
+    public void staleOnceAnOverlappingSSTableComesOrGoes() {
+        SSTableReader sstable = table(1, 100, 200, 0, 100);
+        SSTableReader overlapping = table(2, 50, 60, 50, 150);
+        SSTableReader apart = table(3, 50, 60, 200, 300);
+        estimate(sstable, 500);
+
+        estimates.changed(Collections.<SSTableReader>emptySet(),
+                Collections.singleton(apart));
+        estimate(sstable, 500);
+        assertEquals(1, checks);
+
+        estimates.changed(Collections.<SSTableReader>emptySet(),
+                Collections.singleton(overlapping));
+        estimate(sstable, 500);
+        assertEquals(2, checks);
+
+        estimates.changed(Collections.singleton(apart),
+                Collections.<SSTableReader>emptySet());
+        estimate(sstable, 500);
+        assertEquals(2, checks);
+
+        estimates.changed(Collections.singleton(overlapping),
+                Collections.<SSTableReader>emptySet());
+        estimate(sstable, 500);
+        assertEquals(3, checks);
+    }
+
+    @Test
+    public void newerDataLeavesTheEstimate() {
+        SSTableReader sstable = table(1, 100, 200, 0, 100);
+        estimate(sstable, 500);
+
+        estimates.changed(Collections.<SSTableReader>emptySet(),
+                Collections.singleton(table(2, 201, 300, 0, 100)));
+        estimate(sstable, 500);
+        assertEquals(1, checks);
+
+        estimates.changed(Collections.<SSTableReader>emptySet(),
+                Collections.singleton(table(3, 200, 300, 0, 100)));
+        estimate(sstable, 500);
+        assertEquals(2, checks);
+    }
+
+    @Test
+    public void removedSSTablesAreForgotten() {
+        SSTableReader sstable = table(1, 100, 200, 0, 100);
+        estimate(sstable, 500);
+        estimates.droppableRatio(sstable, 500);
+        assertEquals(1, estimates.size());
+
+        estimates.changed(Collections.singleton(sstable),
+                Collections.<SSTableReader>emptySet());
+        assertEquals(0, estimates.size());
+        estimate(sstable, 500);
+        assertEquals(2, checks);
+    }
+
+    @Test
+    public void totalFollowsTheCachedEstimates() {
+        SSTableReader sstable = counted(1, 100, 200);
+        SSTableReader other = counted(2, 300, 400);
+        assertEquals(250, estimate(sstable, 1500));
+        assertEquals(250, estimate(other, 1500));
+        assertEquals(500, estimates.droppableBytes());
+
+        estimates.changed(Collections.singleton(sstable),
+                Collections.<SSTableReader>emptySet());
+        assertEquals(250, estimates.droppableBytes());
+        // recomputed once gcBefore passes the next point
+        assertEquals(500, estimate(other, 2500));
+        assertEquals(500, estimates.droppableBytes());
+    }
+}